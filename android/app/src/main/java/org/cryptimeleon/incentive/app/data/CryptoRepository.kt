@@ -5,6 +5,7 @@ import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.withContext
 import org.cryptimeleon.incentive.app.data.database.crypto.CryptoDao
 import org.cryptimeleon.incentive.app.data.database.crypto.CryptoMaterialEntity
 import org.cryptimeleon.incentive.app.data.database.crypto.CryptoTokenEntity
@@ -15,6 +16,7 @@ import org.cryptimeleon.incentive.app.domain.*
 import org.cryptimeleon.incentive.app.domain.model.*
 import org.cryptimeleon.incentive.crypto.IncentiveSystem
 import org.cryptimeleon.incentive.crypto.IncentiveSystemRestorer
+import org.cryptimeleon.incentive.crypto.TokenPrecomputationCache
 import org.cryptimeleon.incentive.crypto.model.*
 import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey
 import org.cryptimeleon.incentive.crypto.model.keys.user.UserKeyPair
@@ -36,6 +38,12 @@ class CryptoRepository(
 ) : ICryptoRepository {
     private val jsonConverter = JSONConverter()
 
+    // Precomputed values of the user's tokens, these depend on the user secret key and must not leave this repository
+    private val tokenPrecomputationCache = TokenPrecomputationCache(TOKEN_PRECOMPUTATION_CACHE_SIZE)
+
+    override fun incentiveSystem(pp: IncentivePublicParameters) =
+        IncentiveSystem(pp, tokenPrecomputationCache)
+
     override val tokens: Flow<List<Token>>
         get() = cryptoDao.observeTokens().map {
             val cryptoMaterial = cryptoMaterial.first()
@@ -60,7 +68,7 @@ class CryptoRepository(
         val pp = cryptoMaterial.pp
         val providerPublicKey = cryptoMaterial.ppk
         val userKeyPair = cryptoMaterial.ukp
-        val incentiveSystem = IncentiveSystem(pp)
+        val incentiveSystem = incentiveSystem(pp)
 
         val generateIssueJoinOutput =
             incentiveSystem.generateJoinRequest(providerPublicKey, userKeyPair)
@@ -87,6 +95,7 @@ class CryptoRepository(
         } else {
             cryptoDao.insertTokenIfNotPresent(toCryptoTokenEntity(token))
         }
+        precomputeToken(cryptoMaterial, token)
     }
 
     override suspend fun sendTokenUpdatesBatchToStore(
@@ -132,11 +141,26 @@ class CryptoRepository(
                 jsonConverter.serialize(token.representation)
             )
         )
+        cryptoMaterial.first()?.let { precomputeToken(it, token) }
     }
 
+    /**
+     * Derive everything needed for the next update of a new token while the user is shopping,
+     * such that the requests at checkout are mostly proof generation.
+     */
+    private suspend fun precomputeToken(cryptoMaterial: CryptoMaterial, token: Token) =
+        withContext(Dispatchers.Default) {
+            incentiveSystem(cryptoMaterial.pp).precomputeToken(
+                cryptoMaterial.ukp,
+                cryptoMaterial.ppk,
+                token
+            )
+        }
+
     override suspend fun deleteAll() {
         cryptoDao.deleteTokens()
         cryptoDao.deleteCryptoMaterial()
+        tokenPrecomputationCache.clear()
     }
 
     override suspend fun refreshCryptoMaterial(userDataForRegistration: String) {
@@ -235,6 +259,7 @@ class CryptoRepository(
      * This is not a Converter since it requires the public parameters as additional resources.
      */
     companion object Converter {
+        private const val TOKEN_PRECOMPUTATION_CACHE_SIZE = 64
         private val jsonConverter = JSONConverter()
 
         fun toCryptoTokenEntity(token: Token): CryptoTokenEntity = CryptoTokenEntity(
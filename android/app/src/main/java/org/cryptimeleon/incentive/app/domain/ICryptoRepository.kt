@@ -2,6 +2,8 @@ package org.cryptimeleon.incentive.app.domain
 
 import kotlinx.coroutines.flow.Flow
 import org.cryptimeleon.incentive.app.domain.model.*
+import org.cryptimeleon.incentive.crypto.IncentiveSystem
+import org.cryptimeleon.incentive.crypto.model.IncentivePublicParameters
 import org.cryptimeleon.incentive.crypto.model.PromotionParameters
 import org.cryptimeleon.incentive.crypto.model.Token
 import java.util.*
@@ -13,6 +15,11 @@ interface ICryptoRepository {
     // Flow of the crypto material
     val cryptoMaterial: Flow<CryptoMaterial?>
 
+    /**
+     * Incentive system that uses the precomputed values of this repository's tokens.
+     */
+    fun incentiveSystem(pp: IncentivePublicParameters): IncentiveSystem
+
     /**
      * Refresh the crypto material by querying the info service.
      *
@@ -11,6 +11,7 @@ import org.cryptimeleon.incentive.crypto.IncentiveSystem
 import org.cryptimeleon.incentive.crypto.model.*
 import org.cryptimeleon.incentive.promotion.ContextManager
 import org.cryptimeleon.incentive.promotion.Promotion
+import org.cryptimeleon.incentive.promotion.ZkpTokenUpdate
 import org.cryptimeleon.incentive.promotion.ZkpTokenUpdateMetadata
 import org.cryptimeleon.math.serialization.RepresentableRepresentation
 import org.cryptimeleon.math.serialization.converter.JSONConverter
@@ -18,6 +19,7 @@ import org.cryptimeleon.math.structures.cartesian.Vector
 import timber.log.Timber
 import java.math.BigInteger
 import java.util.*
+import java.util.concurrent.ForkJoinPool
 
 class PayAndRedeemUseCase(
     private val promotionRepository: IPromotionRepository,
@@ -53,7 +55,7 @@ class PayAndRedeemUseCase(
                 preferencesRepository.doubleSpendingPreferencesFlow.first()
             val tokens = cryptoRepository.tokens.first()
             val pp = cryptoMaterial.pp
-            val incentiveSystem = IncentiveSystem(pp)
+            val incentiveSystem = cryptoRepository.incentiveSystem(pp)
             // Push basket to current store
             val basketId = basketRepository.pushCurrentBasket()
             val storeUrl = storeSelectionRepository.currentStore.first().url
@@ -317,58 +319,78 @@ class PayAndRedeemUseCase(
         incentiveSystem: IncentiveSystem,
         cryptoMaterial: CryptoMaterial,
         basketId: UUID
-    ) = userTokenUpdates.mapNotNull {
-        when (it.userUpdateChoice) {
-            is ZKP -> {
-                val token =
-                    tokens.find { token -> token.promotionId == it.promotionId }!!
-                val promotion =
-                    promotionParameters.find { promotion -> promotion.promotionParameters.promotionId == it.promotionId }!!
-                val update =
-                    promotion.zkpTokenUpdates.find { zkpTokenUpdate -> zkpTokenUpdate.tokenUpdateId == it.userUpdateChoice.tokenUpdateId }!!
-                val metadata = promotion.generateMetadataForUpdate()
-                val basketValue =
-                    promotion.computeEarningsForBasket(basket.toPromotionBasket(basketId))
-                val newPointsVector = update.computeSatisfyingNewPointsVector(
-                    token.toBigIntVector(),
-                    basketValue,
-                    metadata
-                ).get()
-                val context =
-                    ContextManager.computeContext(update.tokenUpdateId, basketValue, metadata)
-                val zkpRequest = incentiveSystem.generateStoreSpendRequest(
-                    cryptoMaterial.ukp,
-                    cryptoMaterial.ppk,
-                    token,
-                    promotion.promotionParameters,
-                    basketId,
-                    newPointsVector,
-                    update.generateRelationTree(basketValue, metadata),
-                    context
+    ): List<Pair<SpendRequestStoreDto, SpendStoreCache>> {
+        val spendChoices = userTokenUpdates.mapNotNull {
+            when (it.userUpdateChoice) {
+                is ZKP -> {
+                    val token =
+                        tokens.find { token -> token.promotionId == it.promotionId }!!
+                    val promotion =
+                        promotionParameters.find { promotion -> promotion.promotionParameters.promotionId == it.promotionId }!!
+                    val update =
+                        promotion.zkpTokenUpdates.find { zkpTokenUpdate -> zkpTokenUpdate.tokenUpdateId == it.userUpdateChoice.tokenUpdateId }!!
+                    val metadata = promotion.generateMetadataForUpdate()
+                    val basketValue =
+                        promotion.computeEarningsForBasket(basket.toPromotionBasket(basketId))
+                    val newPointsVector = update.computeSatisfyingNewPointsVector(
+                        token.toBigIntVector(),
+                        basketValue,
+                        metadata
+                    ).get()
+                    SpendChoice(it.promotionId, token, promotion, update, metadata, basketValue, newPointsVector)
+                }
+                else -> null
+            }
+        }
+
+        // The proofs of the different tokens are independent, hence generate them in parallel
+        val zkpRequests = incentiveSystem.generateStoreSpendRequests(
+            cryptoMaterial.ukp,
+            cryptoMaterial.ppk,
+            basketId,
+            spendChoices.map {
+                SpendStoreRequestInput(
+                    it.token,
+                    it.promotion.promotionParameters,
+                    it.newPointsVector,
+                    it.update.generateRelationTree(it.basketValue, it.metadata),
+                    ContextManager.computeContext(it.update.tokenUpdateId, it.basketValue, it.metadata)
                 )
+            },
+            ForkJoinPool.commonPool()
+        )
 
-                Pair(
-                    SpendRequestStoreDto(
-                        jsonConverter.serialize(zkpRequest.representation),
-                        it.promotionId,
-                        update.tokenUpdateId,
-                        jsonConverter.serialize(RepresentableRepresentation(metadata))
-                    ),
-                    SpendStoreCache(
-                        promotion.promotionParameters.promotionId,
-                        update.tokenUpdateId,
-                        zkpRequest,
-                        basketValue,
-                        metadata,
-                        newPointsVector,
-                        token
-                    )
+        return spendChoices.zip(zkpRequests) { spendChoice, zkpRequest ->
+            Pair(
+                SpendRequestStoreDto(
+                    jsonConverter.serialize(zkpRequest.representation),
+                    spendChoice.promotionId,
+                    spendChoice.update.tokenUpdateId,
+                    jsonConverter.serialize(RepresentableRepresentation(spendChoice.metadata))
+                ),
+                SpendStoreCache(
+                    spendChoice.promotion.promotionParameters.promotionId,
+                    spendChoice.update.tokenUpdateId,
+                    zkpRequest,
+                    spendChoice.basketValue,
+                    spendChoice.metadata,
+                    spendChoice.newPointsVector,
+                    spendChoice.token
                 )
-            }
-            else -> null
+            )
         }
     }
 
+    private data class SpendChoice(
+        val promotionId: BigInteger,
+        val token: Token,
+        val promotion: Promotion,
+        val update: ZkpTokenUpdate,
+        val metadata: ZkpTokenUpdateMetadata,
+        val basketValue: Vector<BigInteger>,
+        val newPointsVector: Vector<BigInteger>
+    )
+
     private fun generateEarnRequest(
         userTokenUpdates: List<PromotionUserUpdateChoice>,
         tokens: List<Token>,
@@ -25,6 +25,8 @@ class FakeCryptoRepository(
         get() = _cryptoMaterial
     private val incentiveSystem = IncentiveSystem(pp)
 
+    override fun incentiveSystem(pp: IncentivePublicParameters) = IncentiveSystem(pp)
+
     override suspend fun refreshCryptoMaterial(userDataForRegistration: String) {
         _cryptoMaterial.value = CryptoMaterial(pp, providerKeyPair.pk, userKeyPair)
     }
@@ -0,0 +1,146 @@
+package org.cryptimeleon.incentive.crypto.jmh;
+
+import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
+import org.cryptimeleon.incentive.crypto.IncentiveSystem;
+import org.cryptimeleon.incentive.crypto.benchmark.BenchmarkBlacklist;
+import org.cryptimeleon.incentive.crypto.exception.ProviderDoubleSpendingDetectedException;
+import org.cryptimeleon.incentive.crypto.exception.StoreDoubleSpendingDetectedException;
+import org.cryptimeleon.incentive.crypto.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for every public protocol step of the {@link IncentiveSystem}.
+ * All inputs are generated once per trial by {@link IncentiveSystemState}, so each method measures a single step.
+ * Run via `./gradlew jmh`, allocation rates are reported by the gc profiler configured in build.gradle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IncentiveSystemBenchmark {
+
+    /*
+     * Registration
+     */
+
+    @Benchmark
+    public RegistrationCoupon registrationStoreResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.signRegistrationCoupon(s.storeKeyPair, s.userKeyPair.getPk(), IncentiveSystemState.USER_INFO);
+    }
+
+    @Benchmark
+    public boolean registrationProviderRequest(IncentiveSystemState s) {
+        return s.incentiveSystem.verifyRegistrationCoupon(s.registrationCoupon, storePublicKey -> true);
+    }
+
+    @Benchmark
+    public SPSEQSignature registrationProviderResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.verifyRegistrationCouponAndIssueRegistrationToken(
+                s.providerKeyPair, s.registrationCoupon, storePublicKey -> true, coupon -> {});
+    }
+
+    @Benchmark
+    public boolean registrationHandleResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.verifyRegistrationToken(s.providerKeyPair.getPk(), s.registrationToken, s.userKeyPair.getPk());
+    }
+
+    /*
+     * Issue-Join
+     */
+
+    @Benchmark
+    public JoinFirstStepOutput joinProviderRequest(IncentiveSystemState s) {
+        return s.incentiveSystem.generateJoinRequest(s.providerKeyPair.getPk(), s.userKeyPair);
+    }
+
+    @Benchmark
+    public JoinResponse joinProviderResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.generateJoinRequestResponse(s.promotionParameters, s.providerKeyPair,
+                s.joinFirstStepOutput.getJoinRequest());
+    }
+
+    @Benchmark
+    public Token joinHandleResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.handleJoinRequestResponse(s.promotionParameters, s.providerKeyPair.getPk(),
+                s.joinFirstStepOutput, s.joinResponse);
+    }
+
+    /*
+     * Credit-Earn
+     */
+
+    @Benchmark
+    public EarnStoreRequest earnStoreRequest(IncentiveSystemState s) {
+        return s.incentiveSystem.generateEarnCouponRequest(s.token, s.userKeyPair);
+    }
+
+    @Benchmark
+    public EarnStoreResponse earnStoreResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.signEarnCoupon(s.storeKeyPair, s.earnAmount, s.earnStoreRequest, s.basketId,
+                s.promotionParameters.getPromotionId(), IncentiveSystemState.NOT_REDEEMED);
+    }
+
+    @Benchmark
+    public EarnProviderRequest earnProviderRequest(IncentiveSystemState s) {
+        return s.incentiveSystem.generateEarnRequest(s.token, s.providerKeyPair.getPk(), s.userKeyPair, s.earnAmount,
+                s.earnStoreResponse);
+    }
+
+    @Benchmark
+    public SPSEQSignature earnProviderResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.generateEarnResponse(s.earnProviderRequest, s.promotionParameters, s.providerKeyPair,
+                earnTransactionData -> {}, storePublicKey -> true);
+    }
+
+    @Benchmark
+    public Token earnHandleResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.handleEarnResponse(s.earnProviderRequest, s.earnResponse, s.promotionParameters,
+                s.token, s.userKeyPair, s.providerKeyPair.getPk());
+    }
+
+    /*
+     * Spend-Deduct
+     */
+
+    @Benchmark
+    public SpendStoreRequest spendStoreRequest(IncentiveSystemState s) {
+        return s.incentiveSystem.generateStoreSpendRequest(s.userKeyPair, s.providerKeyPair.getPk(), s.spendToken,
+                s.promotionParameters, s.basketId, s.newPoints, s.spendDeductTree, s.context);
+    }
+
+    @Benchmark
+    public SpendStoreResponse spendStoreResponse(IncentiveSystemState s) throws StoreDoubleSpendingDetectedException {
+        // Fresh blacklist such that repeated invocations are not detected as double-spending
+        return s.incentiveSystem.signSpendCoupon(s.storeKeyPair, s.providerKeyPair.getPk(), s.basketId,
+                s.promotionParameters, s.spendStoreRequest, s.spendDeductTree, s.context,
+                IncentiveSystemState.NOT_REDEEMED, new BenchmarkBlacklist(), spendTransactionData -> {});
+    }
+
+    @Benchmark
+    public boolean spendVerifyCouponSignature(IncentiveSystemState s) {
+        return s.incentiveSystem.verifySpendCouponSignature(s.spendStoreRequest, s.spendStoreResponse,
+                s.promotionParameters, s.basketId);
+    }
+
+    @Benchmark
+    public SpendProviderResponse spendProviderResponse(IncentiveSystemState s) throws ProviderDoubleSpendingDetectedException {
+        return s.incentiveSystem.verifySpendRequestAndIssueNewToken(s.providerKeyPair, s.promotionParameters,
+                s.spendProviderRequest, s.basketId, s.spendDeductTree, s.context, storePublicKey -> true,
+                new BenchmarkBlacklist());
+    }
+
+    @Benchmark
+    public Token spendHandleResponse(IncentiveSystemState s) {
+        return s.incentiveSystem.retrieveUpdatedTokenFromSpendResponse(s.userKeyPair, s.providerKeyPair.getPk(),
+                s.spendToken, s.promotionParameters, s.newPoints, s.spendProviderRequest, s.spendProviderResponse);
+    }
+
+    /*
+     * Double-spending
+     */
+
+    @Benchmark
+    public UserInfo link(IncentiveSystemState s) {
+        return s.incentiveSystem.link(s.doubleSpendingTag, s.secondDoubleSpendingTag);
+    }
+}
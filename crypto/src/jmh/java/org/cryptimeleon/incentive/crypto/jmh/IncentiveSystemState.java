@@ -0,0 +1,218 @@
+package org.cryptimeleon.incentive.crypto.jmh;
+
+import org.cryptimeleon.craco.common.ByteArrayImplementation;
+import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
+import org.cryptimeleon.incentive.crypto.BilinearGroupChoice;
+import org.cryptimeleon.incentive.crypto.IncentiveSystem;
+import org.cryptimeleon.incentive.crypto.Util;
+import org.cryptimeleon.incentive.crypto.benchmark.BenchmarkBlacklist;
+import org.cryptimeleon.incentive.crypto.callback.IStoreBasketRedeemedHandler;
+import org.cryptimeleon.incentive.crypto.exception.ProviderDoubleSpendingDetectedException;
+import org.cryptimeleon.incentive.crypto.exception.StoreDoubleSpendingDetectedException;
+import org.cryptimeleon.incentive.crypto.model.*;
+import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderKeyPair;
+import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey;
+import org.cryptimeleon.incentive.crypto.model.keys.store.StoreKeyPair;
+import org.cryptimeleon.incentive.crypto.model.keys.user.UserKeyPair;
+import org.cryptimeleon.incentive.crypto.proof.spend.leaf.TokenPointsLeaf;
+import org.cryptimeleon.incentive.crypto.proof.spend.leaf.TokenUpdateLeaf;
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductAndNode;
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductOrNode;
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
+import org.cryptimeleon.math.structures.cartesian.Vector;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Shared JMH state for the {@link IncentiveSystemBenchmark}.
+ * Generates public parameters, keys and one valid message for every protocol step once per trial, such that each
+ * benchmark method measures exactly one step of the {@link IncentiveSystem} and nothing else.
+ */
+@State(Scope.Benchmark)
+public class IncentiveSystemState {
+
+    /**
+     * Points earned per vector entry during setup. Large enough for all spend tree shapes below.
+     */
+    static final BigInteger INITIAL_POINTS = BigInteger.valueOf(100);
+    /**
+     * Points deducted per vector entry by the benchmarked spend.
+     */
+    static final BigInteger SPEND_AMOUNT = BigInteger.valueOf(10);
+    static final String USER_INFO = "JMH Benchmark User";
+    static final IStoreBasketRedeemedHandler NOT_REDEEMED =
+            (basketId, promotionId, hash) -> IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_NOT_REDEEMED;
+
+    /**
+     * Herumi_MCL needs the native mcl library and is therefore opt-in, e.g. via `-Pjmh.groups=Herumi_MCL`.
+     */
+    @Param({"Debug", "BarretoNaehrig"})
+    public BilinearGroupChoice bilinearGroupChoice;
+
+    @Param({"128"})
+    public int securityParameter;
+
+    @Param({"1", "2", "5"})
+    public int pointsVectorSize;
+
+    /**
+     * Shape of the spend-deduct tree, see {@link #buildSpendDeductTree()}.
+     */
+    @Param({"LEAF", "AND", "OR"})
+    public String spendTreeShape;
+
+    /**
+     * Whether fixed-base exponentiation tables are precomputed for the public parameters and provider public key.
+     */
+    @Param({"false", "true"})
+    public boolean precomputePowers;
+
+    IncentivePublicParameters pp;
+    IncentiveSystem incentiveSystem;
+    ProviderKeyPair providerKeyPair;
+    StoreKeyPair storeKeyPair;
+    UserKeyPair userKeyPair;
+    PromotionParameters promotionParameters;
+    SpendDeductTree spendDeductTree;
+    ByteArrayImplementation context;
+    UUID basketId;
+    UUID secondBasketId;
+
+    Vector<BigInteger> earnAmount;
+    Vector<BigInteger> newPoints;
+
+    // Registration
+    RegistrationCoupon registrationCoupon;
+    SPSEQSignature registrationToken;
+
+    // Issue-Join
+    JoinFirstStepOutput joinFirstStepOutput;
+    JoinResponse joinResponse;
+
+    // Credit-Earn
+    Token token;
+    EarnStoreRequest earnStoreRequest;
+    EarnStoreResponse earnStoreResponse;
+    EarnProviderRequest earnProviderRequest;
+    SPSEQSignature earnResponse;
+
+    // Spend-Deduct
+    Token spendToken;
+    SpendStoreRequest spendStoreRequest;
+    SpendStoreResponse spendStoreResponse;
+    SpendProviderRequest spendProviderRequest;
+    SpendProviderResponse spendProviderResponse;
+
+    // Link
+    DoubleSpendingTag doubleSpendingTag;
+    DoubleSpendingTag secondDoubleSpendingTag;
+
+    @Setup(Level.Trial)
+    public void setup() throws StoreDoubleSpendingDetectedException, ProviderDoubleSpendingDetectedException {
+        pp = IncentiveSystem.setup(securityParameter, bilinearGroupChoice);
+        if (precomputePowers) {
+            pp = new IncentivePublicParameters(pp.getRepresentation(), true);
+        }
+        incentiveSystem = new IncentiveSystem(pp);
+        providerKeyPair = incentiveSystem.generateProviderKeyPair();
+        if (precomputePowers) {
+            providerKeyPair = new ProviderKeyPair(providerKeyPair.getSk(),
+                    new ProviderPublicKey(providerKeyPair.getPk().getRepresentation(), pp, true));
+        }
+        storeKeyPair = incentiveSystem.generateStoreKeyPair();
+        userKeyPair = Util.addRegistrationSignatureToUserPreKeys(incentiveSystem.generateUserPreKeyPair(), providerKeyPair, pp);
+        promotionParameters = IncentiveSystem.generatePromotionParameters(pointsVectorSize);
+        spendDeductTree = buildSpendDeductTree();
+        context = new ByteArrayImplementation("JMH Context".getBytes());
+        basketId = UUID.randomUUID();
+        secondBasketId = UUID.randomUUID();
+        earnAmount = Vector.iterate(INITIAL_POINTS, v -> v, pointsVectorSize);
+
+        registrationCoupon = incentiveSystem.signRegistrationCoupon(storeKeyPair, userKeyPair.getPk(), USER_INFO);
+        registrationToken = incentiveSystem.verifyRegistrationCouponAndIssueRegistrationToken(
+                providerKeyPair, registrationCoupon, storePublicKey -> true, coupon -> {});
+
+        joinFirstStepOutput = incentiveSystem.generateJoinRequest(providerKeyPair.getPk(), userKeyPair);
+        joinResponse = incentiveSystem.generateJoinRequestResponse(promotionParameters, providerKeyPair, joinFirstStepOutput.getJoinRequest());
+        token = incentiveSystem.handleJoinRequestResponse(promotionParameters, providerKeyPair.getPk(), joinFirstStepOutput, joinResponse);
+
+        earnStoreRequest = incentiveSystem.generateEarnCouponRequest(token, userKeyPair);
+        earnStoreResponse = incentiveSystem.signEarnCoupon(storeKeyPair, earnAmount, earnStoreRequest, basketId,
+                promotionParameters.getPromotionId(), NOT_REDEEMED);
+        earnProviderRequest = incentiveSystem.generateEarnRequest(token, providerKeyPair.getPk(), userKeyPair, earnAmount, earnStoreResponse);
+        earnResponse = incentiveSystem.generateEarnResponse(earnProviderRequest, promotionParameters, providerKeyPair,
+                earnTransactionData -> {}, storePublicKey -> true);
+        spendToken = incentiveSystem.handleEarnResponse(earnProviderRequest, earnResponse, promotionParameters, token,
+                userKeyPair, providerKeyPair.getPk());
+
+        newPoints = Vector.fromStreamPlain(spendToken.getPoints().stream().map(p -> p.asInteger().subtract(SPEND_AMOUNT)));
+        List<SpendTransactionData> spendTransactionData = new ArrayList<>();
+        spendStoreRequest = generateStoreSpendRequest(basketId);
+        spendStoreResponse = signSpendCoupon(basketId, spendStoreRequest, spendTransactionData);
+        spendProviderRequest = new SpendProviderRequest(spendStoreRequest, spendStoreResponse);
+        spendProviderResponse = incentiveSystem.verifySpendRequestAndIssueNewToken(providerKeyPair, promotionParameters,
+                spendProviderRequest, basketId, spendDeductTree, context, storePublicKey -> true, new BenchmarkBlacklist());
+
+        // Spend the same token a second time for another basket to obtain two linkable double-spending tags
+        SpendStoreRequest secondSpendStoreRequest = generateStoreSpendRequest(secondBasketId);
+        signSpendCoupon(secondBasketId, secondSpendStoreRequest, spendTransactionData);
+        doubleSpendingTag = spendTransactionData.get(0).computeDsTag();
+        secondDoubleSpendingTag = spendTransactionData.get(1).computeDsTag();
+    }
+
+    private SpendStoreRequest generateStoreSpendRequest(UUID basketId) {
+        return incentiveSystem.generateStoreSpendRequest(userKeyPair, providerKeyPair.getPk(), spendToken,
+                promotionParameters, basketId, newPoints, spendDeductTree, context);
+    }
+
+    private SpendStoreResponse signSpendCoupon(UUID basketId,
+                                               SpendStoreRequest spendStoreRequest,
+                                               List<SpendTransactionData> spendTransactionData) throws StoreDoubleSpendingDetectedException {
+        return incentiveSystem.signSpendCoupon(storeKeyPair, providerKeyPair.getPk(), basketId, promotionParameters,
+                spendStoreRequest, spendDeductTree, context, NOT_REDEEMED, new BenchmarkBlacklist(), spendTransactionData::add);
+    }
+
+    /**
+     * Builds the spend-deduct tree selected by {@link #spendTreeShape}. The witness (the token after setup) satisfies
+     * every shape.
+     * <ul>
+     *     <li>LEAF: a single {@link TokenUpdateLeaf} that deducts the spend amount (same as the legacy benchmark)</li>
+     *     <li>AND: a range proof over the old points AND the token update</li>
+     *     <li>OR: the token update OR a second update that deducts twice the spend amount</li>
+     * </ul>
+     */
+    SpendDeductTree buildSpendDeductTree() {
+        switch (spendTreeShape) {
+            case "LEAF":
+                return updateLeaf("TokenUpdateLeaf", SPEND_AMOUNT);
+            case "AND":
+                return new SpendDeductAndNode(
+                        new TokenPointsLeaf("TokenPointsLeaf",
+                                Vector.iterate(SPEND_AMOUNT, v -> v, pointsVectorSize),
+                                Util.getNullBigIntegerVector(pointsVectorSize)),
+                        updateLeaf("TokenUpdateLeaf", SPEND_AMOUNT)
+                );
+            case "OR":
+                return new SpendDeductOrNode(
+                        updateLeaf("TokenUpdateLeaf", SPEND_AMOUNT),
+                        updateLeaf("TokenUpdateLeafAlt", SPEND_AMOUNT.shiftLeft(1))
+                );
+            default:
+                throw new IllegalArgumentException("Unknown spend tree shape " + spendTreeShape);
+        }
+    }
+
+    private TokenUpdateLeaf updateLeaf(String leafName, BigInteger subtractAmount) {
+        return new TokenUpdateLeaf(
+                leafName,
+                Vector.iterate(BigInteger.ZERO, v -> v, pointsVectorSize),
+                Util.getNullBigIntegerVector(pointsVectorSize),
+                Util.getOneBigIntegerVector(pointsVectorSize),
+                Vector.iterate(subtractAmount.negate(), v -> v, pointsVectorSize)
+        );
+    }
+}
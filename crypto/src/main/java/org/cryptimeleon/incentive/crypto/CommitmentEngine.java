@@ -0,0 +1,43 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.math.structures.groups.GroupElement;
+import org.cryptimeleon.math.structures.groups.cartesian.GroupElementVector;
+import org.cryptimeleon.math.structures.rings.cartesian.RingElementVector;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+
+/**
+ * Computes the (blinded) Pedersen commitments used in the tokens as a single multi-exponentiation.
+ * <p>
+ * Commitments of the form {@literal (Π_i H_i^e_i)^u} are evaluated as {@literal Π_i H_i^(e_i·u)}, i.e. the outer
+ * exponent is folded into the exponents. This saves one full exponentiation and leaves a single inner product, which
+ * the lazy evaluation of the math library computes as an interleaved multi-exponentiation (using precomputed tables of
+ * the bases, if any, see the precomputePowers flag of {@link org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey}).
+ */
+public class CommitmentEngine {
+
+    private CommitmentEngine() {
+    }
+
+    /**
+     * Computes {@literal Π_i bases_i^exponents_i}.
+     *
+     * @param bases     the bases, e.g. vector H
+     * @param exponents the exponents, must have the same length as the bases
+     * @return the commitment (not yet computed)
+     */
+    public static GroupElement commit(GroupElementVector bases, RingElementVector exponents) {
+        return bases.innerProduct(exponents);
+    }
+
+    /**
+     * Computes {@literal (Π_i bases_i^exponents_i)^outerExponent} as {@literal Π_i bases_i^(exponents_i·outerExponent)}.
+     *
+     * @param bases         the bases, e.g. vector H
+     * @param exponents     the exponents, must have the same length as the bases
+     * @param outerExponent the exponent applied to the whole commitment, e.g. the blinding value u
+     * @return the commitment (not yet computed)
+     */
+    public static GroupElement commit(GroupElementVector bases, RingElementVector exponents, Zn.ZnElement outerExponent) {
+        return bases.innerProduct(RingElementVector.fromStream(exponents.stream().map(e -> e.mul(outerExponent))));
+    }
+}
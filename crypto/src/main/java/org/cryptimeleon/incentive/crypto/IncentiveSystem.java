@@ -21,7 +21,8 @@ import org.cryptimeleon.incentive.crypto.model.keys.user.UserPreKeyPair;
 import org.cryptimeleon.incentive.crypto.model.keys.user.UserPublicKey;
 import org.cryptimeleon.incentive.crypto.model.keys.user.UserSecretKey;
 import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
-import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductBooleanZkp;
+import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCache;
+import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductParallelVerifier;
 import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCommonInput;
 import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpWitnessInput;
 import org.cryptimeleon.incentive.crypto.proof.wellformedness.CommitmentWellformednessCommonInput;
@@ -40,8 +41,16 @@ import org.cryptimeleon.math.structures.rings.zn.Zn;
 import org.cryptimeleon.math.structures.rings.zn.Zn.ZnElement;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 
@@ -49,12 +58,39 @@ import java.util.stream.Collectors;
  * Contains all main algorithms of the incentive system according to 2020 incentive systems paper.
  */
 public class IncentiveSystem {
+    private static final int SPEND_DEDUCT_ZKP_CACHE_SIZE = 256;
 
     // public parameters
     public final IncentivePublicParameters pp;
 
+    // precomputed values of the user's tokens, null if they are computed on every use
+    private final TokenPrecomputationCache tokenPrecomputationCache;
+
+    // spend-deduct proof systems for the public parameters of this instance
+    private final SpendDeductZkpCache spendDeductZkpCache;
+
     public IncentiveSystem(IncentivePublicParameters pp) {
+        this(pp, null);
+    }
+
+    /**
+     * Constructor for user applications that precompute their tokens, see {@link #precomputeToken}.
+     *
+     * @param pp                       the public parameters
+     * @param tokenPrecomputationCache the cache for the precomputed values of the user's tokens, owned by the caller
+     */
+    public IncentiveSystem(IncentivePublicParameters pp, TokenPrecomputationCache tokenPrecomputationCache) {
         this.pp = pp;
+        this.tokenPrecomputationCache = tokenPrecomputationCache;
+        this.spendDeductZkpCache = new SpendDeductZkpCache(pp, SPEND_DEDUCT_ZKP_CACHE_SIZE);
+    }
+
+    /**
+     * Returns the cache of spend-deduct proof systems of this instance, e.g. to restore spend requests of the same
+     * promotion without building their proof system again.
+     */
+    public SpendDeductZkpCache getSpendDeductZkpCache() {
+        return spendDeductZkpCache;
     }
 
     /**
@@ -90,6 +126,23 @@ public class IncentiveSystem {
         );
     }
 
+    /**
+     * Computes the key under which the response to a request is stored in a {@link IVerificationResultCacheHandler}.
+     * The key only consists of values that are computed anyway while processing the request (e.g. dsid and gamma),
+     * instead of the whole serialized request. The cached responses are bound to these values (e.g. signatures on the
+     * blinded token), hence they are only useful to the user that knows the token behind them.
+     *
+     * @param identifiers values that identify the request, e.g. dsid and gamma
+     * @return the key
+     */
+    private static byte[] computeResultCacheKey(byte[]... identifiers) {
+        var accumulator = new ByteArrayAccumulator();
+        for (byte[] identifier : identifiers) {
+            accumulator.escapeAndSeparate(identifier);
+        }
+        return accumulator.extractBytes();
+    }
+
     /**
      * wrapper for the provider key generation method in Setup
      *
@@ -260,7 +313,7 @@ public class IncentiveSystem {
         // compute Pedersen commitment for user token
         // need to retrieve exponent from usk object; point count of 0 is reresented by zero in used Z_n
         RingElementVector exponents = new RingElementVector(R.t, usk.getUsk(), R.dsidUser, R.dsrnd, R.z);
-        GroupElement c0Pre = H.innerProduct(exponents).pow(R.u);
+        GroupElement c0Pre = CommitmentEngine.commit(H, exponents, R.u);
         GroupElement c1Pre = pp.getG1Generator().pow(R.u);
 
         // compute NIZKP to prove well-formedness of token
@@ -350,7 +403,7 @@ public class IncentiveSystem {
         SPSEQSignature preCert = jRes.getPreCertificate();
         SPSEQSignatureScheme usedSpsEq = pp.getSpsEq();
 
-        GroupElement c0PreWithDsidProv = c0Pre.op(pk.getH().get(1).pow(jRes.getDsidProv()).pow(R.u));
+        GroupElement c0PreWithDsidProv = c0Pre.op(pk.getH().get(1).pow(jRes.getDsidProv().mul(R.u)));
 
         // verify the signature on the modified pre-commitment
         if (!usedSpsEq.verify(
@@ -382,15 +435,11 @@ public class IncentiveSystem {
      * @return a request that can be processed by the store
      */
     public EarnStoreRequest generateEarnCouponRequest(Token token, UserKeyPair userKeyPair) {
-        // Compute pseudorandom value from the token that is used to blind the commitment
+        // The commitment is blinded with a pseudorandom value derived from the token
         // This makes this algorithm deterministic
-        var s = pp.getPrfToZn().hashThenPrfToZn(userKeyPair.getSk().getPrfKey(), token, "CreditEarn");
-
-        var c0Prime = token.getCommitment0().pow(s).compute();
-        var c1Prime = pp.getG1Generator().pow(s).compute();
-        var c2Prime = c1Prime.pow(token.getPromotionId()).compute();
+        var precomputation = getTokenPrecomputation(userKeyPair, null, token);
 
-        byte[] h = computeEarnHash(c0Prime, c1Prime, c2Prime);
+        byte[] h = computeEarnHash(precomputation.c0Prime, precomputation.c1Prime, precomputation.c2Prime);
 
         return new EarnStoreRequest(h);
     }
@@ -466,21 +515,21 @@ public class IncentiveSystem {
             Vector<BigInteger> deltaK,
             EarnStoreResponse earnStoreResponse
     ) {
-        // Re-compute pseudorandom blinding value
-        var s = pp.getPrfToZn().hashThenPrfToZn(userKeyPair.getSk().getPrfKey(), token, "CreditEarn");
+        // Pseudorandom blinding value and blinded commitments, as used for the coupon request
+        var precomputation = getTokenPrecomputation(userKeyPair, null, token);
 
-        // Blind commitments and change representation of signature such that it is valid for blinded commitments
+        // Change representation of signature such that it is valid for blinded commitments
         // The blinded commitments and signature are sent to the provider
         return new EarnProviderRequest(
                 deltaK,
                 earnStoreResponse,
                 (SPSEQSignature) pp.getSpsEq().chgRep(
                         token.getSignature(),
-                        s,
+                        precomputation.earnS,
                         providerPublicKey.getPkSpsEq()
                 ),
-                token.getCommitment0().pow(s).compute(),  // Compute for concurrent computation
-                pp.getG1Generator().pow(s).compute()
+                precomputation.c0Prime,
+                precomputation.c1Prime
         );
     }
     // TODO remove promotionId and basketId from all crypto-requests! Sent alongside such that services can lookup stuff
@@ -505,40 +554,175 @@ public class IncentiveSystem {
                                                ProviderKeyPair providerKeyPair,
                                                IEarnTransactionDBHandler transactionDBHandler,
                                                IStorePublicKeyVerificationHandler storePublicKeyVerificationHandler) {
-        // Blinded token
-        var c0Prime = earnProviderRequest.getcPrime0();
-        var c1Prime = earnProviderRequest.getcPrime1();
-        var c2Prime = earnProviderRequest.getcPrime1().pow(promotionParameters.getPromotionId());
+        return generateEarnResponses(
+                List.of(earnProviderRequest),
+                List.of(promotionParameters),
+                providerKeyPair,
+                transactionDBHandler,
+                storePublicKeyVerificationHandler
+        ).get(0);
+    }
+
+    /**
+     * Batch version of {@link #generateEarnResponse}.
+     * The (blinded) SPS-EQ signatures of all requests are verified at once using {@link SPSEQBatchVerifier}, which
+     * saves most pairings compared to verifying each request on its own.
+     * Requests are only added to the clearing DB and signed if all of them are valid.
+     *
+     * @param earnProviderRequests              the earn requests
+     * @param promotionParameters               the parameters associated to the promotion of each request, i.e.
+     *                                          promotionParameters.get(i) belongs to earnProviderRequests.get(i)
+     * @param providerKeyPair                   the keys of the provider
+     * @param transactionDBHandler              a callback for adding all relevant data to the clearing db
+     * @param storePublicKeyVerificationHandler a callback for verifying that the store's key used to authenticate the request is trusted
+     * @return the blindly updated signatures, in the same order as the requests
+     */
+    public List<SPSEQSignature> generateEarnResponses(List<EarnProviderRequest> earnProviderRequests,
+                                                      List<PromotionParameters> promotionParameters,
+                                                      ProviderKeyPair providerKeyPair,
+                                                      IEarnTransactionDBHandler transactionDBHandler,
+                                                      IStorePublicKeyVerificationHandler storePublicKeyVerificationHandler) {
+        return generateEarnResponses(earnProviderRequests, promotionParameters, providerKeyPair, transactionDBHandler, storePublicKeyVerificationHandler, null);
+    }
 
-        // Compute hash h
-        var h = computeEarnHash(c0Prime, c1Prime, c2Prime);
+    /**
+     * Batch version of {@link #generateEarnResponse} that answers retried requests from a cache.
+     * A request with the same hash h, promotion and content as a previously answered one gets the previous signature
+     * without any verification, all other requests are processed as in
+     * {@link #generateEarnResponses(List, List, ProviderKeyPair, IEarnTransactionDBHandler, IStorePublicKeyVerificationHandler)}.
+     * Each promotion is prepared once per call, which is the work an unprepared request needs anyway. Callers that see
+     * the same promotions again should prepare them once and use {@link #generatePreparedEarnResponses}.
+     *
+     * @param earnProviderRequests              the earn requests
+     * @param promotionParameters               the parameters associated to the promotion of each request, i.e.
+     *                                          promotionParameters.get(i) belongs to earnProviderRequests.get(i)
+     * @param providerKeyPair                   the keys of the provider
+     * @param transactionDBHandler              a callback for adding all relevant data to the clearing db
+     * @param storePublicKeyVerificationHandler a callback for verifying that the store's key used to authenticate the request is trusted
+     * @param resultCache                       cache for the signatures of answered requests, null to disable caching
+     * @return the blindly updated signatures, in the same order as the requests
+     */
+    public List<SPSEQSignature> generateEarnResponses(List<EarnProviderRequest> earnProviderRequests,
+                                                      List<PromotionParameters> promotionParameters,
+                                                      ProviderKeyPair providerKeyPair,
+                                                      IEarnTransactionDBHandler transactionDBHandler,
+                                                      IStorePublicKeyVerificationHandler storePublicKeyVerificationHandler,
+                                                      IVerificationResultCacheHandler<SPSEQSignature> resultCache) {
+        // Prepare each promotion of the batch once
+        var preparedPromotions = new HashMap<PromotionParameters, PreparedPromotion>();
+        return generatePreparedEarnResponses(
+                earnProviderRequests,
+                promotionParameters.stream()
+                        .map(parameters -> preparedPromotions.computeIfAbsent(parameters, p -> PreparedPromotion.prepare(pp, providerKeyPair, p)))
+                        .collect(Collectors.toList()),
+                providerKeyPair,
+                transactionDBHandler,
+                storePublicKeyVerificationHandler,
+                resultCache
+        );
+    }
 
-        // Verify Store ECDSA public key is trusted
-        if (!storePublicKeyVerificationHandler.isStorePublicKeyTrusted(earnProviderRequest.getEarnStoreCoupon().getStorePublicKey())) {
-            throw new RuntimeException("Store public key is not trusted");
+    /**
+     * Same as {@link #generateEarnResponses(List, List, ProviderKeyPair, IEarnTransactionDBHandler, IStorePublicKeyVerificationHandler, IVerificationResultCacheHandler)},
+     * but with promotions that have been prepared in advance, e.g. when they were added to the system.
+     *
+     * @param earnProviderRequests              the earn requests
+     * @param preparedPromotions                the promotion of each request prepared with the provider key pair, i.e.
+     *                                          preparedPromotions.get(i) belongs to earnProviderRequests.get(i)
+     * @param providerKeyPair                   the keys of the provider
+     * @param transactionDBHandler              a callback for adding all relevant data to the clearing db
+     * @param storePublicKeyVerificationHandler a callback for verifying that the store's key used to authenticate the request is trusted
+     * @param resultCache                       cache for the signatures of answered requests, null to disable caching
+     * @return the blindly updated signatures, in the same order as the requests
+     */
+    public List<SPSEQSignature> generatePreparedEarnResponses(List<EarnProviderRequest> earnProviderRequests,
+                                                              List<PreparedPromotion> preparedPromotions,
+                                                              ProviderKeyPair providerKeyPair,
+                                                              IEarnTransactionDBHandler transactionDBHandler,
+                                                              IStorePublicKeyVerificationHandler storePublicKeyVerificationHandler,
+                                                              IVerificationResultCacheHandler<SPSEQSignature> resultCache) {
+        if (earnProviderRequests.size() != preparedPromotions.size()) {
+            throw new IllegalArgumentException("Number of earn requests and promotion parameters does not match");
         }
 
-        // Verify ECDSA
+        var results = new ArrayList<SPSEQSignature>(Collections.nCopies(earnProviderRequests.size(), null));
+        // Indices of all requests that are not answered from the cache
+        var pending = new ArrayList<Integer>(earnProviderRequests.size());
+        var cacheKeys = new ArrayList<byte[]>(earnProviderRequests.size());
+        var blindedTokens = new ArrayList<GroupElementVector>(earnProviderRequests.size());
+        var hashes = new ArrayList<byte[]>(earnProviderRequests.size());
         ECDSASignatureScheme ecdsaSignatureScheme = new ECDSASignatureScheme();
-        var message = constructEarnCouponMessageBlock(promotionParameters.getPromotionId(), earnProviderRequest.getDeltaK(), h);
-        var ecdsaValid = ecdsaSignatureScheme.verify(message, earnProviderRequest.getEarnStoreCoupon().getSignature(), earnProviderRequest.getEarnStoreCoupon().getStorePublicKey().getEcdsaVerificationKey());
-        if (!ecdsaValid) throw new RuntimeException("ECDSA signature invalid");
-
-        // Verify blinded SPSEQ
-        SPSEQSignatureScheme spseqSignatureScheme = pp.getSpsEq();
-        var blindedSpseqValid = spseqSignatureScheme.verify(providerKeyPair.getPk().getPkSpsEq(), earnProviderRequest.getSpseqSignature(), GroupElementVector.of(c0Prime, c1Prime, c2Prime));
-        if (!blindedSpseqValid) throw new RuntimeException("(Blinded) SPSEQ signature invalid");
+        for (int i = 0; i < earnProviderRequests.size(); i++) {
+            var earnProviderRequest = earnProviderRequests.get(i);
+            var promotionId = preparedPromotions.get(i).getPromotionParameters().getPromotionId();
+
+            // Blinded token
+            var c0Prime = earnProviderRequest.getcPrime0();
+            var c1Prime = earnProviderRequest.getcPrime1();
+            var c2Prime = earnProviderRequest.getcPrime1().pow(promotionId);
+
+            // Compute hash h
+            var h = computeEarnHash(c0Prime, c1Prime, c2Prime);
+
+            // Verify Store ECDSA public key is trusted
+            if (!storePublicKeyVerificationHandler.isStorePublicKeyTrusted(earnProviderRequest.getEarnStoreCoupon().getStorePublicKey())) {
+                throw new RuntimeException("Store public key is not trusted");
+            }
+
+            // Verify ECDSA
+            var message = constructEarnCouponMessageBlock(promotionId, earnProviderRequest.getDeltaK(), h);
+            var ecdsaValid = ecdsaSignatureScheme.verify(message, earnProviderRequest.getEarnStoreCoupon().getSignature(), earnProviderRequest.getEarnStoreCoupon().getStorePublicKey().getEcdsaVerificationKey());
+            if (!ecdsaValid) throw new RuntimeException("ECDSA signature invalid");
+
+            // Retry of an already answered request, only the pairing-based checks are skipped
+            byte[] cacheKey = null;
+            if (resultCache != null) {
+                cacheKey = computeResultCacheKey(h, promotionId.toByteArray(), message.getUniqueByteRepresentation());
+                var cachedSignature = resultCache.get(cacheKey);
+                if (cachedSignature.isPresent()) {
+                    results.set(i, cachedSignature.get());
+                    continue;
+                }
+            }
 
-        // Add to clearing DB
-        var earnTxData = new EarnTransactionData(earnProviderRequest, h);
-        transactionDBHandler.addEarnData(earnTxData);
+            pending.add(i);
+            cacheKeys.add(cacheKey);
+            blindedTokens.add(GroupElementVector.of(c0Prime, c1Prime, c2Prime).compute());
+            hashes.add(h);
+        }
 
-        // Blind-sign update
-        var Q = providerKeyPair.getSk().getTokenPointsQ(promotionParameters);
-        var K = earnProviderRequest.getDeltaK().map(k -> pp.getBg().getG1().getZn().createZnElement(k));
-        var c0PrimePlusDeltaK = c0Prime.op(c1Prime.pow(Q.innerProduct(K))).compute();
+        // Verify blinded SPSEQ of all requests at once
+        var invalidSignatures = new SPSEQBatchVerifier(pp).findInvalid(
+                providerKeyPair.getPk().getPkSpsEq(),
+                pending.stream().map(i -> earnProviderRequests.get(i).getSpseqSignature()).collect(Collectors.toList()),
+                blindedTokens
+        );
+        if (!invalidSignatures.isEmpty()) {
+            throw new RuntimeException("(Blinded) SPSEQ signature invalid for requests " + invalidSignatures.stream().map(pending::get).collect(Collectors.toList()));
+        }
 
-        return (SPSEQSignature) spseqSignatureScheme.sign(providerKeyPair.getSk().getSkSpsEq(), c0PrimePlusDeltaK, c1Prime, c2Prime);
+        SPSEQSignatureScheme spseqSignatureScheme = pp.getSpsEq();
+        for (int j = 0; j < pending.size(); j++) {
+            int i = pending.get(j);
+            var earnProviderRequest = earnProviderRequests.get(i);
+            var blindedToken = blindedTokens.get(j);
+
+            // Add to clearing DB
+            var earnTxData = new EarnTransactionData(earnProviderRequest, hashes.get(j));
+            transactionDBHandler.addEarnData(earnTxData);
+
+            // Blind-sign update
+            var Q = preparedPromotions.get(i).getTokenPointsQ();
+            var K = earnProviderRequest.getDeltaK().map(k -> pp.getBg().getG1().getZn().createZnElement(k));
+            var c0PrimePlusDeltaK = blindedToken.get(0).op(blindedToken.get(1).pow(Q.innerProduct(K))).compute();
+
+            var signature = (SPSEQSignature) spseqSignatureScheme.sign(providerKeyPair.getSk().getSkSpsEq(), c0PrimePlusDeltaK, blindedToken.get(1), blindedToken.get(2));
+            if (resultCache != null) {
+                resultCache.put(cacheKeys.get(j), signature);
+            }
+            results.set(i, signature);
+        }
+        return results;
     }
 
     /**
@@ -560,15 +744,13 @@ public class IncentiveSystem {
                                     ProviderPublicKey providerPublicKey) {
 
         // Pseudorandom randomness s used for blinding in the request
-        var s = pp.getPrfToZn().hashThenPrfToZn(userKeyPair.getSk().getPrfKey(), token, "CreditEarn");
+        var s = getTokenPrecomputation(userKeyPair, null, token).earnS;
         var K = RingElementVector.fromStream(earnRequest.getDeltaK().stream().map(e -> pp.getBg().getZn().createZnElement(e)));
 
         // Recover blinded commitments (to match the commitments signed by the prover) with updated value
         var blindedNewC0 = earnRequest.getcPrime0()
-                .op(providerPublicKey.getTokenPointsH(promotionParameters)
-                        .pow(s)
-                        .innerProduct(K)
-                ).compute();
+                .op(CommitmentEngine.commit(providerPublicKey.getTokenPointsH(promotionParameters), K, s))
+                .compute();
         var blindedNewC1 = earnRequest.getcPrime1();
 
         // Verify signature on recovered commitments
@@ -623,23 +805,23 @@ public class IncentiveSystem {
                                                        Vector<BigInteger> newPoints,
                                                        SpendDeductTree spendDeductTree,
                                                        UniqueByteRepresentable context) {
-        var R = computeSpendDeductRandomness(userKeyPair.getSk(), token);
+        var precomputation = getTokenPrecomputation(userKeyPair, providerPublicKey, token);
+        var R = precomputation.spendDeductRandomness;
         var zp = pp.getBg().getZn();
         var usk = userKeyPair.getSk().getUsk();
-        var vectorH = providerPublicKey.getH(this.pp, promotionParameters);
         var newPointsVector = RingElementVector.fromStream(newPoints.stream().map(e -> pp.getBg().getZn().createZnElement(e)));
 
-        // Prepare a new commitment (cPre0, cPre1) based on the pseudorandom values
-        var exponents = new RingElementVector(R.tS, usk, R.dsidUserS, R.dsrndS, R.zS).concatenate(newPointsVector);
-        var cPre0 = vectorH.innerProduct(exponents).pow(R.uS).compute();
-        var cPre1 = pp.getG1Generator().pow(R.uS).compute();
-        var cPre2 = pp.getG1Generator().pow(R.uS).pow(promotionParameters.getPromotionId()).compute();
+        // Complete the new commitment (cPre0, cPre1) based on the pseudorandom values, only the points part is left
+        var cPre0 = precomputation.cPre0Metadata
+                .op(CommitmentEngine.commit(providerPublicKey.getTokenPointsH(promotionParameters), newPointsVector, R.uS))
+                .compute();
+        var cPre1 = precomputation.cPre1;
+        var cPre2 = precomputation.cPre2;
 
         var gamma = Util.hashGamma(zp, token.getDoubleSpendingId(), basketId, cPre0, cPre1, cPre2, context);
         var c = usk.mul(gamma).add(token.getDoubleSpendRandomness());
 
-        var spendDeductZkp = new SpendDeductBooleanZkp(spendDeductTree, pp, promotionParameters, providerPublicKey);
-        var fiatShamirProofSystem = new FiatShamirProofSystem(spendDeductZkp);
+        var fiatShamirProofSystem = spendDeductZkpCache.getFiatShamirProofSystem(spendDeductTree, promotionParameters, providerPublicKey);
         var witness = new SpendDeductZkpWitnessInput(usk, token.getZ(), R.zS, token.getT(), R.tS, R.uS, R.dsidUserS, token.getDoubleSpendRandomness(), R.dsrndS, token.getPoints(), newPointsVector);
         var commonInput = new SpendDeductZkpCommonInput(gamma, c, token.getDoubleSpendingId(), cPre0, cPre1, token.getCommitment0());
         var proof = fiatShamirProofSystem.createProof(commonInput, witness);
@@ -647,6 +829,45 @@ public class IncentiveSystem {
         return new SpendStoreRequest(token.getDoubleSpendingId(), c, token.getSignature(), token.getCommitment0(), cPre0, cPre1, proof);
     }
 
+    /**
+     * Generates the spend requests for several tokens of the same basket concurrently.
+     * Every request has its own commitments and proof, so generating them is independent and CPU-bound.
+     *
+     * @param userKeyPair       the user key pair
+     * @param providerPublicKey the public key of the provider
+     * @param basketId          the id of the basket these operations belong to
+     * @param inputs            token, promotion, new points, tree and context of every request
+     * @param executor          the executor that runs the generation of the individual requests, e.g. a ForkJoinPool
+     * @return the requests to send to the store, in the same order as the inputs
+     */
+    public List<SpendStoreRequest> generateStoreSpendRequests(UserKeyPair userKeyPair,
+                                                              ProviderPublicKey providerPublicKey,
+                                                              UUID basketId,
+                                                              List<SpendStoreRequestInput> inputs,
+                                                              Executor executor) {
+        var futures = inputs.stream()
+                .map(input -> CompletableFuture.supplyAsync(() -> generateStoreSpendRequest(
+                        userKeyPair,
+                        providerPublicKey,
+                        input.getToken(),
+                        input.getPromotionParameters(),
+                        basketId,
+                        input.getNewPoints(),
+                        input.getSpendDeductTree(),
+                        input.getContext()
+                ), executor))
+                .collect(Collectors.toList());
+
+        try {
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     /**
      * Verify a spend request for a basket and issue a ECDSA signature to authorize the request at the provider.
      * After that, do the following steps before giving the signature to users:
@@ -676,9 +897,51 @@ public class IncentiveSystem {
                                               IStoreBasketRedeemedHandler basketRedeemedHandler,
                                               IDsidBlacklistHandler dsidBlacklistHandler,
                                               ISpendTransactionDBHandler transactionDBHandler
+    ) throws StoreDoubleSpendingDetectedException {
+        return signSpendCoupon(storeKeyPair, providerPublicKey, basketId, promotionParameters, spendStoreRequest, spendDeductTree, context, basketRedeemedHandler, dsidBlacklistHandler, transactionDBHandler, null);
+    }
+
+    /**
+     * Same as {@link #signSpendCoupon(StoreKeyPair, ProviderPublicKey, UUID, PromotionParameters, SpendStoreRequest, SpendDeductTree, UniqueByteRepresentable, IStoreBasketRedeemedHandler, IDsidBlacklistHandler, ISpendTransactionDBHandler)},
+     * but answers retries of an already signed request (same dsid and gamma) from a cache instead of verifying the
+     * token signature and ZKP again. The basket is checked and redeemed for every attempt.
+     *
+     * @param resultCache cache for the responses of signed requests, null to disable caching
+     * @return the ECDSA signature
+     */
+    public SpendStoreResponse signSpendCoupon(StoreKeyPair storeKeyPair,
+                                              ProviderPublicKey providerPublicKey,
+                                              UUID basketId,
+                                              PromotionParameters promotionParameters,
+                                              SpendStoreRequest spendStoreRequest,
+                                              SpendDeductTree spendDeductTree,
+                                              UniqueByteRepresentable context,
+                                              IStoreBasketRedeemedHandler basketRedeemedHandler,
+                                              IDsidBlacklistHandler dsidBlacklistHandler,
+                                              ISpendTransactionDBHandler transactionDBHandler,
+                                              IVerificationResultCacheHandler<SpendStoreResponse> resultCache
     ) throws StoreDoubleSpendingDetectedException {
         var zp = pp.getBg().getZn();
 
+        // Compute gamma, or reuse it if it was already computed while restoring the request
+        var gamma = spendStoreRequest.getGamma(basketId, promotionParameters.getPromotionId(), context).orElseGet(() -> {
+            var cPre0 = spendStoreRequest.getCPre0();
+            var cPre1 = spendStoreRequest.getCPre1();
+            var cPre2 = cPre1.pow(promotionParameters.getPromotionId()).compute();
+            return Util.hashGamma(zp, spendStoreRequest.getDsid(), basketId, cPre0, cPre1, cPre2, context); // TODO include all user choices
+        });
+
+        // Retry of an already signed request, the basket state is checked again since it may have changed since
+        byte[] cacheKey = null;
+        if (resultCache != null) {
+            cacheKey = computeResultCacheKey(spendStoreRequest.getDsid().getUniqueByteRepresentation(), gamma.getUniqueByteRepresentation());
+            var cachedResponse = resultCache.get(cacheKey);
+            if (cachedResponse.isPresent()) {
+                checkBasketStateAndRedeem(basketRedeemedHandler, dsidBlacklistHandler, basketId, promotionParameters.getPromotionId(), spendStoreRequest.getDsid(), gamma);
+                return cachedResponse.get();
+            }
+        }
+
         // Verify old token signature valid
         var c0 = spendStoreRequest.getC0();
         var c1 = pp.getG1Generator();
@@ -689,16 +952,8 @@ public class IncentiveSystem {
             throw new RuntimeException("Invalid token signature");
         }
 
-        // Compute gamma
-        var cPre0 = spendStoreRequest.getCPre0();
-        var cPre1 = spendStoreRequest.getCPre1();
-        var cPre2 = cPre1.pow(promotionParameters.getPromotionId()).compute();
-
-        var gamma = Util.hashGamma(zp, spendStoreRequest.getDsid(), basketId, cPre0, cPre1, cPre2, context); // TODO include all user choices
-
         // Verify proof
-        var spendDeductZkp = new SpendDeductBooleanZkp(spendDeductTree, pp, promotionParameters, providerPublicKey);
-        var fiatShamirProofSystem = new FiatShamirProofSystem(spendDeductZkp);
+        var fiatShamirProofSystem = spendDeductZkpCache.getFiatShamirProofSystem(spendDeductTree, promotionParameters, providerPublicKey);
         var commonInput = new SpendDeductZkpCommonInput(spendStoreRequest, gamma);
         var proofValid = fiatShamirProofSystem.checkProof(commonInput, spendStoreRequest.getSpendZkp());
         if (!proofValid) {
@@ -712,28 +967,43 @@ public class IncentiveSystem {
         var spendCouponSignature = new SpendStoreResponse(signature, storeKeyPair.getPk());
 
         // Check if basket and request qualify this request
-        var redeemResult = basketRedeemedHandler.verifyAndRedeemBasketSpend(basketId, promotionParameters.getPromotionId(), gamma);
+        checkBasketStateAndRedeem(basketRedeemedHandler, dsidBlacklistHandler, basketId, promotionParameters.getPromotionId(), commonInput.dsid, gamma);
+
+        // Add request to transaction DB that is synced with provider => provider finds users that perform double-spending attack!
+        var spendClearingData = new SpendTransactionData(spendStoreRequest, promotionParameters.getPromotionId(), basketId, signature, storeKeyPair.getPk(), gamma);
+        transactionDBHandler.addSpendData(spendClearingData);
+
+        if (resultCache != null) {
+            resultCache.put(cacheKey, spendCouponSignature);
+        }
+        return spendCouponSignature;
+    }
+
+    /**
+     * Redeems the basket for a spend request and blacklists its dsid at the store.
+     * Runs for every attempt of a request, including retries that are answered from a cache.
+     */
+    private static void checkBasketStateAndRedeem(IStoreBasketRedeemedHandler basketRedeemedHandler,
+                                                  IDsidBlacklistHandler dsidBlacklistHandler,
+                                                  UUID basketId,
+                                                  BigInteger promotionId,
+                                                  ZnElement dsid,
+                                                  ZnElement gamma) throws StoreDoubleSpendingDetectedException {
+        var redeemResult = basketRedeemedHandler.verifyAndRedeemBasketSpend(basketId, promotionId, gamma);
         switch (redeemResult) {
             case BASKET_NOT_REDEEMED:
-                if (dsidBlacklistHandler.containsDsidWithDifferentGamma(commonInput.dsid, gamma)) {
+                // Check and blacklist dsid at this store in one step, such that concurrent requests cannot both pass
+                if (!dsidBlacklistHandler.checkAndReserve(dsid, gamma)) {
                     throw new StoreDoubleSpendingDetectedException("Token with dsid already spent with different basket!");
                 }
                 break;
             case BASKET_REDEEMED_ABORT:
                 throw new RuntimeException("Basket already redeemed for different request!");
             case BASKED_REDEEMED_RETRY:
-                // Retry, just perform the protocol again, no need to add it to dsid blacklist
+                // Retry, just perform the protocol again, the dsid has been blacklisted by the first attempt
+                dsidBlacklistHandler.addEntryIfDsidNotPresent(dsid, gamma);
                 break;
         }
-
-        // Blacklist dsid at this store
-        dsidBlacklistHandler.addEntryIfDsidNotPresent(commonInput.dsid, gamma);
-
-        // Add request to transaction DB that is synced with provider => provider finds users that perform double-spending attack!
-        var spendClearingData = new SpendTransactionData(spendStoreRequest, promotionParameters.getPromotionId(), basketId, signature, storeKeyPair.getPk(), gamma);
-        transactionDBHandler.addSpendData(spendClearingData);
-
-        return spendCouponSignature;
     }
 
     /**
@@ -774,20 +1044,71 @@ public class IncentiveSystem {
                                                                     UniqueByteRepresentable context,
                                                                     IStorePublicKeyVerificationHandler storePublicKeyVerificationHandler,
                                                                     IDsidBlacklistHandler dsidBlacklistHandler) throws ProviderDoubleSpendingDetectedException {
+        return verifySpendRequestAndIssueNewToken(providerKeyPair, promotionParameters, spendProviderRequest, basketId, spendDeductTree, context, storePublicKeyVerificationHandler, dsidBlacklistHandler, null);
+    }
+
+    /**
+     * Same as {@link #verifySpendRequestAndIssueNewToken(ProviderKeyPair, PromotionParameters, SpendProviderRequest, UUID, SpendDeductTree, UniqueByteRepresentable, IStorePublicKeyVerificationHandler, IDsidBlacklistHandler)},
+     * but answers retries of an already processed request (same dsid and gamma) from a cache instead of verifying
+     * and signing again. The promotion is prepared for this request only, which is the work an unprepared request needs
+     * anyway. Callers that see the same promotion again should prepare it once and pass the {@link PreparedPromotion}.
+     *
+     * @param resultCache cache for the responses of processed requests, null to disable caching
+     * @return a response containing a SPSEQ signature and the provider's part of the new dsid
+     */
+    public SpendProviderResponse verifySpendRequestAndIssueNewToken(ProviderKeyPair providerKeyPair,
+                                                                    PromotionParameters promotionParameters,
+                                                                    SpendProviderRequest spendProviderRequest,
+                                                                    UUID basketId,
+                                                                    SpendDeductTree spendDeductTree,
+                                                                    UniqueByteRepresentable context,
+                                                                    IStorePublicKeyVerificationHandler storePublicKeyVerificationHandler,
+                                                                    IDsidBlacklistHandler dsidBlacklistHandler,
+                                                                    IVerificationResultCacheHandler<SpendProviderResponse> resultCache) throws ProviderDoubleSpendingDetectedException {
+        return verifySpendRequestAndIssueNewToken(providerKeyPair, PreparedPromotion.prepare(pp, providerKeyPair, promotionParameters), spendProviderRequest, basketId, spendDeductTree, context, storePublicKeyVerificationHandler, dsidBlacklistHandler, resultCache);
+    }
+
+    /**
+     * Same as {@link #verifySpendRequestAndIssueNewToken(ProviderKeyPair, PromotionParameters, SpendProviderRequest, UUID, SpendDeductTree, UniqueByteRepresentable, IStorePublicKeyVerificationHandler, IDsidBlacklistHandler, IVerificationResultCacheHandler)},
+     * but with a promotion that has been prepared in advance, e.g. when it was added to the system.
+     *
+     * @param preparedPromotion the promotion this request belongs to
+     * @return a response containing a SPSEQ signature and the provider's part of the new dsid
+     */
+    public SpendProviderResponse verifySpendRequestAndIssueNewToken(ProviderKeyPair providerKeyPair,
+                                                                    PreparedPromotion preparedPromotion,
+                                                                    SpendProviderRequest spendProviderRequest,
+                                                                    UUID basketId,
+                                                                    SpendDeductTree spendDeductTree,
+                                                                    UniqueByteRepresentable context,
+                                                                    IStorePublicKeyVerificationHandler storePublicKeyVerificationHandler,
+                                                                    IDsidBlacklistHandler dsidBlacklistHandler,
+                                                                    IVerificationResultCacheHandler<SpendProviderResponse> resultCache) throws ProviderDoubleSpendingDetectedException {
+        var promotionParameters = preparedPromotion.getPromotionParameters();
 
-        // 0. Check if this is a doublespending attempt.
-        var gamma = Util.hashGamma(pp.getBg().getZn(),
+        // 0. Check if this is a doublespending attempt. Cheap pre-check, the dsid is reserved atomically in step 7
+        var gamma = spendProviderRequest.getGamma(basketId, promotionParameters.getPromotionId(), context).orElseGet(() -> Util.hashGamma(pp.getBg().getZn(),
                 spendProviderRequest.getDoubleSpendingId(),
                 basketId,
                 spendProviderRequest.getcPre0(),
                 spendProviderRequest.getcPre1(),
                 spendProviderRequest.getcPre1().pow(promotionParameters.getPromotionId()),
-                context);
+                context));
         if (dsidBlacklistHandler.containsDsidWithDifferentGamma(spendProviderRequest.getDoubleSpendingId(), gamma)) {
             // Not a retry request
             throw new ProviderDoubleSpendingDetectedException();
         }
 
+        // Retry of an already processed request
+        byte[] cacheKey = null;
+        if (resultCache != null) {
+            cacheKey = computeResultCacheKey(spendProviderRequest.getDoubleSpendingId().getUniqueByteRepresentation(), gamma.getUniqueByteRepresentation());
+            var cachedResponse = resultCache.get(cacheKey);
+            if (cachedResponse.isPresent()) {
+                return cachedResponse.get();
+            }
+        }
+
         // 1. Verify Store ECDSA public key is trusted
         if (!storePublicKeyVerificationHandler.isStorePublicKeyTrusted(spendProviderRequest.getStorePublicKey())) {
             throw new RuntimeException("Store public key is not trusted");
@@ -803,11 +1124,10 @@ public class IncentiveSystem {
 
         // 3. Verify SPSEQ
         SPSEQSignatureScheme spseqSignatureScheme = pp.getSpsEq();
-        spseqSignatureScheme.verify(providerKeyPair.getPk().getPkSpsEq(), spendProviderRequest.getTokenSignature(), spendProviderRequest.getC0(), pp.getG1Generator(), pp.getG1Generator().pow(promotionParameters.getPromotionId()));
+        spseqSignatureScheme.verify(providerKeyPair.getPk().getPkSpsEq(), spendProviderRequest.getTokenSignature(), spendProviderRequest.getC0(), pp.getG1Generator(), preparedPromotion.getC2Base());
 
         // 4. Verify NZIK
-        var spendDeductZkp = new SpendDeductBooleanZkp(spendDeductTree, pp, promotionParameters, providerKeyPair.getPk());
-        var fiatShamirProofSystem = new FiatShamirProofSystem(spendDeductZkp);
+        var fiatShamirProofSystem = spendDeductZkpCache.getFiatShamirProofSystem(spendDeductTree, promotionParameters, providerKeyPair.getPk());
         // using tid as user choice TODO change this once user choice generation is properly implemented, see issue 75
         var commonInput = new SpendDeductZkpCommonInput(spendProviderRequest, gamma);
         var proofValid = fiatShamirProofSystem.checkProof(commonInput, spendProviderRequest.getProof());
@@ -831,10 +1151,16 @@ public class IncentiveSystem {
                 cPre2
         );
 
-        // 7. Add to DoubleSpending DB
-        dsidBlacklistHandler.addEntryIfDsidNotPresent(spendProviderRequest.getDoubleSpendingId(), gamma);
+        // 7. Add to DoubleSpending DB, fails if a concurrent request with different gamma reserved the dsid since step 0
+        if (!dsidBlacklistHandler.checkAndReserve(spendProviderRequest.getDoubleSpendingId(), gamma)) {
+            throw new ProviderDoubleSpendingDetectedException();
+        }
 
-        return new SpendProviderResponse(updatedTokenSignature, dsidStarProv);
+        var spendProviderResponse = new SpendProviderResponse(updatedTokenSignature, dsidStarProv);
+        if (resultCache != null) {
+            resultCache.put(cacheKey, spendProviderResponse);
+        }
+        return spendProviderResponse;
     }
 
     /**
@@ -858,13 +1184,14 @@ public class IncentiveSystem {
                                                        SpendProviderResponse spendProviderResponse) {
         var newPointsVector = RingElementVector.fromStream(newPoints.stream().map(e -> pp.getBg().getZn().createZnElement(e)));
 
-        // Re-compute pseudorandom values
-        var R = computeSpendDeductRandomness(userKeyPair.getSk(), token);
+        // Pseudorandom values and commitments, as used for the request
+        var precomputation = getTokenPrecomputation(userKeyPair, null, token);
+        var R = precomputation.spendDeductRandomness;
 
         // Verify the signature on the new, blinded commitment
         var blindedCStar0 = spendProviderRequest.getcPre0().op(providerPublicKey.getH().get(1).pow(spendProviderResponse.getDsidStarProv().mul(R.uS)));
-        var blindedCStar1 = pp.getG1Generator().pow(R.uS);
-        var blindedCStar2 = blindedCStar1.pow(promotionParameters.getPromotionId());
+        var blindedCStar1 = precomputation.cPre1;
+        var blindedCStar2 = precomputation.cPre2;
         var valid = pp.getSpsEq().verify(
                 providerPublicKey.getPkSpsEq(),
                 spendProviderResponse.getSignature(),
@@ -909,6 +1236,85 @@ public class IncentiveSystem {
      * methods for offline double-spending detection
      */
 
+    /**
+     * Re-verifies spend transaction data that was synced from the stores before it is used for double-spending
+     * detection. Checks that gamma matches the context, that the spend coupon is signed by the store and that the
+     * spend-deduct proof is valid. All transaction data must belong to the same promotion, spend-deduct tree and
+     * context, such that the proofs can be checked by a single {@link SpendDeductParallelVerifier}.
+     * The proofs are checked one after another on the calling thread. Transaction data whose checks throw, e.g.
+     * because it is incomplete, is invalid; it does not affect the verification of the other transaction data.
+     *
+     * @param spendTransactionData the transaction data to verify
+     * @param promotionParameters  the parameters of the promotion all transaction data belongs to
+     * @param providerPublicKey    the public key of the provider
+     * @param spendDeductTree      the tree all spend-deduct proofs must satisfy
+     * @param context              the context used for all transactions
+     * @return the indices of all invalid transaction data, in ascending order. Empty if all are valid
+     */
+    public List<Integer> verifySpendTransactionData(List<SpendTransactionData> spendTransactionData,
+                                                    PromotionParameters promotionParameters,
+                                                    ProviderPublicKey providerPublicKey,
+                                                    SpendDeductTree spendDeductTree,
+                                                    UniqueByteRepresentable context) {
+        return verifySpendTransactionData(spendTransactionData, promotionParameters, providerPublicKey, spendDeductTree, context, Runnable::run);
+    }
+
+    /**
+     * Like {@link #verifySpendTransactionData(List, PromotionParameters, ProviderPublicKey, SpendDeductTree, UniqueByteRepresentable)},
+     * but checks the spend-deduct proofs concurrently on the passed executor.
+     *
+     * @param spendTransactionData the transaction data to verify
+     * @param promotionParameters  the parameters of the promotion all transaction data belongs to
+     * @param providerPublicKey    the public key of the provider
+     * @param spendDeductTree      the tree all spend-deduct proofs must satisfy
+     * @param context              the context used for all transactions
+     * @param executor             runs the proof checks
+     * @return the indices of all invalid transaction data, in ascending order. Empty if all are valid
+     */
+    public List<Integer> verifySpendTransactionData(List<SpendTransactionData> spendTransactionData,
+                                                    PromotionParameters promotionParameters,
+                                                    ProviderPublicKey providerPublicKey,
+                                                    SpendDeductTree spendDeductTree,
+                                                    UniqueByteRepresentable context,
+                                                    Executor executor) {
+        var invalid = new TreeSet<Integer>();
+        var ecdsaSignatureScheme = new ECDSASignatureScheme();
+        var commonInputs = new ArrayList<SpendDeductZkpCommonInput>(spendTransactionData.size());
+        var proofs = new ArrayList<FiatShamirProof>(spendTransactionData.size());
+        var proofIndices = new ArrayList<Integer>(spendTransactionData.size());
+
+        for (int i = 0; i < spendTransactionData.size(); i++) {
+            var data = spendTransactionData.get(i);
+            ZnElement gamma;
+            try {
+                gamma = Util.hashGamma(pp.getBg().getZn(),
+                        data.getDsid(),
+                        data.getBasketId(),
+                        data.getcPre0(),
+                        data.getcPre1(),
+                        data.getcPre1().pow(promotionParameters.getPromotionId()),
+                        context);
+                var messageBlock = constructSpendCouponMessageBlock(promotionParameters.getPromotionId(), data.getDsid(), data.getBasketId());
+                if (!gamma.equals(data.getGamma())
+                        || !data.getPromotionId().equals(promotionParameters.getPromotionId())
+                        || !ecdsaSignatureScheme.verify(messageBlock, data.getCouponSignature(), data.getStorePublicKey().getEcdsaVerificationKey())) {
+                    invalid.add(i);
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                invalid.add(i);
+                continue;
+            }
+            commonInputs.add(new SpendDeductZkpCommonInput(gamma, data.getC(), data.getDsid(), data.getcPre0(), data.getcPre1(), data.getC0()));
+            proofs.add(data.getProof());
+            proofIndices.add(i);
+        }
+
+        var proofVerifier = new SpendDeductParallelVerifier(spendDeductZkpCache.getFiatShamirProofSystem(spendDeductTree, promotionParameters, providerPublicKey), executor);
+        proofVerifier.findInvalid(commonInputs, proofs).forEach(j -> invalid.add(proofIndices.get(j)));
+        return new ArrayList<>(invalid);
+    }
+
     /**
      * Given two double-spending tags belonging to a detected double-spending attempt, this algorithm computes the key material of the suspected user
      * as well as tracing information used to trace further transactions resulting from the detected double-spending attempt.
@@ -941,6 +1347,76 @@ public class IncentiveSystem {
      * end of double-spending database interface to be used by provider
      */
 
+    /**
+     * Derives all values of a token that the user needs for updating it and which do not depend on the update itself,
+     * namely the PRF outputs and blinded commitments of earn and spend, and stores them in the
+     * {@link TokenPrecomputationCache} of this instance. Call this ahead of time, e.g. while the user is still
+     * shopping, such that generating the requests at checkout is mostly proof assembly.
+     * Does nothing if this instance was created without a cache.
+     *
+     * @param userKeyPair       the user key pair
+     * @param providerPublicKey the public key of the provider
+     * @param token             the token to precompute the values for
+     */
+    public void precomputeToken(UserKeyPair userKeyPair, ProviderPublicKey providerPublicKey, Token token) {
+        if (tokenPrecomputationCache != null) {
+            getTokenPrecomputation(userKeyPair, providerPublicKey, token);
+        }
+    }
+
+    /**
+     * Returns the precomputed values of a token from the {@link TokenPrecomputationCache}, computing them on a miss or
+     * if this instance has no cache.
+     *
+     * @param userKeyPair       the user key pair
+     * @param providerPublicKey the public key of the provider, may be null if the spend commitment is not required
+     * @param token             the token
+     * @return the precomputed values
+     */
+    private TokenPrecomputation getTokenPrecomputation(UserKeyPair userKeyPair, ProviderPublicKey providerPublicKey, Token token) {
+        var cached = tokenPrecomputationCache == null ? null : tokenPrecomputationCache.get(userKeyPair.getSk(), token);
+        if (cached != null && (providerPublicKey == null || cached.isPrecomputedFor(providerPublicKey))) {
+            return cached;
+        }
+
+        TokenPrecomputation precomputation;
+        if (cached == null) {
+            // Compute pseudorandom values from the token, this makes all user algorithms deterministic
+            var s = pp.getPrfToZn().hashThenPrfToZn(userKeyPair.getSk().getPrfKey(), token, "CreditEarn");
+            var R = computeSpendDeductRandomness(userKeyPair.getSk(), token);
+
+            var c0Prime = token.getCommitment0().pow(s).compute();
+            var c1Prime = pp.getG1Generator().pow(s).compute();
+            var c2Prime = c1Prime.pow(token.getPromotionId()).compute();
+            var cPre1 = pp.getG1Generator().pow(R.uS).compute();
+            var cPre2 = cPre1.pow(token.getPromotionId()).compute();
+            precomputation = new TokenPrecomputation(s, c0Prime, c1Prime, c2Prime, R, cPre1, cPre2,
+                    providerPublicKey, computeCPre0Metadata(userKeyPair, providerPublicKey, R));
+        } else {
+            // Only the part of cPre0 that depends on the provider public key is missing
+            precomputation = new TokenPrecomputation(cached.earnS, cached.c0Prime, cached.c1Prime, cached.c2Prime,
+                    cached.spendDeductRandomness, cached.cPre1, cached.cPre2,
+                    providerPublicKey, computeCPre0Metadata(userKeyPair, providerPublicKey, cached.spendDeductRandomness));
+        }
+        if (tokenPrecomputationCache != null) {
+            tokenPrecomputationCache.put(userKeyPair.getSk(), token, precomputation);
+        }
+        return precomputation;
+    }
+
+    /**
+     * Computes the part of the spend commitment cPre0 that does not depend on the new points.
+     *
+     * @return the metadata part of cPre0, or null if no provider public key is given
+     */
+    private GroupElement computeCPre0Metadata(UserKeyPair userKeyPair, ProviderPublicKey providerPublicKey, SpendDeductRandomness R) {
+        if (providerPublicKey == null) {
+            return null;
+        }
+        var exponents = new RingElementVector(R.tS, userKeyPair.getSk().getUsk(), R.dsidUserS, R.dsrndS, R.zS);
+        return CommitmentEngine.commit(providerPublicKey.getTokenMetadataH(pp), exponents, R.uS).compute();
+    }
+
     /**
      * Helper function for pseudorandom values on user side to generate a request, and handle the response.
      *
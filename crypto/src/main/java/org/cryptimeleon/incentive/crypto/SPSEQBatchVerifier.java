@@ -0,0 +1,133 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
+import org.cryptimeleon.craco.sig.sps.eq.SPSEQVerificationKey;
+import org.cryptimeleon.incentive.crypto.model.IncentivePublicParameters;
+import org.cryptimeleon.math.random.RandomGenerator;
+import org.cryptimeleon.math.structures.groups.GroupElement;
+import org.cryptimeleon.math.structures.groups.cartesian.GroupElementVector;
+import org.cryptimeleon.math.structures.groups.mappings.BilinearMap;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch verification of many SPS-EQ signatures under the same verification key using the small exponents test.
+ * <p>
+ * A single signature (Z, Y, Ŷ) on messages (M_1, ..., M_l) is valid iff
+ * {@literal Π_i e(M_i, X̂_i) = e(Z, Ŷ)} and {@literal e(Y, P̂) = e(P, Ŷ)}.
+ * For n signatures, both equations of every signature are raised to independent random exponents δ_k, ε_k and
+ * multiplied into a single equation
+ * {@literal Π_i e(Π_k M_ki^δ_k, X̂_i) · e(Π_k Y_k^ε_k, P̂) = Π_k e(Z_k^δ_k, Ŷ_k) · e(P, Π_k Ŷ_k^ε_k)}.
+ * This reduces the number of pairings from n(l+3) to l+n+2. An invalid signature passes the batch check with
+ * probability at most 2^-63.
+ * If the batch check fails, each signature is verified on its own to find the invalid ones.
+ */
+public class SPSEQBatchVerifier {
+
+    private final IncentivePublicParameters pp;
+
+    public SPSEQBatchVerifier(IncentivePublicParameters pp) {
+        this.pp = pp;
+    }
+
+    /**
+     * Verifies all signatures and returns the indices of the invalid ones.
+     * Runs the (cheap) batch check first and falls back to individual verification only if the batch check fails.
+     *
+     * @param verificationKey the SPS-EQ verification key all signatures must be valid under
+     * @param signatures      the signatures to verify
+     * @param messages        the signed messages, messages.get(k) belongs to signatures.get(k)
+     * @return the indices of all invalid signatures, empty if all signatures are valid
+     */
+    public List<Integer> findInvalid(SPSEQVerificationKey verificationKey,
+                                     List<SPSEQSignature> signatures,
+                                     List<GroupElementVector> messages) {
+        if (signatures.size() != messages.size()) {
+            throw new IllegalArgumentException("Number of signatures and messages does not match");
+        }
+
+        var invalid = new ArrayList<Integer>();
+        if (batchVerify(verificationKey, signatures, messages)) {
+            return invalid;
+        }
+        for (int k = 0; k < signatures.size(); k++) {
+            if (!pp.getSpsEq().verify(verificationKey, signatures.get(k), messages.get(k))) {
+                invalid.add(k);
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * Checks all signatures at once using the small exponents test.
+     * A single signature is verified directly, since randomizing it would only add work.
+     *
+     * @return true if all signatures are valid (except with negligible probability), false if at least one is not or
+     * the batch is malformed
+     */
+    public boolean batchVerify(SPSEQVerificationKey verificationKey,
+                               List<SPSEQSignature> signatures,
+                               List<GroupElementVector> messages) {
+        if (signatures.isEmpty()) {
+            return true;
+        }
+        if (signatures.size() == 1) {
+            return pp.getSpsEq().verify(verificationKey, signatures.get(0), messages.get(0));
+        }
+
+        BilinearMap bilinearMap = pp.getBg().getBilinearMap();
+        GroupElement[] hatX = verificationKey.getGroup2ElementsHatX();
+        int messageLength = messages.get(0).length();
+        if (messageLength > hatX.length) {
+            return false;
+        }
+
+        GroupElement[] aggregatedMessages = new GroupElement[messageLength];
+        for (int i = 0; i < messageLength; i++) {
+            aggregatedMessages[i] = pp.getBg().getG1().getNeutralElement();
+        }
+        GroupElement aggregatedY = pp.getBg().getG1().getNeutralElement();
+        GroupElement aggregatedHatY = pp.getBg().getG2().getNeutralElement();
+        GroupElement rightHandSide = pp.getBg().getGT().getNeutralElement();
+
+        for (int k = 0; k < signatures.size(); k++) {
+            SPSEQSignature signature = signatures.get(k);
+            GroupElementVector message = messages.get(k);
+            // Malformed entries are left to the individual verification
+            if (message.length() != messageLength
+                    || signature.getGroup1ElementSigma2Y().isNeutralElement()
+                    || signature.getGroup2ElementSigma3HatY().isNeutralElement()) {
+                return false;
+            }
+
+            BigInteger delta = randomExponent();
+            BigInteger epsilon = randomExponent();
+            for (int i = 0; i < messageLength; i++) {
+                aggregatedMessages[i] = aggregatedMessages[i].op(message.get(i).pow(delta));
+            }
+            rightHandSide = rightHandSide.op(bilinearMap.apply(
+                    signature.getGroup1ElementSigma1Z().pow(delta),
+                    signature.getGroup2ElementSigma3HatY()
+            ));
+            aggregatedY = aggregatedY.op(signature.getGroup1ElementSigma2Y().pow(epsilon));
+            aggregatedHatY = aggregatedHatY.op(signature.getGroup2ElementSigma3HatY().pow(epsilon));
+        }
+
+        GroupElement leftHandSide = bilinearMap.apply(aggregatedY, pp.getG2Generator());
+        for (int i = 0; i < messageLength; i++) {
+            leftHandSide = leftHandSide.op(bilinearMap.apply(aggregatedMessages[i], hatX[i]));
+        }
+        rightHandSide = rightHandSide.op(bilinearMap.apply(pp.getG1Generator(), aggregatedHatY));
+
+        return leftHandSide.equals(rightHandSide);
+    }
+
+    /**
+     * Small non-zero exponent for the small exponents test.
+     */
+    private static BigInteger randomExponent() {
+        return BigInteger.valueOf(RandomGenerator.getRandomNumber(1L, Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,54 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey;
+import org.cryptimeleon.math.structures.groups.GroupElement;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+
+/**
+ * Data class for the values a user derives from a token before updating it.
+ * <p>
+ * The earn part holds the pseudorandom blinding value s and the blinded commitments (c0', c1', c2').
+ * The spend part holds the pseudorandom values of the spend-deduct protocol, the commitments cPre1 and cPre2, and the
+ * part of cPre0 that does not depend on the new points. The latter requires the provider public key and is only
+ * present if one was given.
+ */
+public class TokenPrecomputation {
+    final Zn.ZnElement earnS;
+    final GroupElement c0Prime;
+    final GroupElement c1Prime;
+    final GroupElement c2Prime;
+
+    final SpendDeductRandomness spendDeductRandomness;
+    final GroupElement cPre1;
+    final GroupElement cPre2;
+
+    final ProviderPublicKey providerPublicKey;
+    final GroupElement cPre0Metadata;
+
+    public TokenPrecomputation(Zn.ZnElement earnS,
+                               GroupElement c0Prime,
+                               GroupElement c1Prime,
+                               GroupElement c2Prime,
+                               SpendDeductRandomness spendDeductRandomness,
+                               GroupElement cPre1,
+                               GroupElement cPre2,
+                               ProviderPublicKey providerPublicKey,
+                               GroupElement cPre0Metadata) {
+        this.earnS = earnS;
+        this.c0Prime = c0Prime;
+        this.c1Prime = c1Prime;
+        this.c2Prime = c2Prime;
+        this.spendDeductRandomness = spendDeductRandomness;
+        this.cPre1 = cPre1;
+        this.cPre2 = cPre2;
+        this.providerPublicKey = providerPublicKey;
+        this.cPre0Metadata = cPre0Metadata;
+    }
+
+    /**
+     * Whether the spend commitments were precomputed for the given provider public key.
+     */
+    boolean isPrecomputedFor(ProviderPublicKey providerPublicKey) {
+        return cPre0Metadata != null && (this.providerPublicKey == providerPublicKey || this.providerPublicKey.equals(providerPublicKey));
+    }
+}
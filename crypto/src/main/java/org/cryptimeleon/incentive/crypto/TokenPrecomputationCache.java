@@ -0,0 +1,87 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.incentive.crypto.model.Token;
+import org.cryptimeleon.incentive.crypto.model.keys.user.UserSecretKey;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded, thread-safe cache of the values a user derives from a token, see {@link TokenPrecomputation}.
+ * <p>
+ * Every update of a token evaluates the PRF on the whole token several times (e.g. when generating the request and
+ * again when handling the response) and computes blinded commitments that only depend on the token. These can be
+ * derived once, ahead of time via {@link IncentiveSystem#precomputeToken}, e.g. while the user is still shopping.
+ * Entries are keyed by the token and the user secret key. Since every update results in a new token, outdated
+ * entries are never hit again and are evicted once the cache is full (least recently used first).
+ * <p>
+ * The cache holds secret key material. It is therefore owned by the user application and handed to the
+ * {@link IncentiveSystem} explicitly, there is no shared instance.
+ */
+public class TokenPrecomputationCache {
+    private final Map<CacheKey, TokenPrecomputation> cache;
+
+    public TokenPrecomputationCache(int maxSize) {
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, TokenPrecomputation> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Returns the precomputed values for a token.
+     *
+     * @param userSecretKey the secret key of the token's owner
+     * @param token         the token
+     * @return the precomputed values, or null if there are none
+     */
+    public TokenPrecomputation get(UserSecretKey userSecretKey, Token token) {
+        return cache.get(new CacheKey(userSecretKey, token));
+    }
+
+    /**
+     * Stores the precomputed values for a token, replacing any previous values.
+     *
+     * @param userSecretKey       the secret key of the token's owner
+     * @param token               the token
+     * @param tokenPrecomputation the precomputed values
+     */
+    public void put(UserSecretKey userSecretKey, Token token, TokenPrecomputation tokenPrecomputation) {
+        cache.put(new CacheKey(userSecretKey, token), tokenPrecomputation);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private static class CacheKey {
+        private final UserSecretKey userSecretKey;
+        private final Token token;
+
+        CacheKey(UserSecretKey userSecretKey, Token token) {
+            this.userSecretKey = userSecretKey;
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey that = (CacheKey) o;
+            return Objects.equals(userSecretKey, that.userSecretKey) && Objects.equals(token, that.token);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userSecretKey, token);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.incentive.crypto.callback.IVerificationResultCacheHandler;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, thread-safe cache for the results of successfully verified requests.
+ * <p>
+ * Retries are part of the spend and earn protocols (e.g. after a lost response on a flaky network). A retry sends
+ * exactly the same request again, and verifying it again would cost the same pairings and proof checks as the first
+ * attempt. The {@link IncentiveSystem} stores the response of a verified request under a key that identifies the
+ * request (e.g. its dsid and gamma) and returns it directly on a retry.
+ * Entries expire after a fixed time-to-live, and the least recently used entry is evicted once the cache is full.
+ * Only responses of successfully processed requests are cached, so rejections are always re-evaluated.
+ *
+ * @param <V> the type of the cached responses
+ */
+public class VerificationResultCache<V> implements IVerificationResultCacheHandler<V> {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<Key, Entry<V>> cache;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize maximum number of cached responses
+     * @param ttl     time after which a cached response expires
+     */
+    public VerificationResultCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, System::nanoTime);
+    }
+
+    /**
+     * Constructor with a custom clock, mainly for testing.
+     *
+     * @param maxSize   maximum number of cached responses
+     * @param ttl       time after which a cached response expires
+     * @param nanoClock source of the current time in nanoseconds
+     */
+    public VerificationResultCache(int maxSize, Duration ttl, LongSupplier nanoClock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached response for a request key, if present and not expired.
+     *
+     * @param digest the key of the request
+     * @return the cached response or an empty optional
+     */
+    @Override
+    public synchronized Optional<V> get(byte[] digest) {
+        var key = new Key(digest);
+        var entry = cache.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (nanoClock.getAsLong() - entry.insertedAt > ttlNanos) {
+            cache.remove(key);
+            return Optional.empty();
+        }
+        return Optional.of(entry.value);
+    }
+
+    /**
+     * Caches the response of a successfully verified request.
+     *
+     * @param digest   the key of the request
+     * @param response the response that was sent for the request
+     */
+    @Override
+    public synchronized void put(byte[] digest, V response) {
+        var now = nanoClock.getAsLong();
+        cache.put(new Key(digest), new Entry<>(response, now));
+        evict(now);
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Removes expired entries from the head of the access order, then the least recently used entries until the
+     * size bound holds again.
+     */
+    private void evict(long now) {
+        var iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (cache.size() > maxSize || now - entry.insertedAt > ttlNanos) {
+                iterator.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long insertedAt;
+
+        Entry(V value, long insertedAt) {
+            this.value = value;
+            this.insertedAt = insertedAt;
+        }
+    }
+
+    private static class Key {
+        private final byte[] digest;
+
+        Key(byte[] digest) {
+            this.digest = digest.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Arrays.equals(digest, key.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(digest);
+        }
+    }
+}
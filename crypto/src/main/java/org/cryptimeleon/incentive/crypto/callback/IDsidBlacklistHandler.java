@@ -15,4 +15,24 @@ public interface IDsidBlacklistHandler {
      * Add a dsid, gamma tuple to the blacklist. Is ignored if there is already some entry for this dsid.
      */
     void addEntryIfDsidNotPresent(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma);
+
+    /**
+     * Atomically checks that there is no entry with same dsid and different gamma and adds the (dsid, gamma) tuple if
+     * there is no entry for this dsid yet. Of several concurrent calls for the same dsid, only those with the gamma
+     * that was added first succeed.
+     * <p>
+     * The default implementation combines the two methods above under a lock on this handler. Implementations backed
+     * by a concurrent map should override this, e.g. with {@link java.util.concurrent.ConcurrentMap#putIfAbsent}.
+     *
+     * @return false if the dsid is already blacklisted with a different gamma, i.e. this is a double-spending attempt
+     */
+    default boolean checkAndReserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        synchronized (this) {
+            if (containsDsidWithDifferentGamma(doubleSpendingId, gamma)) {
+                return false;
+            }
+            addEntryIfDsidNotPresent(doubleSpendingId, gamma);
+            return true;
+        }
+    }
 }
@@ -0,0 +1,22 @@
+package org.cryptimeleon.incentive.crypto.callback;
+
+import java.util.Optional;
+
+/**
+ * Stores the responses of successfully verified requests, such that retries of a request are answered without
+ * verifying it again. See {@link org.cryptimeleon.incentive.crypto.VerificationResultCache} for a bounded in-memory
+ * implementation.
+ *
+ * @param <V> the type of the cached responses
+ */
+public interface IVerificationResultCacheHandler<V> {
+    /**
+     * Returns the cached response for a request key, if present.
+     */
+    Optional<V> get(byte[] digest);
+
+    /**
+     * Caches the response of a successfully verified request under the key of the request.
+     */
+    void put(byte[] digest, V response);
+}
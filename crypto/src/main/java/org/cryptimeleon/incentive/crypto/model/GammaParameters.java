@@ -0,0 +1,37 @@
+package org.cryptimeleon.incentive.crypto.model;
+
+import org.cryptimeleon.math.hash.UniqueByteRepresentable;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+
+import java.math.BigInteger;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The gamma of a spend request together with the basket, promotion and context it was computed for.
+ * Restoring a spend request already requires gamma, so the verifier can reuse it instead of hashing again.
+ */
+class GammaParameters {
+    private final Zn.ZnElement gamma;
+    private final UUID basketId;
+    private final BigInteger promotionId;
+    private final UniqueByteRepresentable context;
+
+    GammaParameters(Zn.ZnElement gamma, UUID basketId, BigInteger promotionId, UniqueByteRepresentable context) {
+        this.gamma = gamma;
+        this.basketId = basketId;
+        this.promotionId = promotionId;
+        this.context = context;
+    }
+
+    /**
+     * Returns gamma if it was computed for the given parameters.
+     */
+    Optional<Zn.ZnElement> getGammaFor(UUID basketId, BigInteger promotionId, UniqueByteRepresentable context) {
+        if (Objects.equals(this.basketId, basketId) && Objects.equals(this.promotionId, promotionId) && Objects.equals(this.context, context)) {
+            return Optional.of(gamma);
+        }
+        return Optional.empty();
+    }
+}
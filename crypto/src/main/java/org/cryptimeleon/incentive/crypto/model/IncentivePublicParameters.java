@@ -42,10 +42,29 @@ public class IncentivePublicParameters implements PublicParameters {
     private int numRangeProofDigits; // rho from the 2020 inc sys paper (number of digits of esk in base-representation), this is computed in the init method since it contains redundant data
 
     public IncentivePublicParameters(Representation repr) {
+        this(repr, false);
+    }
+
+    /**
+     * Restores the public parameters and optionally precomputes fixed-base exponentiation tables for g1, w and h7, the
+     * bases of most exponentiations in the protocols.
+     * This is opt-in since the tables cost memory and some setup time, which only pays off if the parameters are used
+     * for many exponentiations, e.g. in a long-running service. The tables are computed before the constructor
+     * returns, so the parameters can be shared between threads like any other instance.
+     *
+     * @param repr             the representation
+     * @param precomputePowers whether to precompute the exponentiation tables
+     */
+    public IncentivePublicParameters(Representation repr, boolean precomputePowers) {
         new ReprUtil(this)
                 .deserialize(repr.list().get(0));
         this.setMembershipPublicParameters = new SetMembershipPublicParameters(bg, repr.list().get(1));
         init();
+        if (precomputePowers) {
+            g1Generator = g1Generator.precomputePow();
+            w = w.precomputePow();
+            h7 = h7.precomputePow();
+        }
     }
 
     public IncentivePublicParameters(BilinearGroup bg,
@@ -0,0 +1,56 @@
+package org.cryptimeleon.incentive.crypto.model;
+
+import org.cryptimeleon.craco.protocols.arguments.fiatshamir.FiatShamirProof;
+import org.cryptimeleon.math.serialization.Representation;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds a Fiat-Shamir proof that is either given directly or restored from its representation on first access.
+ * Restoring a spend-deduct proof requires the proof system of the spend-deduct tree, which is only worth building
+ * once the cheap checks of a request have passed.
+ */
+class LazyFiatShamirProof {
+    private final Representation representation;
+    private Supplier<FiatShamirProof> restorer;
+    private volatile FiatShamirProof proof;
+
+    LazyFiatShamirProof(FiatShamirProof proof) {
+        this.representation = null;
+        this.proof = proof;
+    }
+
+    LazyFiatShamirProof(Representation representation, Supplier<FiatShamirProof> restorer) {
+        this.representation = representation;
+        this.restorer = restorer;
+    }
+
+    /**
+     * Returns the proof, restoring it from its representation if this has not happened yet.
+     */
+    FiatShamirProof get() {
+        var result = proof;
+        if (result == null) {
+            synchronized (this) {
+                result = proof;
+                if (result == null) {
+                    result = restorer.get();
+                    proof = result;
+                    restorer = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the representation of the proof without restoring it.
+     */
+    Representation getRepresentation() {
+        return representation != null ? representation : proof.getRepresentation();
+    }
+
+    boolean isRestored() {
+        return proof != null;
+    }
+}
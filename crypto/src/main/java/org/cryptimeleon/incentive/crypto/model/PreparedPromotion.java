@@ -0,0 +1,56 @@
+package org.cryptimeleon.incentive.crypto.model;
+
+import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderKeyPair;
+import org.cryptimeleon.math.structures.groups.GroupElement;
+import org.cryptimeleon.math.structures.rings.cartesian.RingElementVector;
+
+/**
+ * The values that the provider derives from the parameters of a promotion and its keys to verify and sign requests,
+ * computed once per promotion instead of for every request.
+ */
+public class PreparedPromotion {
+    private final PromotionParameters promotionParameters;
+    private final GroupElement c2Base;
+    private final RingElementVector tokenPointsQ;
+
+    private PreparedPromotion(PromotionParameters promotionParameters, GroupElement c2Base, RingElementVector tokenPointsQ) {
+        this.promotionParameters = promotionParameters;
+        this.c2Base = c2Base;
+        this.tokenPointsQ = tokenPointsQ;
+    }
+
+    /**
+     * Prepares a promotion for the provider.
+     *
+     * @param pp                  the public parameters
+     * @param providerKeyPair     the key pair of the provider
+     * @param promotionParameters the promotion
+     * @return the prepared promotion
+     */
+    public static PreparedPromotion prepare(IncentivePublicParameters pp, ProviderKeyPair providerKeyPair, PromotionParameters promotionParameters) {
+        return new PreparedPromotion(
+                promotionParameters,
+                pp.getG1Generator().pow(promotionParameters.getPromotionId()).compute(),
+                providerKeyPair.getSk().getTokenPointsQ(promotionParameters)
+        );
+    }
+
+    public PromotionParameters getPromotionParameters() {
+        return promotionParameters;
+    }
+
+    /**
+     * g1^promotionId, the third message element of the SPS-EQ signature of a token that has not been blinded.
+     */
+    public GroupElement getC2Base() {
+        return c2Base;
+    }
+
+    /**
+     * The DLOGs of the bases of the points in the token commitment, see
+     * {@link org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderSecretKey#getTokenPointsQ(PromotionParameters)}.
+     */
+    public RingElementVector getTokenPointsQ() {
+        return tokenPointsQ;
+    }
+}
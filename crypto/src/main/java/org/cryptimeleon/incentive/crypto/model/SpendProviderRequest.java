@@ -10,7 +10,7 @@ import org.cryptimeleon.incentive.crypto.Util;
 import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey;
 import org.cryptimeleon.incentive.crypto.model.keys.store.StorePublicKey;
 import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
-import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductBooleanZkp;
+import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCache;
 import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCommonInput;
 import org.cryptimeleon.math.hash.UniqueByteRepresentable;
 import org.cryptimeleon.math.serialization.ListRepresentation;
@@ -20,8 +20,10 @@ import org.cryptimeleon.math.structures.groups.Group;
 import org.cryptimeleon.math.structures.groups.GroupElement;
 import org.cryptimeleon.math.structures.rings.zn.Zn;
 
+import java.math.BigInteger;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 
 public class SpendProviderRequest implements Representable {
@@ -34,7 +36,9 @@ public class SpendProviderRequest implements Representable {
     private final GroupElement cPre0;
     private final GroupElement cPre1;
     private final GroupElement c0;
-    private final FiatShamirProof proof;
+    private final LazyFiatShamirProof proof;
+    // Gamma computed while restoring the proof, null if this request was not restored from a representation
+    private final GammaParameters gammaParameters;
 
     public SpendProviderRequest(Zn.ZnElement doubleSpendingId,
                                 Zn.ZnElement c,
@@ -53,20 +57,22 @@ public class SpendProviderRequest implements Representable {
         this.cPre0 = cPre0;
         this.cPre1 = cPre1;
         this.c0 = c0;
-        this.proof = proof;
+        this.proof = new LazyFiatShamirProof(proof);
+        this.gammaParameters = null;
     }
 
     public SpendProviderRequest(SpendStoreRequest spendStoreRequest, SpendStoreResponse spendCouponSignature) {
-        this(
-                spendStoreRequest.getDsid(),
-                spendStoreRequest.getC(),
-                spendCouponSignature.getSignature(),
-                spendStoreRequest.getSigma(),
-                spendCouponSignature.getStorePublicKey(),
-                spendStoreRequest.getCPre0(),
-                spendStoreRequest.getCPre1(),
-                spendStoreRequest.getC0(),
-                spendStoreRequest.getSpendZkp());
+        this.doubleSpendingId = spendStoreRequest.getDsid();
+        this.c = spendStoreRequest.getC();
+        this.couponSignature = spendCouponSignature.getSignature();
+        this.tokenSignature = spendStoreRequest.getSigma();
+        this.storePublicKey = spendCouponSignature.getStorePublicKey();
+        this.cPre0 = spendStoreRequest.getCPre0();
+        this.cPre1 = spendStoreRequest.getCPre1();
+        this.c0 = spendStoreRequest.getC0();
+        // Share the proof, such that a lazily restored proof is restored at most once
+        this.proof = spendStoreRequest.getLazySpendZkp();
+        this.gammaParameters = null;
     }
 
     public SpendProviderRequest(Representation representation,
@@ -76,6 +82,27 @@ public class SpendProviderRequest implements Representable {
                                 SpendDeductTree spendDeductTree,
                                 ProviderPublicKey providerPublicKey,
                                 UniqueByteRepresentable context) {
+        this(representation, pp, promotionParameters, basketId, spendDeductTree, providerPublicKey, context, new SpendDeductZkpCache(pp, 1), false);
+    }
+
+    /**
+     * Restores a request from its representation.
+     * In lazy mode, the spend-deduct proof is kept as a representation and only restored once {@link #getProof()}
+     * is called, i.e. when verification of the proof starts. Requests that are rejected by the blacklist or ECDSA
+     * checks never build the proof system of the spend-deduct tree.
+     *
+     * @param spendDeductZkpCache the cache to take the proof system from, built for pp
+     * @param lazy                whether to restore the proof lazily
+     */
+    public SpendProviderRequest(Representation representation,
+                                IncentivePublicParameters pp,
+                                PromotionParameters promotionParameters,
+                                UUID basketId,
+                                SpendDeductTree spendDeductTree,
+                                ProviderPublicKey providerPublicKey,
+                                UniqueByteRepresentable context,
+                                SpendDeductZkpCache spendDeductZkpCache,
+                                boolean lazy) {
         Iterator<Representation> representationIterator = ((ListRepresentation) representation).iterator();
         Zn zn = pp.getBg().getZn();
         Group group = pp.getBg().getG1();
@@ -92,9 +119,16 @@ public class SpendProviderRequest implements Representable {
         this.c0 = group.restoreElement(representationIterator.next());
 
         Zn.ZnElement gamma = Util.hashGamma(pp.getBg().getZn(), doubleSpendingId, basketId, cPre0, cPre1, cPre1.pow(promotionParameters.getPromotionId()), context);
-        SpendDeductZkpCommonInput spendDeductCommonInput = new SpendDeductZkpCommonInput(gamma, c, doubleSpendingId, cPre0, cPre1, c0);
-        FiatShamirProofSystem fiatShamirProofSystem = new FiatShamirProofSystem(new SpendDeductBooleanZkp(spendDeductTree, pp, promotionParameters, providerPublicKey));
-        this.proof = fiatShamirProofSystem.restoreProof(spendDeductCommonInput, representationIterator.next());
+        this.gammaParameters = new GammaParameters(gamma, basketId, promotionParameters.getPromotionId(), context);
+        Representation proofRepresentation = representationIterator.next();
+        this.proof = new LazyFiatShamirProof(proofRepresentation, () -> {
+            SpendDeductZkpCommonInput spendDeductCommonInput = new SpendDeductZkpCommonInput(gamma, c, doubleSpendingId, cPre0, cPre1, c0);
+            FiatShamirProofSystem fiatShamirProofSystem = spendDeductZkpCache.getFiatShamirProofSystem(spendDeductTree, promotionParameters, providerPublicKey);
+            return fiatShamirProofSystem.restoreProof(spendDeductCommonInput, proofRepresentation);
+        });
+        if (!lazy) {
+            this.proof.get();
+        }
     }
 
     public Zn.ZnElement getDoubleSpendingId() {
@@ -129,8 +163,21 @@ public class SpendProviderRequest implements Representable {
         return c0;
     }
 
+    /**
+     * Returns the spend-deduct proof, restoring it first if this request was restored lazily.
+     */
     public FiatShamirProof getProof() {
-        return proof;
+        return proof.get();
+    }
+
+    /**
+     * Returns the gamma that was computed while restoring this request, if it was computed for the given basket,
+     * promotion and context.
+     *
+     * @return gamma or an empty optional if gamma needs to be computed
+     */
+    public Optional<Zn.ZnElement> getGamma(UUID basketId, BigInteger promotionId, UniqueByteRepresentable context) {
+        return gammaParameters == null ? Optional.empty() : gammaParameters.getGammaFor(basketId, promotionId, context);
     }
 
     @Override
@@ -138,12 +185,12 @@ public class SpendProviderRequest implements Representable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SpendProviderRequest that = (SpendProviderRequest) o;
-        return Objects.equals(doubleSpendingId, that.doubleSpendingId) && Objects.equals(c, that.c) && Objects.equals(couponSignature, that.couponSignature) && Objects.equals(tokenSignature, that.tokenSignature) && Objects.equals(cPre0, that.cPre0) && Objects.equals(cPre1, that.cPre1) && Objects.equals(c0, that.c0) && Objects.equals(proof, that.proof);
+        return Objects.equals(doubleSpendingId, that.doubleSpendingId) && Objects.equals(c, that.c) && Objects.equals(couponSignature, that.couponSignature) && Objects.equals(tokenSignature, that.tokenSignature) && Objects.equals(cPre0, that.cPre0) && Objects.equals(cPre1, that.cPre1) && Objects.equals(c0, that.c0) && Objects.equals(getProof(), that.getProof());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(doubleSpendingId, c, couponSignature, tokenSignature, cPre0, cPre1, c0, proof);
+        return Objects.hash(doubleSpendingId, c, couponSignature, tokenSignature, cPre0, cPre1, c0, getProof());
     }
 
     @Override
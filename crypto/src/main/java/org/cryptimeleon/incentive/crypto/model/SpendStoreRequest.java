@@ -6,7 +6,7 @@ import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
 import org.cryptimeleon.incentive.crypto.Util;
 import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey;
 import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
-import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductBooleanZkp;
+import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCache;
 import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCommonInput;
 import org.cryptimeleon.math.hash.UniqueByteRepresentable;
 import org.cryptimeleon.math.serialization.ListRepresentation;
@@ -16,7 +16,9 @@ import org.cryptimeleon.math.structures.groups.Group;
 import org.cryptimeleon.math.structures.groups.GroupElement;
 import org.cryptimeleon.math.structures.rings.zn.Zn;
 
+import java.math.BigInteger;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
 
 public class SpendStoreRequest implements Representable {
@@ -26,9 +28,24 @@ public class SpendStoreRequest implements Representable {
     private final GroupElement c0; // do not send C_1 since it should be equal to g_1 anyways
     private final GroupElement cPre0;
     private final GroupElement cPre1;
-    private final FiatShamirProof spendZkp;
+    private final LazyFiatShamirProof spendZkp;
+    // Gamma computed while restoring the proof, null if this request was not restored from a representation
+    private final GammaParameters gammaParameters;
 
     public SpendStoreRequest(Representation representation, IncentivePublicParameters pp, UUID basketId, PromotionParameters promotionParameters, ProviderPublicKey providerPublicKey, SpendDeductTree spendDeductTree, UniqueByteRepresentable context) {
+        this(representation, pp, basketId, promotionParameters, providerPublicKey, spendDeductTree, context, new SpendDeductZkpCache(pp, 1), false);
+    }
+
+    /**
+     * Restores a request from its representation.
+     * In lazy mode, the spend-deduct proof is kept as a representation and only restored once {@link #getSpendZkp()}
+     * is called, i.e. when verification of the proof starts. Requests that are rejected by cheaper checks before
+     * never build the proof system of the spend-deduct tree.
+     *
+     * @param spendDeductZkpCache the cache to take the proof system from, built for pp
+     * @param lazy                whether to restore the proof lazily
+     */
+    public SpendStoreRequest(Representation representation, IncentivePublicParameters pp, UUID basketId, PromotionParameters promotionParameters, ProviderPublicKey providerPublicKey, SpendDeductTree spendDeductTree, UniqueByteRepresentable context, SpendDeductZkpCache spendDeductZkpCache, boolean lazy) {
         ListRepresentation listRepresentation = (ListRepresentation) representation;
         Group g1 = pp.getBg().getG1();
 
@@ -41,9 +58,15 @@ public class SpendStoreRequest implements Representable {
 
         // Kinda nasty deserialization of zkp
         var gamma = Util.hashGamma(pp.getBg().getZn(), dsid, basketId, cPre0, cPre1, cPre1.pow(promotionParameters.getPromotionId()), context);
-        var spendDeductCommonInput = new SpendDeductZkpCommonInput(gamma, c, dsid, cPre0, cPre1, c0);
-        var fiatShamirProofSystem = new FiatShamirProofSystem(new SpendDeductBooleanZkp(spendDeductTree, pp, promotionParameters, providerPublicKey));
-        this.spendZkp = fiatShamirProofSystem.restoreProof(spendDeductCommonInput, listRepresentation.get(6));
+        this.gammaParameters = new GammaParameters(gamma, basketId, promotionParameters.getPromotionId(), context);
+        this.spendZkp = new LazyFiatShamirProof(listRepresentation.get(6), () -> {
+            var spendDeductCommonInput = new SpendDeductZkpCommonInput(gamma, c, dsid, cPre0, cPre1, c0);
+            var fiatShamirProofSystem = spendDeductZkpCache.getFiatShamirProofSystem(spendDeductTree, promotionParameters, providerPublicKey);
+            return fiatShamirProofSystem.restoreProof(spendDeductCommonInput, listRepresentation.get(6));
+        });
+        if (!lazy) {
+            this.spendZkp.get();
+        }
     }
 
     public SpendStoreRequest(Zn.ZnElement dsid, Zn.ZnElement c, SPSEQSignature sigma, GroupElement c0, GroupElement cPre0, GroupElement cPre1, FiatShamirProof spendZkp) {
@@ -53,7 +76,8 @@ public class SpendStoreRequest implements Representable {
         this.c0 = c0;
         this.cPre0 = cPre0;
         this.cPre1 = cPre1;
-        this.spendZkp = spendZkp;
+        this.spendZkp = new LazyFiatShamirProof(spendZkp);
+        this.gammaParameters = null;
     }
 
     public Zn.ZnElement getDsid() {
@@ -80,21 +104,38 @@ public class SpendStoreRequest implements Representable {
         return cPre1;
     }
 
+    /**
+     * Returns the spend-deduct proof, restoring it first if this request was restored lazily.
+     */
     public FiatShamirProof getSpendZkp() {
+        return spendZkp.get();
+    }
+
+    LazyFiatShamirProof getLazySpendZkp() {
         return spendZkp;
     }
 
+    /**
+     * Returns the gamma that was computed while restoring this request, if it was computed for the given basket,
+     * promotion and context.
+     *
+     * @return gamma or an empty optional if gamma needs to be computed
+     */
+    public Optional<Zn.ZnElement> getGamma(UUID basketId, BigInteger promotionId, UniqueByteRepresentable context) {
+        return gammaParameters == null ? Optional.empty() : gammaParameters.getGammaFor(basketId, promotionId, context);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SpendStoreRequest that = (SpendStoreRequest) o;
-        return Objects.equals(dsid, that.dsid) && Objects.equals(c, that.c) && Objects.equals(sigma, that.sigma) && Objects.equals(c0, that.c0) && Objects.equals(cPre0, that.cPre0) && Objects.equals(cPre1, that.cPre1) && Objects.equals(spendZkp, that.spendZkp);
+        return Objects.equals(dsid, that.dsid) && Objects.equals(c, that.c) && Objects.equals(sigma, that.sigma) && Objects.equals(c0, that.c0) && Objects.equals(cPre0, that.cPre0) && Objects.equals(cPre1, that.cPre1) && Objects.equals(getSpendZkp(), that.getSpendZkp());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(dsid, c, sigma, c0, cPre0, cPre1, spendZkp);
+        return Objects.hash(dsid, c, sigma, c0, cPre0, cPre1, getSpendZkp());
     }
 
     @Override
@@ -0,0 +1,56 @@
+package org.cryptimeleon.incentive.crypto.model;
+
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
+import org.cryptimeleon.math.hash.UniqueByteRepresentable;
+import org.cryptimeleon.math.structures.cartesian.Vector;
+
+import java.math.BigInteger;
+
+/**
+ * Everything that is specific to one token when generating the spend requests of a checkout at once, see
+ * {@link org.cryptimeleon.incentive.crypto.IncentiveSystem#generateStoreSpendRequests}.
+ */
+public class SpendStoreRequestInput {
+    private final Token token;
+    private final PromotionParameters promotionParameters;
+    private final Vector<BigInteger> newPoints;
+    private final SpendDeductTree spendDeductTree;
+    private final UniqueByteRepresentable context;
+
+    /**
+     * Constructor.
+     *
+     * @param token               the token to spend
+     * @param promotionParameters the parameters of the promotion this token and update belong to
+     * @param newPoints           the points the token will have after this operation
+     * @param spendDeductTree     a boolean formula represented by a tree that must be satisfied
+     * @param context             information that uniquely identify this updates parameters/rules.
+     */
+    public SpendStoreRequestInput(Token token, PromotionParameters promotionParameters, Vector<BigInteger> newPoints, SpendDeductTree spendDeductTree, UniqueByteRepresentable context) {
+        this.token = token;
+        this.promotionParameters = promotionParameters;
+        this.newPoints = newPoints;
+        this.spendDeductTree = spendDeductTree;
+        this.context = context;
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    public PromotionParameters getPromotionParameters() {
+        return promotionParameters;
+    }
+
+    public Vector<BigInteger> getNewPoints() {
+        return newPoints;
+    }
+
+    public SpendDeductTree getSpendDeductTree() {
+        return spendDeductTree;
+    }
+
+    public UniqueByteRepresentable getContext() {
+        return context;
+    }
+}
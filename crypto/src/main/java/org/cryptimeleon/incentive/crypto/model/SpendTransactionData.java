@@ -10,7 +10,7 @@ import org.cryptimeleon.incentive.crypto.Util;
 import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey;
 import org.cryptimeleon.incentive.crypto.model.keys.store.StorePublicKey;
 import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
-import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductBooleanZkp;
+import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCache;
 import org.cryptimeleon.incentive.crypto.proof.spend.zkp.SpendDeductZkpCommonInput;
 import org.cryptimeleon.math.hash.UniqueByteRepresentable;
 import org.cryptimeleon.math.serialization.*;
@@ -86,6 +86,16 @@ public class SpendTransactionData implements Representable {
     }
 
     public SpendTransactionData(Representation representation, IncentivePublicParameters pp, PromotionParameters promotionParameters, SpendDeductTree spendDeductTree, ProviderPublicKey providerPublicKey, UniqueByteRepresentable context) {
+        this(representation, pp, promotionParameters, spendDeductTree, providerPublicKey, context, new SpendDeductZkpCache(pp, 1));
+    }
+
+    /**
+     * Restores spend transaction data from its representation.
+     *
+     * @param spendDeductZkpCache the cache to take the proof system from, built for pp, e.g. to restore many records of
+     *                            the same promotion
+     */
+    public SpendTransactionData(Representation representation, IncentivePublicParameters pp, PromotionParameters promotionParameters, SpendDeductTree spendDeductTree, ProviderPublicKey providerPublicKey, UniqueByteRepresentable context, SpendDeductZkpCache spendDeductZkpCache) {
         Iterator<Representation> representationIterator = ((ListRepresentation) representation).iterator();
 
         SPSEQSignatureScheme spseqSignatureScheme = pp.getSpsEq();
@@ -108,7 +118,7 @@ public class SpendTransactionData implements Representable {
         // Kinda nasty deserialization of zkp
         var gamma = Util.hashGamma(pp.getBg().getZn(), dsid, basketId, cPre0, cPre1, cPre1.pow(promotionParameters.getPromotionId()), context);
         var spendDeductCommonInput = new SpendDeductZkpCommonInput(gamma, c, dsid, cPre0, cPre1, c0);
-        var fiatShamirProofSystem = new FiatShamirProofSystem(new SpendDeductBooleanZkp(spendDeductTree, pp, promotionParameters, providerPublicKey));
+        var fiatShamirProofSystem = spendDeductZkpCache.getFiatShamirProofSystem(spendDeductTree, promotionParameters, providerPublicKey);
         this.proof = fiatShamirProofSystem.restoreProof(spendDeductCommonInput, representationIterator.next());
     }
 
@@ -23,10 +23,26 @@ public class ProviderPublicKey implements Representable {
     private GroupElementVector h; // first five bases for the Pedersen commitment in the tokens
 
     public ProviderPublicKey(Representation repr, IncentivePublicParameters pp) {
+        this(repr, pp, false);
+    }
+
+    /**
+     * Restores the public key and optionally precomputes fixed-base exponentiation tables for all bases of vector H,
+     * which are used in every token commitment. Combine with
+     * {@link IncentivePublicParameters#IncentivePublicParameters(Representation, boolean)} for h7.
+     *
+     * @param repr             the representation
+     * @param pp               the public parameters
+     * @param precomputePowers whether to precompute the exponentiation tables before the constructor returns
+     */
+    public ProviderPublicKey(Representation repr, IncentivePublicParameters pp, boolean precomputePowers) {
         new ReprUtil(this)
                 .register(pp.getSpsEq(), "SPSEQScheme")
                 .register(pp.getBg().getG1(), "G1")
                 .deserialize(repr);
+        if (precomputePowers) {
+            h = h.precomputePow();
+        }
     }
 
     public ProviderPublicKey(SPSEQVerificationKey pkSpsEq, SPSEQVerificationKey registrationSpsEqPk, GroupElementVector h) {
@@ -6,6 +6,7 @@ import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
 import org.cryptimeleon.math.structures.cartesian.Vector;
 
 import java.math.BigInteger;
+import java.util.Objects;
 
 /**
  * Leaf node for representing range proofs over the points vector of the old token.
@@ -34,4 +35,17 @@ public class TokenPointsLeaf extends SpendDeductLeafNode {
     public boolean isValidForPoints(Vector<BigInteger> pointsVector, Vector<BigInteger> newPointsVector) {
         return Util.arePointsInRange(pointsVector, this.lowerLimits, this.upperLimits);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TokenPointsLeaf that = (TokenPointsLeaf) o;
+        return super.equals(o) && Objects.equals(lowerLimits, that.lowerLimits) && Objects.equals(upperLimits, that.upperLimits);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), lowerLimits, upperLimits);
+    }
 }
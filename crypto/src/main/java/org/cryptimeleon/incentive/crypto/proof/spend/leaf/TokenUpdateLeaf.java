@@ -6,6 +6,7 @@ import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
 import org.cryptimeleon.math.structures.cartesian.Vector;
 
 import java.math.BigInteger;
+import java.util.Objects;
 
 /**
  * Leaf node for representing range proofs over the new points vector of the old token combined with affine linear relations
@@ -47,4 +48,17 @@ public class TokenUpdateLeaf extends SpendDeductLeafNode {
         return Util.arePointsInRange(newPointsVector, this.lowerLimits, this.upperLimits)
                 && Util.satisfyAffineLinearRelation(oldPointsVector, newPointsVector, this.aVector, this.bVector);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TokenUpdateLeaf that = (TokenUpdateLeaf) o;
+        return super.equals(o) && Objects.equals(lowerLimits, that.lowerLimits) && Objects.equals(upperLimits, that.upperLimits) && Objects.equals(aVector, that.aVector) && Objects.equals(bVector, that.bVector);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), lowerLimits, upperLimits, aVector, bVector);
+    }
 }
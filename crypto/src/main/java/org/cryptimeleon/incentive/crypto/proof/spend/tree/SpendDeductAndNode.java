@@ -3,6 +3,7 @@ package org.cryptimeleon.incentive.crypto.proof.spend.tree;
 import org.cryptimeleon.math.structures.cartesian.Vector;
 
 import java.math.BigInteger;
+import java.util.Objects;
 
 public class SpendDeductAndNode implements SpendDeductTree {
 
@@ -17,4 +18,17 @@ public class SpendDeductAndNode implements SpendDeductTree {
     public boolean isValidForPoints(Vector<BigInteger> pointsVector, Vector<BigInteger> newPointsVector) {
         return left.isValidForPoints(pointsVector, newPointsVector) && right.isValidForPoints(pointsVector, newPointsVector);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SpendDeductAndNode that = (SpendDeductAndNode) o;
+        return Objects.equals(left, that.left) && Objects.equals(right, that.right);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(left, right);
+    }
 }
@@ -1,5 +1,7 @@
 package org.cryptimeleon.incentive.crypto.proof.spend.tree;
 
+import java.util.Objects;
+
 /**
  * Leaf nodes that represent the actual statements of the boolean formula.
  */
@@ -20,4 +22,17 @@ public abstract class SpendDeductLeafNode implements SpendDeductTree {
     public String getLeafName() {
         return leafName;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SpendDeductLeafNode that = (SpendDeductLeafNode) o;
+        return Objects.equals(leafName, that.leafName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(leafName);
+    }
 }
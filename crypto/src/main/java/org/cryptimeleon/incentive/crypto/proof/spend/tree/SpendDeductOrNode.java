@@ -3,6 +3,7 @@ package org.cryptimeleon.incentive.crypto.proof.spend.tree;
 import org.cryptimeleon.math.structures.cartesian.Vector;
 
 import java.math.BigInteger;
+import java.util.Objects;
 
 public class SpendDeductOrNode implements SpendDeductTree {
     public final SpendDeductTree left, right;
@@ -16,4 +17,17 @@ public class SpendDeductOrNode implements SpendDeductTree {
     public boolean isValidForPoints(Vector<BigInteger> pointsVector, Vector<BigInteger> newPointsVector) {
         return left.isValidForPoints(pointsVector, newPointsVector) || right.isValidForPoints(pointsVector, newPointsVector);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SpendDeductOrNode that = (SpendDeductOrNode) o;
+        return Objects.equals(left, that.left) && Objects.equals(right, that.right);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(left, right);
+    }
 }
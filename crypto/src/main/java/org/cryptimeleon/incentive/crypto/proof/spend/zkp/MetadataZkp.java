@@ -27,19 +27,20 @@ class MetadataZkp extends DelegateProtocol {
     private final Zn zn;
     private final ProviderPublicKey providerPublicKey;
     private final PromotionParameters promotionParameters;
+    private final GroupElementExpressionVector H; // commitment bases, fixed per promotion
 
     public MetadataZkp(IncentivePublicParameters incentivePublicParameters, ProviderPublicKey providerPublicKey, PromotionParameters promotionParameters) {
         this.providerPublicKey = providerPublicKey;
         this.pp = incentivePublicParameters;
         this.zn = incentivePublicParameters.getBg().getZn();
         this.promotionParameters = promotionParameters;
+        this.H = new GroupElementExpressionVector(providerPublicKey.getH(pp, promotionParameters).map(GroupElement::expr));
     }
 
 
     @Override
     protected SendThenDelegateFragment.SubprotocolSpec provideSubprotocolSpec(CommonInput pCommonInput, SendThenDelegateFragment.SubprotocolSpecBuilder builder) {
         var commonInput = (SpendDeductZkpCommonInput) pCommonInput;
-        var H = new GroupElementExpressionVector(providerPublicKey.getH(pp, promotionParameters).map(GroupElement::expr));
 
         // Variables to use
         var uskVar = builder.addZnVariable("usk", zn);
@@ -20,6 +20,9 @@ import org.cryptimeleon.math.expressions.bool.BooleanExpression;
 import org.cryptimeleon.math.serialization.Representation;
 import org.cryptimeleon.math.structures.rings.RingElement;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Proofs of partial knowledge that can be assembled from a SpendDeductTree.
  * All sub-protocols share a common input and witness space for simplicity.
@@ -31,6 +34,9 @@ public class SpendDeductBooleanZkp extends ProofOfPartialKnowledge {
     private final IncentivePublicParameters pp;
     private final PromotionParameters promotionParameters;
     private final ProviderPublicKey providerPublicKey;
+    // Sub-protocols do not depend on the common input, hence they are built once per instance
+    private final MetadataZkp metadataZkp;
+    private final Map<String, SigmaProtocol> leafProtocols = new HashMap<>();
 
     /**
      * Constructor.
@@ -45,6 +51,26 @@ public class SpendDeductBooleanZkp extends ProofOfPartialKnowledge {
         this.pp = pp;
         this.promotionParameters = promotionParameters;
         this.providerPublicKey = providerPublicKey;
+        this.metadataZkp = new MetadataZkp(pp, providerPublicKey, promotionParameters);
+        collectLeafProtocols(spendDeductTree);
+    }
+
+    /**
+     * Recursively creates the sub-protocols of all leaves of the tree.
+     */
+    private void collectLeafProtocols(SpendDeductTree spendDeductTree) {
+        if (spendDeductTree instanceof SpendDeductOrNode) {
+            collectLeafProtocols(((SpendDeductOrNode) spendDeductTree).left);
+            collectLeafProtocols(((SpendDeductOrNode) spendDeductTree).right);
+        } else if (spendDeductTree instanceof SpendDeductAndNode) {
+            collectLeafProtocols(((SpendDeductAndNode) spendDeductTree).left);
+            collectLeafProtocols(((SpendDeductAndNode) spendDeductTree).right);
+        } else if (spendDeductTree instanceof SpendDeductLeafNode) {
+            SpendDeductLeafNode spendDeductLeafNode = (SpendDeductLeafNode) spendDeductTree;
+            leafProtocols.put(spendDeductLeafNode.getLeafName(), getProtocolForLeaf(spendDeductLeafNode, pp, promotionParameters, providerPublicKey));
+        } else {
+            throw new RuntimeException("Unexpected instance of SpendDeductTree found!");
+        }
     }
 
     /**
@@ -54,7 +80,7 @@ public class SpendDeductBooleanZkp extends ProofOfPartialKnowledge {
     private ProtocolTree generateProtocolTree(CommonInput commonInput, SendFirstValue sendFirstValue) {
         return and(
                 // Metadata proof must always be true
-                leaf(META_LEAF_NAME, new MetadataZkp(this.pp, this.providerPublicKey, this.promotionParameters), commonInput),
+                leaf(META_LEAF_NAME, metadataZkp, commonInput),
                 generateProtocolTree(this.spendDeductTree, commonInput, sendFirstValue)
         );
     }
@@ -79,7 +105,7 @@ public class SpendDeductBooleanZkp extends ProofOfPartialKnowledge {
             SpendDeductLeafNode spendDeductLeafNode = (SpendDeductLeafNode) spendDeductTree;
             return leaf(
                     spendDeductLeafNode.getLeafName(),
-                    getProtocolForLeaf(spendDeductLeafNode, pp, promotionParameters, providerPublicKey),
+                    leafProtocols.get(spendDeductLeafNode.getLeafName()),
                     commonInput
             );
         } else {
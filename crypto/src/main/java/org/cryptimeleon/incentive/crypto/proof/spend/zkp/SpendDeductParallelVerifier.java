@@ -0,0 +1,78 @@
+package org.cryptimeleon.incentive.crypto.proof.spend.zkp;
+
+import org.cryptimeleon.craco.protocols.arguments.fiatshamir.FiatShamirProof;
+import org.cryptimeleon.craco.protocols.arguments.fiatshamir.FiatShamirProofSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifies many spend-deduct proofs that belong to the same promotion and spend-deduct tree.
+ * <p>
+ * This is not batch verification: the proofs are sent in compressed form (challenge and responses), so the verifier
+ * has to recompute the announcements of every proof and compare their hash against the challenge. There is no
+ * verification equation left that could be merged across proofs with random exponents. Instead, a single
+ * {@link FiatShamirProofSystem} is shared by all proofs and the proofs are checked concurrently on the passed executor.
+ */
+public class SpendDeductParallelVerifier {
+    private final FiatShamirProofSystem fiatShamirProofSystem;
+    private final Executor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param fiatShamirProofSystem the proof system of the spend-deduct tree all proofs are verified against, e.g. from a
+     *                              {@link SpendDeductZkpCache}
+     * @param executor              runs the proof checks, e.g. Runnable::run to check them on the calling thread
+     */
+    public SpendDeductParallelVerifier(FiatShamirProofSystem fiatShamirProofSystem, Executor executor) {
+        this.fiatShamirProofSystem = fiatShamirProofSystem;
+        this.executor = executor;
+    }
+
+    /**
+     * Checks all proofs. A proof whose check throws, e.g. because it is malformed, counts as invalid.
+     *
+     * @param commonInputs the common inputs, commonInputs.get(i) belongs to proofs.get(i)
+     * @param proofs       the proofs to verify
+     * @return the indices of all invalid proofs, in ascending order. Empty if all proofs are valid
+     */
+    public List<Integer> findInvalid(List<SpendDeductZkpCommonInput> commonInputs, List<FiatShamirProof> proofs) {
+        if (commonInputs.size() != proofs.size()) {
+            throw new IllegalArgumentException("Number of common inputs and proofs does not match");
+        }
+
+        var checks = new ArrayList<CompletableFuture<Boolean>>(proofs.size());
+        for (int i = 0; i < proofs.size(); i++) {
+            var commonInput = commonInputs.get(i);
+            var proof = proofs.get(i);
+            checks.add(CompletableFuture.supplyAsync(() -> fiatShamirProofSystem.checkProof(commonInput, proof), executor)
+                    .handle((valid, throwable) -> throwable == null && valid));
+        }
+
+        var invalid = new ArrayList<Integer>();
+        for (int i = 0; i < checks.size(); i++) {
+            if (!checks.get(i).join()) {
+                invalid.add(i);
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * Checks all proofs.
+     *
+     * @param commonInputs the common inputs, commonInputs.get(i) belongs to proofs.get(i)
+     * @param proofs       the proofs to verify
+     * @return whether all proofs are valid
+     */
+    public boolean verifyAll(List<SpendDeductZkpCommonInput> commonInputs, List<FiatShamirProof> proofs) {
+        return findInvalid(commonInputs, proofs).isEmpty();
+    }
+
+    public FiatShamirProofSystem getFiatShamirProofSystem() {
+        return fiatShamirProofSystem;
+    }
+}
@@ -0,0 +1,105 @@
+package org.cryptimeleon.incentive.crypto.proof.spend.zkp;
+
+import org.cryptimeleon.craco.protocols.arguments.fiatshamir.FiatShamirProofSystem;
+import org.cryptimeleon.incentive.crypto.model.IncentivePublicParameters;
+import org.cryptimeleon.incentive.crypto.model.PromotionParameters;
+import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey;
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded, thread-safe cache of prepared spend-deduct proof systems for one set of public parameters.
+ * <p>
+ * Creating a {@link SpendDeductBooleanZkp} builds the sub-protocols of all leaves of the tree, including the commitment
+ * bases H. Spends for the same token update (same tree and promotion) can share one instance, since the protocol does
+ * not depend on the common input. Entries are keyed by the value of the tree, the promotion and the provider public key,
+ * such that instances that were deserialized independently (e.g. per request) share one entry and a new key (e.g. after
+ * a key rotation) never hits a proof system that was built for another one. The public parameters are not part of the
+ * key since a cache is bound to one of them, see {@link org.cryptimeleon.incentive.crypto.IncentiveSystem#getSpendDeductZkpCache()}.
+ * The least recently used entry is evicted once the cache is full.
+ */
+public class SpendDeductZkpCache {
+    private final IncentivePublicParameters pp;
+    private final Map<CacheKey, FiatShamirProofSystem> cache;
+
+    /**
+     * Constructor.
+     *
+     * @param pp      the public parameters all cached proof systems are built for
+     * @param maxSize maximum number of cached proof systems
+     */
+    public SpendDeductZkpCache(IncentivePublicParameters pp, int maxSize) {
+        this.pp = pp;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, FiatShamirProofSystem> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Returns the Fiat-Shamir proof system for the spend-deduct ZKP of the given tree and promotion, creating it on the
+     * first call.
+     *
+     * @param spendDeductTree     a SpendDeductTree that represents the ZKP
+     * @param promotionParameters the promotion parameters
+     * @param providerPublicKey   the public key of the provider
+     * @return the proof system
+     */
+    public FiatShamirProofSystem getFiatShamirProofSystem(SpendDeductTree spendDeductTree,
+                                                          PromotionParameters promotionParameters,
+                                                          ProviderPublicKey providerPublicKey) {
+        var key = new CacheKey(spendDeductTree, promotionParameters, providerPublicKey);
+        var fiatShamirProofSystem = cache.get(key);
+        if (fiatShamirProofSystem == null) {
+            // Build outside the lock, concurrent misses for the same key just create equivalent instances
+            fiatShamirProofSystem = new FiatShamirProofSystem(new SpendDeductBooleanZkp(spendDeductTree, pp, promotionParameters, providerPublicKey));
+            var existing = cache.putIfAbsent(key, fiatShamirProofSystem);
+            if (existing != null) {
+                fiatShamirProofSystem = existing;
+            }
+        }
+        return fiatShamirProofSystem;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private static class CacheKey {
+        private final SpendDeductTree spendDeductTree;
+        private final BigInteger promotionId;
+        private final int pointsVectorSize;
+        private final ProviderPublicKey providerPublicKey;
+
+        CacheKey(SpendDeductTree spendDeductTree, PromotionParameters promotionParameters, ProviderPublicKey providerPublicKey) {
+            this.spendDeductTree = spendDeductTree;
+            this.promotionId = promotionParameters.getPromotionId();
+            this.pointsVectorSize = promotionParameters.getPointsVectorSize();
+            this.providerPublicKey = providerPublicKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey that = (CacheKey) o;
+            return pointsVectorSize == that.pointsVectorSize && Objects.equals(providerPublicKey, that.providerPublicKey) && Objects.equals(spendDeductTree, that.spendDeductTree) && Objects.equals(promotionId, that.promotionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(spendDeductTree, promotionId, pointsVectorSize, providerPublicKey);
+        }
+    }
+}
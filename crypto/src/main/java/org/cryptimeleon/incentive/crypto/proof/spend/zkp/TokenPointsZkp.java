@@ -31,6 +31,7 @@ class TokenPointsZkp extends DelegateProtocol {
     final Vector<BigInteger> upperLimits; // null means no limit
     final ProviderPublicKey providerPublicKey;
     final PromotionParameters promotionParameters;
+    final GroupElementExpressionVector H; // commitment bases, fixed per promotion
 
     public TokenPointsZkp(IncentivePublicParameters pp, Vector<BigInteger> lowerLimits, Vector<BigInteger> upperLimits, ProviderPublicKey providerPublicKey, PromotionParameters promotionParameters) {
         this.pp = pp;
@@ -38,12 +39,12 @@ class TokenPointsZkp extends DelegateProtocol {
         this.upperLimits = upperLimits;
         this.providerPublicKey = providerPublicKey;
         this.promotionParameters = promotionParameters;
+        this.H = new GroupElementExpressionVector(providerPublicKey.getH(pp, promotionParameters).map(GroupElement::expr));
     }
 
     @Override
     protected SendThenDelegateFragment.SubprotocolSpec provideSubprotocolSpec(CommonInput pCommonInput, SendThenDelegateFragment.SubprotocolSpecBuilder builder) {
         var commonInput = (SpendDeductZkpCommonInput) pCommonInput;
-        var H = new GroupElementExpressionVector(providerPublicKey.getH(pp, promotionParameters).map(GroupElement::expr));
         var zn = pp.getBg().getZn();
 
         // Variables to use
@@ -37,6 +37,7 @@ class TokenUpdateZkp extends DelegateProtocol {
     final Vector<BigInteger> bVector; // null means no statement
     final ProviderPublicKey providerPublicKey;
     final PromotionParameters promotionParameters;
+    final GroupElementExpressionVector H; // commitment bases, fixed per promotion
 
     public TokenUpdateZkp(IncentivePublicParameters pp, Vector<BigInteger> lowerLimits, Vector<BigInteger> upperLimits, Vector<BigInteger> aVector, Vector<BigInteger> bVector, ProviderPublicKey providerPublicKey, PromotionParameters promotionParameters) {
         this.pp = pp;
@@ -46,12 +47,12 @@ class TokenUpdateZkp extends DelegateProtocol {
         this.bVector = bVector;
         this.providerPublicKey = providerPublicKey;
         this.promotionParameters = promotionParameters;
+        this.H = new GroupElementExpressionVector(providerPublicKey.getH(pp, promotionParameters).map(GroupElement::expr));
     }
 
     @Override
     protected SendThenDelegateFragment.SubprotocolSpec provideSubprotocolSpec(CommonInput pCommonInput, SendThenDelegateFragment.SubprotocolSpecBuilder builder) {
         var commonInput = (SpendDeductZkpCommonInput) pCommonInput;
-        var H = new GroupElementExpressionVector(providerPublicKey.getH(pp, promotionParameters).map(GroupElement::expr));
         var zn = pp.getBg().getZn();
 
         // Variables to use
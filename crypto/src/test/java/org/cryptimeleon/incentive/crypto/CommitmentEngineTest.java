@@ -0,0 +1,22 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.math.structures.rings.cartesian.RingElementVector;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommitmentEngineTest {
+
+    @Test
+    void foldedOuterExponentTest() {
+        var zn = TestSuite.pp.getBg().getZn();
+        var bases = TestSuite.providerKeyPair.getPk().getH(TestSuite.pp, IncentiveSystem.generatePromotionParameters(3));
+        var exponents = RingElementVector.generate(zn::getUniformlyRandomElement, bases.length());
+        var u = zn.getUniformlyRandomElement();
+
+        assertThat(CommitmentEngine.commit(bases, exponents, u).compute())
+                .isEqualTo(bases.innerProduct(exponents).pow(u).compute());
+        assertThat(CommitmentEngine.commit(bases, exponents).compute())
+                .isEqualTo(bases.innerProduct(exponents).compute());
+    }
+}
@@ -6,6 +6,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -45,6 +47,51 @@ public class EarnTest {
                 .isTrue();
     }
 
+    @Test
+    public void batchEarnTest() {
+        var providerRequests = new ArrayList<EarnProviderRequest>();
+        for (Token t : List.of(token, altToken)) {
+            var storeReq = incSys.generateEarnCouponRequest(t, TestSuite.userKeyPair);
+            var storeRes = incSys.signEarnCoupon(TestSuite.storeKeyPair, earnAmount, storeReq, UUID.randomUUID(), promotionId, testRedeemedHandler);
+            providerRequests.add(incSys.generateEarnRequest(t, TestSuite.providerKeyPair.getPk(), TestSuite.userKeyPair, earnAmount, storeRes));
+        }
+        var earnTransactionData = new ArrayList<EarnTransactionData>();
+
+        var providerResults = incSys.generateEarnResponses(providerRequests, List.of(promotionParameters, promotionParameters), TestSuite.providerKeyPair, earnTransactionData::add, (a) -> true);
+
+        assertThat(providerResults).hasSize(2);
+        assertThat(earnTransactionData).hasSize(2);
+        var updatedToken = incSys.handleEarnResponse(providerRequests.get(1), providerResults.get(1), promotionParameters, altToken, TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk());
+        assertThat(updatedToken.getPoints().zip(earnAmount, (l, r) -> l.asInteger().equals(r)).reduce((l, r) -> l && r))
+                .isTrue();
+    }
+
+    @Test
+    public void batchEarnWithInvalidRequestFailsTest() {
+        var tokenWithDoubledPoints = new Token(
+                altToken.getCommitment0().pow(2),
+                altToken.getDoubleSpendingId(),
+                altToken.getDoubleSpendRandomness(),
+                altToken.getZ(),
+                altToken.getT(),
+                altToken.getPromotionId(),
+                altToken.getPoints(),
+                altToken.getSignature()
+        );
+        var providerRequests = new ArrayList<EarnProviderRequest>();
+        for (Token t : List.of(token, tokenWithDoubledPoints)) {
+            var storeReq = incSys.generateEarnCouponRequest(t, TestSuite.userKeyPair);
+            var storeRes = incSys.signEarnCoupon(TestSuite.storeKeyPair, earnAmount, storeReq, UUID.randomUUID(), promotionId, testRedeemedHandler);
+            providerRequests.add(incSys.generateEarnRequest(t, TestSuite.providerKeyPair.getPk(), TestSuite.userKeyPair, earnAmount, storeRes));
+        }
+        var earnTransactionData = new ArrayList<EarnTransactionData>();
+
+        assertThatThrownBy(() -> incSys.generateEarnResponses(providerRequests, List.of(promotionParameters, promotionParameters), TestSuite.providerKeyPair, earnTransactionData::add, (a) -> true))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("[1]");
+        assertThat(earnTransactionData).isEmpty();
+    }
+
     @Test
     public void earnTestManipulatedEarnAmountFails() {
         var invalidEarnAmount = Vector.of(BigInteger.valueOf(5L), BigInteger.valueOf(7L));
@@ -0,0 +1,54 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
+import org.cryptimeleon.math.structures.groups.cartesian.GroupElementVector;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SPSEQBatchVerifierTest {
+
+    final SPSEQBatchVerifier batchVerifier = new SPSEQBatchVerifier(TestSuite.pp);
+    final List<SPSEQSignature> signatures = new ArrayList<>();
+    final List<GroupElementVector> messages = new ArrayList<>();
+
+    private void addSignedMessages(int n) {
+        var g1 = TestSuite.pp.getBg().getG1();
+        for (int i = 0; i < n; i++) {
+            var message = GroupElementVector.of(g1.getUniformlyRandomElement(), g1.getUniformlyRandomElement(), g1.getUniformlyRandomElement()).compute();
+            messages.add(message);
+            signatures.add((SPSEQSignature) TestSuite.pp.getSpsEq().sign(TestSuite.providerKeyPair.getSk().getSkSpsEq(), message.get(0), message.get(1), message.get(2)));
+        }
+    }
+
+    @Test
+    void validBatchTest() {
+        addSignedMessages(5);
+
+        assertThat(batchVerifier.batchVerify(TestSuite.providerKeyPair.getPk().getPkSpsEq(), signatures, messages)).isTrue();
+        assertThat(batchVerifier.findInvalid(TestSuite.providerKeyPair.getPk().getPkSpsEq(), signatures, messages)).isEmpty();
+    }
+
+    @Test
+    void invalidSignatureInBatchIsFoundTest() {
+        addSignedMessages(5);
+        // Swap messages 1 and 3 such that both signatures no longer match their message
+        var tmp = messages.get(1);
+        messages.set(1, messages.get(3));
+        messages.set(3, tmp);
+
+        assertThat(batchVerifier.batchVerify(TestSuite.providerKeyPair.getPk().getPkSpsEq(), signatures, messages)).isFalse();
+        assertThat(batchVerifier.findInvalid(TestSuite.providerKeyPair.getPk().getPkSpsEq(), signatures, messages)).containsExactly(1, 3);
+    }
+
+    @Test
+    void wrongVerificationKeyTest() {
+        addSignedMessages(3);
+        var otherProviderKeyPair = TestSuite.incentiveSystem.generateProviderKeyPair();
+
+        assertThat(batchVerifier.findInvalid(otherProviderKeyPair.getPk().getPkSpsEq(), signatures, messages)).containsExactly(0, 1, 2);
+    }
+}
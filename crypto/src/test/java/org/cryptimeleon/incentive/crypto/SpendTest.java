@@ -1,19 +1,27 @@
 package org.cryptimeleon.incentive.crypto;
 
 import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
+import org.cryptimeleon.incentive.crypto.callback.IStoreBasketRedeemedHandler;
 import org.cryptimeleon.incentive.crypto.exception.ProviderDoubleSpendingDetectedException;
 import org.cryptimeleon.incentive.crypto.exception.StoreDoubleSpendingDetectedException;
 import org.cryptimeleon.incentive.crypto.model.*;
 import org.cryptimeleon.incentive.crypto.proof.spend.SpendHelper;
 import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
+import org.cryptimeleon.math.serialization.ListRepresentation;
+import org.cryptimeleon.math.serialization.Representation;
+import org.cryptimeleon.math.serialization.StringRepresentation;
 import org.cryptimeleon.math.structures.cartesian.Vector;
 import org.cryptimeleon.math.structures.rings.RingElement;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigInteger;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SpendTest {
     final IncentiveSystem incSys = TestSuite.incentiveSystem;
@@ -134,4 +142,278 @@ public class SpendTest {
         Assertions.assertEquals(spendResponse, deserializedSpendResponse);
     }
 
+    @Test
+    void verifySpendTransactionDataTest() throws StoreDoubleSpendingDetectedException {
+        SpendDeductTree spendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, pointDifference);
+        List<SpendTransactionData> spendTxData = generateSpendTransactionData(spendDeductTree, 3);
+        Assertions.assertTrue(incSys.verifySpendTransactionData(spendTxData, promotionParameters, TestSuite.providerKeyPair.getPk(), spendDeductTree, TestSuite.context).isEmpty());
+
+        // Move the second transaction to another basket, which changes gamma and invalidates the coupon signature
+        SpendTransactionData original = spendTxData.get(1);
+        spendTxData.set(1, new SpendTransactionData(original.getPromotionId(), original.getDsid(), UUID.randomUUID(),
+                original.getTokenSignature(), original.getCouponSignature(), original.getStorePublicKey(), original.getC(),
+                original.getGamma(), original.getC0(), original.getcPre0(), original.getcPre1(), original.getProof()));
+        Assertions.assertEquals(List.of(1), incSys.verifySpendTransactionData(spendTxData, promotionParameters, TestSuite.providerKeyPair.getPk(), spendDeductTree, TestSuite.context));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Assertions.assertEquals(List.of(1), incSys.verifySpendTransactionData(spendTxData, promotionParameters, TestSuite.providerKeyPair.getPk(), spendDeductTree, TestSuite.context, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void throwingChecksOnlyInvalidateTheirTransactionDataTest() throws StoreDoubleSpendingDetectedException {
+        SpendDeductTree spendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, pointDifference);
+        List<SpendTransactionData> spendTxData = generateSpendTransactionData(spendDeductTree, 3);
+
+        // Without a store public key the coupon signature check throws, without a proof the proof check throws
+        SpendTransactionData first = spendTxData.get(0);
+        spendTxData.set(0, new SpendTransactionData(first.getPromotionId(), first.getDsid(), first.getBasketId(),
+                first.getTokenSignature(), first.getCouponSignature(), null, first.getC(),
+                first.getGamma(), first.getC0(), first.getcPre0(), first.getcPre1(), first.getProof()));
+        SpendTransactionData last = spendTxData.get(2);
+        spendTxData.set(2, new SpendTransactionData(last.getPromotionId(), last.getDsid(), last.getBasketId(),
+                last.getTokenSignature(), last.getCouponSignature(), last.getStorePublicKey(), last.getC(),
+                last.getGamma(), last.getC0(), last.getcPre0(), last.getcPre1(), null));
+        Assertions.assertEquals(List.of(0, 2), incSys.verifySpendTransactionData(spendTxData, promotionParameters, TestSuite.providerKeyPair.getPk(), spendDeductTree, TestSuite.context));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Assertions.assertEquals(List.of(0, 2), incSys.verifySpendTransactionData(spendTxData, promotionParameters, TestSuite.providerKeyPair.getPk(), spendDeductTree, TestSuite.context, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs the store side of a spend for several fresh tokens and returns the resulting transaction data.
+     */
+    private List<SpendTransactionData> generateSpendTransactionData(SpendDeductTree spendDeductTree, int count) throws StoreDoubleSpendingDetectedException {
+        ArrayList<SpendTransactionData> spendTxData = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            UUID currentBasketId = UUID.randomUUID();
+            Token currentToken = TestSuite.generateToken(promotionParameters, pointsBeforeSpend);
+            SpendStoreRequest spendStoreRequest = incSys.generateStoreSpendRequest(
+                    TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(), currentToken,
+                    promotionParameters, currentBasketId, pointsAfterSpend,
+                    spendDeductTree,
+                    TestSuite.context
+            );
+            incSys.signSpendCoupon(
+                    TestSuite.storeKeyPair,
+                    TestSuite.providerKeyPair.getPk(),
+                    currentBasketId,
+                    promotionParameters,
+                    spendStoreRequest,
+                    spendDeductTree,
+                    TestSuite.context,
+                    testRedeemedHandler,
+                    dsidBlacklistHandler,
+                    spendTxData::add
+            );
+        }
+        return spendTxData;
+    }
+
+    @Test
+    void retriedSpendIsAnsweredFromCacheTest() throws StoreDoubleSpendingDetectedException, ProviderDoubleSpendingDetectedException {
+        SpendDeductTree spendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, pointDifference);
+        var storeResultCache = new VerificationResultCache<SpendStoreResponse>(10, Duration.ofMinutes(1));
+        var providerResultCache = new VerificationResultCache<SpendProviderResponse>(10, Duration.ofMinutes(1));
+        ArrayList<SpendTransactionData> spendTxData = new ArrayList<>();
+        SpendStoreRequest spendStoreRequest = incSys.generateStoreSpendRequest(
+                TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(), token,
+                promotionParameters, basketId, pointsAfterSpend,
+                spendDeductTree,
+                TestSuite.context
+        );
+
+        SpendStoreResponse spendCouponSignature = null;
+        SpendProviderResponse spendResponse = null;
+        for (int i = 0; i < 2; i++) {
+            SpendStoreResponse currentSpendCouponSignature = incSys.signSpendCoupon(
+                    TestSuite.storeKeyPair,
+                    TestSuite.providerKeyPair.getPk(),
+                    basketId,
+                    promotionParameters,
+                    spendStoreRequest,
+                    spendDeductTree,
+                    TestSuite.context,
+                    testRedeemedHandler,
+                    dsidBlacklistHandler,
+                    spendTxData::add,
+                    storeResultCache
+            );
+            SpendProviderResponse currentSpendResponse = incSys.verifySpendRequestAndIssueNewToken(
+                    TestSuite.providerKeyPair,
+                    promotionParameters,
+                    new SpendProviderRequest(spendStoreRequest, currentSpendCouponSignature),
+                    basketId,
+                    spendDeductTree,
+                    TestSuite.context,
+                    (z) -> true,
+                    dsidBlacklistHandler,
+                    providerResultCache
+            );
+            if (i == 0) {
+                spendCouponSignature = currentSpendCouponSignature;
+                spendResponse = currentSpendResponse;
+            } else {
+                // The retry must be answered with the responses of the first attempt
+                Assertions.assertSame(spendCouponSignature, currentSpendCouponSignature);
+                Assertions.assertSame(spendResponse, currentSpendResponse);
+            }
+        }
+        Assertions.assertEquals(1, spendTxData.size());
+
+        Token updatedToken = incSys.retrieveUpdatedTokenFromSpendResponse(TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(), token, promotionParameters, pointsAfterSpend, new SpendProviderRequest(spendStoreRequest, spendCouponSignature), spendResponse);
+        Assertions.assertEquals(updatedToken.getPoints().map(RingElement::asInteger), pointsAfterSpend);
+    }
+
+    @Test
+    void cachedSpendStillChecksBasketTest() throws StoreDoubleSpendingDetectedException {
+        SpendDeductTree spendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, pointDifference);
+        var storeResultCache = new VerificationResultCache<SpendStoreResponse>(10, Duration.ofMinutes(1));
+        ArrayList<SpendTransactionData> spendTxData = new ArrayList<>();
+        SpendStoreRequest spendStoreRequest = incSys.generateStoreSpendRequest(
+                TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(), token,
+                promotionParameters, basketId, pointsAfterSpend,
+                spendDeductTree,
+                TestSuite.context
+        );
+        incSys.signSpendCoupon(TestSuite.storeKeyPair, TestSuite.providerKeyPair.getPk(), basketId, promotionParameters,
+                spendStoreRequest, spendDeductTree, TestSuite.context, testRedeemedHandler, dsidBlacklistHandler,
+                spendTxData::add, storeResultCache);
+
+        // The basket has been redeemed for another request in the meantime, the cached response must not be returned
+        IStoreBasketRedeemedHandler redeemedForOtherRequest = (b, p, h) -> IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_REDEEMED_ABORT;
+        Assertions.assertThrows(RuntimeException.class, () -> incSys.signSpendCoupon(TestSuite.storeKeyPair,
+                TestSuite.providerKeyPair.getPk(), basketId, promotionParameters, spendStoreRequest, spendDeductTree,
+                TestSuite.context, redeemedForOtherRequest, dsidBlacklistHandler, spendTxData::add, storeResultCache));
+        Assertions.assertEquals(1, spendTxData.size());
+    }
+
+    @Test
+    void lazyProofRestorationTest() throws StoreDoubleSpendingDetectedException {
+        SpendDeductTree spendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, pointDifference);
+        SpendStoreRequest spendStoreRequest = incSys.generateStoreSpendRequest(
+                TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(), token,
+                promotionParameters, basketId, pointsAfterSpend,
+                spendDeductTree,
+                TestSuite.context
+        );
+        SpendStoreResponse spendCouponSignature = incSys.signSpendCoupon(
+                TestSuite.storeKeyPair,
+                TestSuite.providerKeyPair.getPk(),
+                basketId,
+                promotionParameters,
+                spendStoreRequest,
+                spendDeductTree,
+                TestSuite.context,
+                testRedeemedHandler,
+                dsidBlacklistHandler,
+                spendTransactionData -> {
+                }
+        );
+        SpendProviderRequest spendRequest = new SpendProviderRequest(spendStoreRequest, spendCouponSignature);
+
+        // A lazily restored request equals the original one and keeps the gamma computed during restoration
+        SpendProviderRequest lazySpendRequest = new SpendProviderRequest(spendRequest.getRepresentation(),
+                incSys.pp,
+                promotionParameters,
+                basketId,
+                spendDeductTree,
+                TestSuite.providerKeyPair.getPk(),
+                TestSuite.context,
+                incSys.getSpendDeductZkpCache(),
+                true);
+        Assertions.assertTrue(lazySpendRequest.getGamma(basketId, promotionParameters.getPromotionId(), TestSuite.context).isPresent());
+        Assertions.assertTrue(lazySpendRequest.getGamma(UUID.randomUUID(), promotionParameters.getPromotionId(), TestSuite.context).isEmpty());
+        Assertions.assertEquals(spendRequest, lazySpendRequest);
+
+        // A request with a malformed proof is rejected by the blacklist before the proof is restored
+        var representation = (ListRepresentation) spendRequest.getRepresentation();
+        var malformedRepresentation = new ArrayList<Representation>();
+        representation.forEach(malformedRepresentation::add);
+        malformedRepresentation.set(malformedRepresentation.size() - 1, new StringRepresentation("malformed"));
+        SpendProviderRequest malformedSpendRequest = new SpendProviderRequest(new ListRepresentation(malformedRepresentation),
+                incSys.pp,
+                promotionParameters,
+                basketId,
+                spendDeductTree,
+                TestSuite.providerKeyPair.getPk(),
+                TestSuite.context,
+                incSys.getSpendDeductZkpCache(),
+                true);
+        IDsidBlacklistHandler providerBlacklist = new TestSuite.TestDsidBlacklist();
+        providerBlacklist.addEntryIfDsidNotPresent(spendRequest.getDoubleSpendingId(), incSys.pp.getBg().getZn().getUniformlyRandomElement());
+        Assertions.assertThrows(ProviderDoubleSpendingDetectedException.class, () -> incSys.verifySpendRequestAndIssueNewToken(
+                TestSuite.providerKeyPair,
+                promotionParameters,
+                malformedSpendRequest,
+                basketId,
+                spendDeductTree,
+                TestSuite.context,
+                (z) -> true,
+                providerBlacklist
+        ));
+    }
+
+    @Test
+    void generateStoreSpendRequestsTest() throws StoreDoubleSpendingDetectedException {
+        PromotionParameters otherPromotionParameters = IncentiveSystem.generatePromotionParameters(2);
+        Token otherToken = TestSuite.generateToken(otherPromotionParameters, pointsBeforeSpend);
+        SpendDeductTree spendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, pointDifference);
+        SpendDeductTree otherSpendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(otherPromotionParameters, pointDifference);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<SpendStoreRequest> spendStoreRequests;
+        try {
+            spendStoreRequests = incSys.generateStoreSpendRequests(
+                    TestSuite.userKeyPair,
+                    TestSuite.providerKeyPair.getPk(),
+                    basketId,
+                    List.of(
+                            new SpendStoreRequestInput(token, promotionParameters, pointsAfterSpend, spendDeductTree, TestSuite.context),
+                            new SpendStoreRequestInput(otherToken, otherPromotionParameters, pointsAfterSpend, otherSpendDeductTree, TestSuite.context)
+                    ),
+                    executor
+            );
+        } finally {
+            executor.shutdown();
+        }
+
+        // Requests are returned in the order of the inputs, each one verifies for its own promotion
+        Assertions.assertEquals(2, spendStoreRequests.size());
+        SpendStoreResponse spendCouponSignature = incSys.signSpendCoupon(
+                TestSuite.storeKeyPair,
+                TestSuite.providerKeyPair.getPk(),
+                basketId,
+                promotionParameters,
+                spendStoreRequests.get(0),
+                spendDeductTree,
+                TestSuite.context,
+                testRedeemedHandler,
+                dsidBlacklistHandler,
+                spendTransactionData -> {
+                }
+        );
+        Assertions.assertTrue(incSys.verifySpendCouponSignature(spendStoreRequests.get(0), spendCouponSignature, promotionParameters, basketId));
+        SpendStoreResponse otherSpendCouponSignature = incSys.signSpendCoupon(
+                TestSuite.storeKeyPair,
+                TestSuite.providerKeyPair.getPk(),
+                basketId,
+                otherPromotionParameters,
+                spendStoreRequests.get(1),
+                otherSpendDeductTree,
+                TestSuite.context,
+                testRedeemedHandler,
+                dsidBlacklistHandler,
+                spendTransactionData -> {
+                }
+        );
+        Assertions.assertTrue(incSys.verifySpendCouponSignature(spendStoreRequests.get(1), otherSpendCouponSignature, otherPromotionParameters, basketId));
+    }
 }
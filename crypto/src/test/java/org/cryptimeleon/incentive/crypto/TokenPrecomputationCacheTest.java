@@ -0,0 +1,48 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.cryptimeleon.incentive.crypto.model.PromotionParameters;
+import org.cryptimeleon.incentive.crypto.model.Token;
+import org.cryptimeleon.incentive.crypto.proof.spend.SpendHelper;
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
+import org.cryptimeleon.math.structures.cartesian.Vector;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenPrecomputationCacheTest {
+    final TokenPrecomputationCache cache = new TokenPrecomputationCache(10);
+    final IncentiveSystem incSys = new IncentiveSystem(TestSuite.pp, cache);
+    final PromotionParameters promotionParameters = IncentiveSystem.generatePromotionParameters(2);
+    final Vector<BigInteger> pointsBeforeSpend = Vector.of(BigInteger.valueOf(10L), BigInteger.valueOf(0L));
+    final Vector<BigInteger> pointsAfterSpend = Vector.of(BigInteger.valueOf(6L), BigInteger.valueOf(0L));
+    final Token token = TestSuite.generateToken(promotionParameters, pointsBeforeSpend);
+
+    @Test
+    void precomputedValuesMatchFreshComputationTest() {
+        SpendDeductTree spendDeductTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters,
+                pointsBeforeSpend.zip(pointsAfterSpend, BigInteger::subtract));
+        UUID basketId = UUID.randomUUID();
+
+        // Without a cache, every request computes the values from scratch
+        var freshEarnRequest = TestSuite.incentiveSystem.generateEarnCouponRequest(token, TestSuite.userKeyPair);
+        var freshSpendRequest = TestSuite.incentiveSystem.generateStoreSpendRequest(TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(),
+                token, promotionParameters, basketId, pointsAfterSpend, spendDeductTree, TestSuite.context);
+
+        incSys.precomputeToken(TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(), token);
+        var precomputation = cache.get(TestSuite.userKeyPair.getSk(), token);
+        assertThat(precomputation).isNotNull();
+
+        // Requests based on precomputed values equal the freshly computed ones, and no new entry is computed
+        var earnRequest = incSys.generateEarnCouponRequest(token, TestSuite.userKeyPair);
+        var spendRequest = incSys.generateStoreSpendRequest(TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk(),
+                token, promotionParameters, basketId, pointsAfterSpend, spendDeductTree, TestSuite.context);
+        assertThat(earnRequest.getH()).isEqualTo(freshEarnRequest.getH());
+        assertThat(spendRequest.getCPre0()).isEqualTo(freshSpendRequest.getCPre0());
+        assertThat(spendRequest.getCPre1()).isEqualTo(freshSpendRequest.getCPre1());
+        assertThat(cache.get(TestSuite.userKeyPair.getSk(), token)).isSameAs(precomputation);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,44 @@
+package org.cryptimeleon.incentive.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VerificationResultCacheTest {
+
+    final AtomicLong now = new AtomicLong();
+    final VerificationResultCache<String> cache = new VerificationResultCache<>(2, Duration.ofSeconds(10), now::get);
+
+    @Test
+    void cachedResponseIsReturnedForEqualDigestTest() {
+        cache.put(new byte[]{1, 2, 3}, "response");
+
+        assertThat(cache.get(new byte[]{1, 2, 3})).contains("response");
+        assertThat(cache.get(new byte[]{1, 2, 4})).isEmpty();
+    }
+
+    @Test
+    void expiredResponseIsNotReturnedTest() {
+        cache.put(new byte[]{1}, "response");
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+
+        assertThat(cache.get(new byte[]{1})).isEmpty();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void leastRecentlyUsedResponseIsEvictedTest() {
+        cache.put(new byte[]{1}, "first");
+        cache.put(new byte[]{2}, "second");
+        cache.get(new byte[]{1});
+        cache.put(new byte[]{3}, "third");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get(new byte[]{1})).contains("first");
+        assertThat(cache.get(new byte[]{2})).isEmpty();
+        assertThat(cache.get(new byte[]{3})).contains("third");
+    }
+}
@@ -26,4 +26,19 @@ public class PublicParameterTest {
         System.out.println(deserializedPP);
         assertEquals(deserializedPP, pp);
     }
+
+    @Test
+    void testPrecomputePowers() {
+        var pp = IncentiveSystem.setup(128, BilinearGroupChoice.Debug);
+        var exponent = pp.getBg().getZn().getUniformlyRandomElement();
+        var expectedG1Pow = pp.getG1Generator().pow(exponent).compute();
+        var expectedWPow = pp.getW().pow(exponent).compute();
+
+        var precomputedPp = new IncentivePublicParameters(pp.getRepresentation(), true);
+
+        // Precomputation must neither change the parameters nor the results of exponentiations
+        assertEquals(pp, precomputedPp);
+        assertEquals(expectedG1Pow, precomputedPp.getG1Generator().pow(exponent).compute());
+        assertEquals(expectedWPow, precomputedPp.getW().pow(exponent).compute());
+    }
 }
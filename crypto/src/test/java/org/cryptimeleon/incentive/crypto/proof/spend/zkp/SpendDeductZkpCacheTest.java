@@ -0,0 +1,70 @@
+package org.cryptimeleon.incentive.crypto.proof.spend.zkp;
+
+import org.cryptimeleon.incentive.crypto.IncentiveSystem;
+import org.cryptimeleon.incentive.crypto.TestSuite;
+import org.cryptimeleon.incentive.crypto.model.IncentivePublicParameters;
+import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderPublicKey;
+import org.cryptimeleon.incentive.crypto.proof.spend.SpendHelper;
+import org.cryptimeleon.math.structures.cartesian.Vector;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpendDeductZkpCacheTest {
+
+    final Vector<BigInteger> subtractPoints = Vector.of(BigInteger.valueOf(3L), BigInteger.valueOf(0L));
+
+    @Test
+    void structurallyEqualTreesShareProofSystemTest() {
+        var cache = new SpendDeductZkpCache(TestSuite.pp, 10);
+        var promotionParameters = IncentiveSystem.generatePromotionParameters(2);
+        // Two independently created, but structurally equal trees
+        var tree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, subtractPoints);
+        var equalTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, subtractPoints);
+        var otherTree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, Vector.of(BigInteger.ONE, BigInteger.ONE));
+
+        var proofSystem = cache.getFiatShamirProofSystem(tree, promotionParameters, TestSuite.providerKeyPair.getPk());
+
+        assertThat(cache.getFiatShamirProofSystem(equalTree, promotionParameters, TestSuite.providerKeyPair.getPk()))
+                .isSameAs(proofSystem);
+        assertThat(cache.getFiatShamirProofSystem(otherTree, promotionParameters, TestSuite.providerKeyPair.getPk()))
+                .isNotSameAs(proofSystem);
+        assertThat(cache.getFiatShamirProofSystem(tree, IncentiveSystem.generatePromotionParameters(2), TestSuite.providerKeyPair.getPk()))
+                .isNotSameAs(proofSystem);
+        assertThat(cache.size()).isEqualTo(3);
+    }
+
+    @Test
+    void deserializedKeysShareProofSystemTest() {
+        var cache = new SpendDeductZkpCache(TestSuite.pp, 10);
+        var promotionParameters = IncentiveSystem.generatePromotionParameters(2);
+        var tree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, subtractPoints);
+        var deserializedPp = new IncentivePublicParameters(TestSuite.pp.getRepresentation());
+        var deserializedPk = new ProviderPublicKey(TestSuite.providerKeyPair.getPk().getRepresentation(), deserializedPp);
+
+        var proofSystem = cache.getFiatShamirProofSystem(tree, promotionParameters, TestSuite.providerKeyPair.getPk());
+
+        assertThat(cache.getFiatShamirProofSystem(tree, promotionParameters, deserializedPk))
+                .isSameAs(proofSystem);
+        assertThat(cache.getFiatShamirProofSystem(tree, promotionParameters, TestSuite.incentiveSystem.generateProviderKeyPair().getPk()))
+                .isNotSameAs(proofSystem);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedTest() {
+        var cache = new SpendDeductZkpCache(TestSuite.pp, 2);
+        var promotionParameters = IncentiveSystem.generatePromotionParameters(2);
+        var tree = SpendHelper.generateSimpleTestSpendDeductTree(promotionParameters, subtractPoints);
+
+        var proofSystem = cache.getFiatShamirProofSystem(tree, promotionParameters, TestSuite.providerKeyPair.getPk());
+        cache.getFiatShamirProofSystem(tree, IncentiveSystem.generatePromotionParameters(2), TestSuite.providerKeyPair.getPk());
+        cache.getFiatShamirProofSystem(tree, IncentiveSystem.generatePromotionParameters(2), TestSuite.providerKeyPair.getPk());
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getFiatShamirProofSystem(tree, promotionParameters, TestSuite.providerKeyPair.getPk()))
+                .isNotSameAs(proofSystem);
+    }
+}
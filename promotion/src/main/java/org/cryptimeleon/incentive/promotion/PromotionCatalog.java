@@ -0,0 +1,146 @@
+package org.cryptimeleon.incentive.promotion;
+
+import org.cryptimeleon.incentive.crypto.model.PreparedPromotion;
+import org.cryptimeleon.incentive.crypto.model.PromotionParameters;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable set of promotions, indexed by promotion id and token update id.
+ * <p>
+ * Changes create a new catalog with a higher version, so readers can keep using a catalog while promotions are added or
+ * deleted (copy-on-write). If the catalog has a preparer, i.e. at the provider, each entry prepares the values that the
+ * crypto protocols need for its promotion once, on first use, since the keys of a service are often loaded after its
+ * promotions.
+ */
+public class PromotionCatalog {
+    private final long version;
+    private final Map<BigInteger, Entry> entries;
+    private final List<Promotion> promotions;
+    private final Function<PromotionParameters, PreparedPromotion> preparer;
+
+    private PromotionCatalog(long version, Map<BigInteger, Entry> entries, Function<PromotionParameters, PreparedPromotion> preparer) {
+        this.version = version;
+        this.entries = Collections.unmodifiableMap(entries);
+        this.promotions = entries.values().stream().map(Entry::getPromotion).collect(Collectors.toUnmodifiableList());
+        this.preparer = preparer;
+    }
+
+    /**
+     * Creates an empty catalog whose entries cannot be prepared, e.g. for services without the provider keys.
+     *
+     * @return catalog of version 0
+     */
+    public static PromotionCatalog empty() {
+        return empty(null);
+    }
+
+    /**
+     * Creates an empty catalog.
+     *
+     * @param preparer prepares a promotion for the crypto protocols, e.g. using {@link PreparedPromotion#prepare}
+     * @return catalog of version 0
+     */
+    public static PromotionCatalog empty(Function<PromotionParameters, PreparedPromotion> preparer) {
+        return new PromotionCatalog(0, new LinkedHashMap<>(), preparer);
+    }
+
+    /**
+     * Returns a catalog that additionally contains the passed promotion.
+     *
+     * @param promotion the promotion to add
+     * @return the new catalog
+     * @throws IllegalArgumentException if the promotion id is already used
+     */
+    public PromotionCatalog with(Promotion promotion) {
+        var promotionId = promotion.getPromotionParameters().getPromotionId();
+        if (entries.containsKey(promotionId)) {
+            throw new IllegalArgumentException("PromotionId already used!");
+        }
+        var newEntries = new LinkedHashMap<>(entries);
+        newEntries.put(promotionId, new Entry(promotion, preparer));
+        return new PromotionCatalog(version + 1, newEntries, preparer);
+    }
+
+    /**
+     * Returns a catalog without any promotions.
+     */
+    public PromotionCatalog cleared() {
+        return new PromotionCatalog(version + 1, new LinkedHashMap<>(), preparer);
+    }
+
+    public Optional<Entry> getEntry(BigInteger promotionId) {
+        return Optional.ofNullable(entries.get(promotionId));
+    }
+
+    public Optional<Promotion> getPromotion(BigInteger promotionId) {
+        return getEntry(promotionId).map(Entry::getPromotion);
+    }
+
+    public Optional<ZkpTokenUpdate> getTokenUpdate(BigInteger promotionId, UUID tokenUpdateId) {
+        return getEntry(promotionId).flatMap(entry -> entry.getTokenUpdate(tokenUpdateId));
+    }
+
+    /**
+     * All promotions in the order they were added.
+     */
+    public List<Promotion> getPromotions() {
+        return promotions;
+    }
+
+    /**
+     * Increases with every change, starting at 0 for an empty catalog.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * A promotion together with its token updates by id and its prepared crypto values.
+     */
+    public static class Entry {
+        private final Promotion promotion;
+        private final Map<UUID, ZkpTokenUpdate> tokenUpdates = new HashMap<>();
+        private final Function<PromotionParameters, PreparedPromotion> preparer;
+        private volatile PreparedPromotion preparedPromotion;
+
+        private Entry(Promotion promotion, Function<PromotionParameters, PreparedPromotion> preparer) {
+            this.promotion = promotion;
+            this.preparer = preparer;
+            promotion.getZkpTokenUpdates().forEach(tokenUpdate -> tokenUpdates.putIfAbsent(tokenUpdate.getTokenUpdateId(), tokenUpdate));
+        }
+
+        public Promotion getPromotion() {
+            return promotion;
+        }
+
+        public Optional<ZkpTokenUpdate> getTokenUpdate(UUID tokenUpdateId) {
+            return Optional.ofNullable(tokenUpdates.get(tokenUpdateId));
+        }
+
+        /**
+         * Returns the prepared crypto values of this promotion, preparing them on the first call.
+         *
+         * @throws IllegalStateException if the catalog has no preparer
+         */
+        public PreparedPromotion getPreparedPromotion() {
+            var prepared = preparedPromotion;
+            if (prepared == null) {
+                if (preparer == null) {
+                    throw new IllegalStateException("Promotion catalog cannot prepare promotions");
+                }
+                synchronized (this) {
+                    prepared = preparedPromotion;
+                    if (prepared == null) {
+                        prepared = preparer.apply(promotion.getPromotionParameters());
+                        preparedPromotion = prepared;
+                    }
+                }
+            }
+            return prepared;
+        }
+    }
+}
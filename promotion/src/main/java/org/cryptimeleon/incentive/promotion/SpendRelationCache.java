@@ -0,0 +1,113 @@
+package org.cryptimeleon.incentive.promotion;
+
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
+import org.cryptimeleon.math.hash.UniqueByteRepresentable;
+import org.cryptimeleon.math.structures.cartesian.Vector;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of the relation trees, contexts and parsed metadata of spend requests.
+ * <p>
+ * All three only depend on the token update, the basket points and the serialized metadata, so spend requests for the
+ * same update, e.g. of streak promotions whose metadata is the epoch day, share them instead of parsing the metadata,
+ * generating the tree and hashing the context again. The least recently used relations are evicted first.
+ * Token update ids are assumed to identify a token update; clear the cache when promotions change. Relations that
+ * were computed while the cache was cleared are returned but not cached, since they may belong to an old promotion.
+ */
+public class SpendRelationCache {
+    private final Function<String, ZkpTokenUpdateMetadata> metadataDecoder;
+    private final Map<List<Object>, SpendRelation> relations;
+    // Incremented by clear(), guarded by the lock of relations
+    private long generation = 0;
+
+    /**
+     * @param maxSize         the maximum number of cached relations
+     * @param metadataDecoder parses serialized token update metadata
+     */
+    public SpendRelationCache(int maxSize, Function<String, ZkpTokenUpdateMetadata> metadataDecoder) {
+        this.metadataDecoder = metadataDecoder;
+        this.relations = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, SpendRelation> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Returns the relation of a spend request, computing it if it is not cached.
+     *
+     * @param tokenUpdate        the token update the user wants to apply
+     * @param basketPoints       the points of the basket for the promotion of the update
+     * @param serializedMetadata the serialized metadata of the update
+     * @return the relation tree, context and metadata
+     */
+    public SpendRelation get(ZkpTokenUpdate tokenUpdate, Vector<BigInteger> basketPoints, String serializedMetadata) {
+        var key = List.<Object>of(tokenUpdate.getTokenUpdateId(), basketPoints.toList(), serializedMetadata);
+        long startGeneration;
+        SpendRelation relation;
+        synchronized (relations) {
+            startGeneration = generation;
+            relation = relations.get(key);
+        }
+        if (relation == null) {
+            // Computed outside the lock, concurrent misses for the same key compute the same relation
+            var metadata = metadataDecoder.apply(serializedMetadata);
+            relation = new SpendRelation(
+                    tokenUpdate.generateRelationTree(basketPoints, metadata),
+                    ContextManager.computeContext(tokenUpdate.getTokenUpdateId(), basketPoints, metadata),
+                    metadata
+            );
+            synchronized (relations) {
+                if (generation == startGeneration) {
+                    relations.put(key, relation);
+                }
+            }
+        }
+        return relation;
+    }
+
+    public void clear() {
+        synchronized (relations) {
+            generation++;
+            relations.clear();
+        }
+    }
+
+    public int size() {
+        return relations.size();
+    }
+
+    /**
+     * Everything a spend request needs besides the request itself.
+     */
+    public static class SpendRelation {
+        private final SpendDeductTree tree;
+        private final UniqueByteRepresentable context;
+        private final ZkpTokenUpdateMetadata metadata;
+
+        SpendRelation(SpendDeductTree tree, UniqueByteRepresentable context, ZkpTokenUpdateMetadata metadata) {
+            this.tree = tree;
+            this.context = context;
+            this.metadata = metadata;
+        }
+
+        public SpendDeductTree getTree() {
+            return tree;
+        }
+
+        public UniqueByteRepresentable getContext() {
+            return context;
+        }
+
+        public ZkpTokenUpdateMetadata getMetadata() {
+            return metadata;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.cryptimeleon.incentive.promotion;
+
+import org.cryptimeleon.incentive.crypto.TestSuite;
+import org.cryptimeleon.incentive.crypto.model.PreparedPromotion;
+import org.cryptimeleon.incentive.promotion.hazel.HazelPromotion;
+import org.cryptimeleon.incentive.promotion.hazel.HazelTokenUpdate;
+import org.cryptimeleon.incentive.promotion.sideeffect.RewardSideEffect;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromotionCatalogTest {
+
+    final HazelTokenUpdate tokenUpdate = new HazelTokenUpdate(UUID.randomUUID(), "Some reward", new RewardSideEffect("Free Hazelnut Spread"), 4);
+    final HazelPromotion firstPromotion = new HazelPromotion(HazelPromotion.generatePromotionParameters(), "First", "", List.of(tokenUpdate), "hazel");
+    final HazelPromotion secondPromotion = new HazelPromotion(HazelPromotion.generatePromotionParameters(), "Second", "", List.of(), "hazel");
+
+    @Test
+    void copyOnWriteTest() {
+        var empty = PromotionCatalog.empty(parameters -> PreparedPromotion.prepare(TestSuite.pp, TestSuite.providerKeyPair, parameters));
+        var catalog = empty.with(firstPromotion).with(secondPromotion);
+
+        assertEquals(0, empty.getVersion());
+        assertTrue(empty.getPromotions().isEmpty());
+        assertEquals(2, catalog.getVersion());
+        assertEquals(List.of(firstPromotion, secondPromotion), catalog.getPromotions());
+        assertEquals(secondPromotion, catalog.getPromotion(secondPromotion.getPromotionParameters().getPromotionId()).orElseThrow());
+        assertEquals(tokenUpdate, catalog.getTokenUpdate(firstPromotion.getPromotionParameters().getPromotionId(), tokenUpdate.getTokenUpdateId()).orElseThrow());
+        assertTrue(catalog.getTokenUpdate(secondPromotion.getPromotionParameters().getPromotionId(), tokenUpdate.getTokenUpdateId()).isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> catalog.with(firstPromotion));
+        var cleared = catalog.cleared();
+        assertEquals(3, cleared.getVersion());
+        assertTrue(cleared.getPromotions().isEmpty());
+        assertEquals(2, catalog.getPromotions().size());
+    }
+
+    @Test
+    void promotionIsPreparedOnceTest() {
+        var preparations = new AtomicInteger();
+        var catalog = PromotionCatalog.empty(parameters -> {
+            preparations.incrementAndGet();
+            return PreparedPromotion.prepare(TestSuite.pp, TestSuite.providerKeyPair, parameters);
+        }).with(firstPromotion);
+        var promotionParameters = firstPromotion.getPromotionParameters();
+
+        var entry = catalog.getEntry(promotionParameters.getPromotionId()).orElseThrow();
+        var prepared = entry.getPreparedPromotion();
+        assertSame(prepared, entry.getPreparedPromotion());
+        assertSame(prepared, catalog.with(secondPromotion).getEntry(promotionParameters.getPromotionId()).orElseThrow().getPreparedPromotion());
+        assertEquals(1, preparations.get());
+
+        assertEquals(TestSuite.providerKeyPair.getSk().getTokenPointsQ(promotionParameters), prepared.getTokenPointsQ());
+        assertEquals(TestSuite.pp.getG1Generator().pow(promotionParameters.getPromotionId()), prepared.getC2Base());
+    }
+
+    @Test
+    void catalogWithoutPreparerTest() {
+        var catalog = PromotionCatalog.empty().with(firstPromotion);
+        var entry = catalog.getEntry(firstPromotion.getPromotionParameters().getPromotionId()).orElseThrow();
+
+        assertEquals(firstPromotion, entry.getPromotion());
+        assertThrows(IllegalStateException.class, entry::getPreparedPromotion);
+    }
+}
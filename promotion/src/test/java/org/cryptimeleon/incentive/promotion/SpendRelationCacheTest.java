@@ -0,0 +1,62 @@
+package org.cryptimeleon.incentive.promotion;
+
+import org.cryptimeleon.math.serialization.RepresentableRepresentation;
+import org.cryptimeleon.math.serialization.converter.JSONConverter;
+import org.cryptimeleon.math.structures.cartesian.Vector;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpendRelationCacheTest {
+
+    final JSONConverter jsonConverter = new JSONConverter();
+    final AtomicInteger decodedMetadata = new AtomicInteger();
+    final SpendRelationCache cache = new SpendRelationCache(2, serialized -> {
+        decodedMetadata.incrementAndGet();
+        return (ZkpTokenUpdateMetadata) ((RepresentableRepresentation) jsonConverter.deserialize(serialized)).recreateRepresentable();
+    });
+    final String serializedMetadata = jsonConverter.serialize(new RepresentableRepresentation(TestSuiteWithPromotion.metadata));
+
+    @Test
+    void relationMatchesUncachedComputationTest() {
+        var relation = cache.get(TestSuiteWithPromotion.spendTokenUpdate, TestSuiteWithPromotion.basketPoints, serializedMetadata);
+
+        assertEquals(TestSuiteWithPromotion.tree, relation.getTree());
+        assertArrayEquals(TestSuiteWithPromotion.context.getUniqueByteRepresentation(), relation.getContext().getUniqueByteRepresentation());
+        assertEquals(TestSuiteWithPromotion.metadata, relation.getMetadata());
+    }
+
+    @Test
+    void repeatedRequestsHitTheCacheTest() {
+        var relation = cache.get(TestSuiteWithPromotion.spendTokenUpdate, TestSuiteWithPromotion.basketPoints, serializedMetadata);
+        assertSame(relation, cache.get(TestSuiteWithPromotion.spendTokenUpdate, Vector.fromStreamPlain(TestSuiteWithPromotion.basketPoints.stream()), serializedMetadata));
+        assertEquals(1, decodedMetadata.get());
+
+        // Other basket points are a different relation, the cache stays bounded
+        for (int i = 0; i < 5; i++) {
+            cache.get(TestSuiteWithPromotion.spendTokenUpdate, Vector.of(BigInteger.valueOf(i)), serializedMetadata);
+        }
+        assertEquals(6, decodedMetadata.get());
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void relationComputedDuringClearIsNotCachedTest() {
+        var clearingCache = new SpendRelationCache[1];
+        clearingCache[0] = new SpendRelationCache(2, serialized -> {
+            // Promotions change while the relation is computed
+            clearingCache[0].clear();
+            return (ZkpTokenUpdateMetadata) ((RepresentableRepresentation) jsonConverter.deserialize(serialized)).recreateRepresentable();
+        });
+
+        var relation = clearingCache[0].get(TestSuiteWithPromotion.spendTokenUpdate, TestSuiteWithPromotion.basketPoints, serializedMetadata);
+        assertEquals(TestSuiteWithPromotion.tree, relation.getTree());
+        assertEquals(0, clearingCache[0].size());
+    }
+}
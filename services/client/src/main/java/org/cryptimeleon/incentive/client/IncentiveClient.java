@@ -1,6 +1,7 @@
 package org.cryptimeleon.incentive.client;
 
 import org.cryptimeleon.incentive.client.dto.EnrichedSpendTransactionDataDto;
+import org.cryptimeleon.incentive.client.dto.SpendTransactionDataResultDto;
 import org.cryptimeleon.incentive.client.dto.provider.BulkRequestProviderDto;
 import org.cryptimeleon.incentive.client.dto.provider.BulkResultsProviderDto;
 import org.cryptimeleon.incentive.client.dto.provider.EarnRequestProviderDto;
@@ -37,9 +38,26 @@ public class IncentiveClient implements AliveEndpoint {
      */
     private final WebClient incentiveClient;
     private final JSONConverter jsonConverter = new JSONConverter();
+    /**
+     * Codec for the protocol messages in bulk requests, the provider answers in the same format
+     */
+    private final RepresentationCodec codec;
 
     public IncentiveClient(String incentiveServiceUrl) {
+        this(incentiveServiceUrl, RepresentationCodec.json());
+    }
+
+    /**
+     * Creates a client that encodes protocol messages with the given codec.
+     * Serialized results returned by this client are in the same format and can be decoded with
+     * {@link RepresentationCodec#decode(String)}.
+     *
+     * @param incentiveServiceUrl url of the provider service
+     * @param codec               the codec for protocol messages
+     */
+    public IncentiveClient(String incentiveServiceUrl, RepresentationCodec codec) {
         this.incentiveClient = WebClientHelper.buildWebClient(incentiveServiceUrl);
+        this.codec = codec;
     }
 
     /**
@@ -71,6 +89,8 @@ public class IncentiveClient implements AliveEndpoint {
     public BulkResultsProviderDto sendBulkRequest(BulkRequestProviderDto bulkRequestProviderDto) {
         return incentiveClient.post()
                 .uri("/bulk")
+                .contentType(codec.getMediaType())
+                .accept(codec.getMediaType())
                 .body(BodyInserters.fromValue(bulkRequestProviderDto))
                 .retrieve()
                 .bodyToMono(BulkResultsProviderDto.class)
@@ -101,7 +121,7 @@ public class IncentiveClient implements AliveEndpoint {
     }
 
     public String sendEarnRequest(EarnProviderRequest earnRequest, BigInteger promotionId) {
-        var earnRequestDto = new EarnRequestProviderDto(promotionId, jsonConverter.serialize(earnRequest.getRepresentation()));
+        var earnRequestDto = new EarnRequestProviderDto(promotionId, codec.encode(earnRequest.getRepresentation()));
         var bulkRequest = new BulkRequestProviderDto(
                 Collections.emptyList(),
                 List.of(earnRequestDto)
@@ -118,8 +138,8 @@ public class IncentiveClient implements AliveEndpoint {
                                    UUID tokenUpdateId,
                                    Vector<BigInteger> basketPoints) {
         var spendRequestProviderDto = new SpendRequestProviderDto(promotionId,
-                jsonConverter.serialize(spendRequest.getRepresentation()),
-                jsonConverter.serialize(new RepresentableRepresentation(metadata)),
+                codec.encode(spendRequest.getRepresentation()),
+                codec.encode(new RepresentableRepresentation(metadata)),
                 basketId,
                 tokenUpdateId,
                 basketPoints.toList());
@@ -141,4 +161,19 @@ public class IncentiveClient implements AliveEndpoint {
                 .block();
         assert Objects.requireNonNull(response).getStatusCode().is2xxSuccessful();
     }
+
+    /**
+     * Sends many spend transaction data records to the provider in one request.
+     *
+     * @param enrichedSpendTransactionDataDtos the records
+     * @return the number of records the provider added and the records it rejected
+     */
+    public SpendTransactionDataResultDto sendSpendTransactionDataBatch(List<EnrichedSpendTransactionDataDto> enrichedSpendTransactionDataDtos) {
+        return incentiveClient.post()
+                .uri("/spend-transaction-data/batch")
+                .body(BodyInserters.fromValue(enrichedSpendTransactionDataDtos))
+                .retrieve()
+                .bodyToMono(SpendTransactionDataResultDto.class)
+                .block();
+    }
 }
@@ -0,0 +1,116 @@
+package org.cryptimeleon.incentive.client;
+
+import org.cryptimeleon.math.serialization.Representation;
+import org.cryptimeleon.math.serialization.converter.BinaryConverter;
+import org.cryptimeleon.math.serialization.converter.JSONConverter;
+import org.springframework.http.MediaType;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Encodes the representations of protocol messages (requests, responses, tokens, transaction data) for the DTOs that
+ * are exchanged between app, stores and provider.
+ * <p>
+ * There are two formats:
+ * <ul>
+ *     <li>JSON: the {@link JSONConverter} output that has always been used.</li>
+ *     <li>Binary: {@value #BINARY_PREFIX} followed by the base64url encoding of a version byte and the
+ *     {@link BinaryConverter} output. Byte arrays, group elements and Zn elements are stored as raw bytes instead of
+ *     textual JSON, which shortens the strings and avoids JSON parsing.</li>
+ * </ul>
+ * Decoding detects the format, so a service can accept both. Which format a service uses for its responses is
+ * negotiated via the content type of the request, see {@link #BINARY_MEDIA_TYPE} and {@link #forContentType(String)}.
+ * The DTOs themselves stay JSON in both cases.
+ * <p>
+ * The byte encoding of group elements is determined by the group implementation of the math library, so point
+ * compression is only used where the library provides it.
+ */
+public class RepresentationCodec {
+    /**
+     * Content type of DTOs whose serialized protocol messages use the binary format.
+     * Since this is a +json media type, the DTOs are (de)serialized by the default Jackson converter.
+     */
+    public static final String BINARY_MEDIA_TYPE_VALUE = "application/vnd.cryptimeleon.incentive.binary+json";
+    public static final MediaType BINARY_MEDIA_TYPE = MediaType.parseMediaType(BINARY_MEDIA_TYPE_VALUE);
+
+    static final String BINARY_PREFIX = "~";
+    static final byte BINARY_VERSION_1 = 1;
+
+    private static final RepresentationCodec JSON = new RepresentationCodec(false);
+    private static final RepresentationCodec BINARY = new RepresentationCodec(true);
+
+    private final boolean binary;
+
+    private RepresentationCodec(boolean binary) {
+        this.binary = binary;
+    }
+
+    public static RepresentationCodec json() {
+        return JSON;
+    }
+
+    public static RepresentationCodec binary() {
+        return BINARY;
+    }
+
+    /**
+     * Returns the codec that matches the content type of a request.
+     *
+     * @param contentType the value of the content type header, may be null
+     * @return the binary codec for {@link #BINARY_MEDIA_TYPE}, else the JSON codec
+     */
+    public static RepresentationCodec forContentType(String contentType) {
+        if (contentType != null && BINARY_MEDIA_TYPE.equalsTypeAndSubtype(MediaType.parseMediaType(contentType))) {
+            return BINARY;
+        }
+        return JSON;
+    }
+
+    /**
+     * Decodes a representation that was encoded in any of the supported formats.
+     *
+     * @param serialized the encoded representation
+     * @return the representation
+     */
+    public static Representation decode(String serialized) {
+        if (!serialized.startsWith(BINARY_PREFIX)) {
+            return new JSONConverter().deserialize(serialized);
+        }
+
+        byte[] bytes = Base64.getUrlDecoder().decode(serialized.substring(BINARY_PREFIX.length()));
+        if (bytes.length == 0 || bytes[0] != BINARY_VERSION_1) {
+            throw new IllegalArgumentException("Unsupported binary representation version");
+        }
+        return new BinaryConverter().deserialize(Arrays.copyOfRange(bytes, 1, bytes.length));
+    }
+
+    /**
+     * Encodes a representation in the format of this codec.
+     *
+     * @param representation the representation to encode
+     * @return the encoded representation
+     */
+    public String encode(Representation representation) {
+        if (!binary) {
+            return new JSONConverter().serialize(representation);
+        }
+
+        byte[] payload = new BinaryConverter().serialize(representation);
+        byte[] bytes = new byte[payload.length + 1];
+        bytes[0] = BINARY_VERSION_1;
+        System.arraycopy(payload, 0, bytes, 1, payload.length);
+        return BINARY_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * The content type of DTOs that contain representations encoded by this codec.
+     */
+    public MediaType getMediaType() {
+        return binary ? BINARY_MEDIA_TYPE : MediaType.APPLICATION_JSON;
+    }
+}
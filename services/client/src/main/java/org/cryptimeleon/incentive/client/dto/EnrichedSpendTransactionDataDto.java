@@ -1,7 +1,7 @@
 package org.cryptimeleon.incentive.client.dto;
 
+import org.cryptimeleon.incentive.client.RepresentationCodec;
 import org.cryptimeleon.incentive.crypto.model.SpendTransactionData;
-import org.cryptimeleon.math.serialization.converter.JSONConverter;
 
 import java.math.BigInteger;
 import java.util.List;
@@ -22,7 +22,11 @@ public class EnrichedSpendTransactionDataDto {
     }
 
     public EnrichedSpendTransactionDataDto(SpendTransactionData spendTransactionData, BigInteger promotionId, UUID tokenUpdateId, String serializedMetadata, List<BigInteger> basketPoints) {
-        this.serializedSpendTransactionData = (new JSONConverter()).serialize(spendTransactionData.getRepresentation());
+        this(spendTransactionData, RepresentationCodec.json(), promotionId, tokenUpdateId, serializedMetadata, basketPoints);
+    }
+
+    public EnrichedSpendTransactionDataDto(SpendTransactionData spendTransactionData, RepresentationCodec codec, BigInteger promotionId, UUID tokenUpdateId, String serializedMetadata, List<BigInteger> basketPoints) {
+        this.serializedSpendTransactionData = codec.encode(spendTransactionData.getRepresentation());
         this.promotionId = promotionId;
         this.tokenUpdateId = tokenUpdateId;
         this.serializedMetadata = serializedMetadata;
@@ -0,0 +1,55 @@
+package org.cryptimeleon.incentive.client.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of syncing spend transaction data records to the provider: how many records were added and which
+ * records were rejected, identified by their index in the request.
+ */
+public class SpendTransactionDataResultDto {
+    private int added;
+    private List<Rejection> rejected = new ArrayList<>();
+
+    @SuppressWarnings("unused")
+    public SpendTransactionDataResultDto() {
+    }
+
+    public SpendTransactionDataResultDto(int added, List<Rejection> rejected) {
+        this.added = added;
+        this.rejected = rejected;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public List<Rejection> getRejected() {
+        return rejected;
+    }
+
+    /**
+     * A record the provider did not add, and why.
+     */
+    public static class Rejection {
+        private int index;
+        private String reason;
+
+        @SuppressWarnings("unused")
+        public Rejection() {
+        }
+
+        public Rejection(int index, String reason) {
+            this.index = index;
+            this.reason = reason;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
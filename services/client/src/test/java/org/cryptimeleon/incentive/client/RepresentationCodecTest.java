@@ -0,0 +1,44 @@
+package org.cryptimeleon.incentive.client;
+
+import org.cryptimeleon.incentive.crypto.BilinearGroupChoice;
+import org.cryptimeleon.incentive.crypto.IncentiveSystem;
+import org.cryptimeleon.incentive.crypto.model.IncentivePublicParameters;
+import org.cryptimeleon.math.serialization.converter.JSONConverter;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RepresentationCodecTest {
+
+    final IncentivePublicParameters pp = IncentiveSystem.setup(128, BilinearGroupChoice.Debug);
+
+    @Test
+    void binaryRoundTripTest() {
+        var encoded = RepresentationCodec.binary().encode(pp.getRepresentation());
+
+        assertThat(encoded).startsWith(RepresentationCodec.BINARY_PREFIX);
+        assertThat(encoded.length()).isLessThan(new JSONConverter().serialize(pp.getRepresentation()).length());
+        assertThat(new IncentivePublicParameters(RepresentationCodec.decode(encoded))).isEqualTo(pp);
+    }
+
+    @Test
+    void jsonIsStillAcceptedTest() {
+        var encoded = RepresentationCodec.json().encode(pp.getRepresentation());
+
+        assertThat(encoded).isEqualTo(new JSONConverter().serialize(pp.getRepresentation()));
+        assertThat(new IncentivePublicParameters(RepresentationCodec.decode(encoded))).isEqualTo(pp);
+    }
+
+    @Test
+    void unknownVersionIsRejectedTest() {
+        assertThrows(IllegalArgumentException.class, () -> RepresentationCodec.decode(RepresentationCodec.BINARY_PREFIX + "Ag"));
+    }
+
+    @Test
+    void codecIsNegotiatedByContentTypeTest() {
+        assertThat(RepresentationCodec.forContentType(RepresentationCodec.BINARY_MEDIA_TYPE_VALUE).isBinary()).isTrue();
+        assertThat(RepresentationCodec.forContentType("application/json;charset=UTF-8").isBinary()).isFalse();
+        assertThat(RepresentationCodec.forContentType(null).isBinary()).isFalse();
+    }
+}
@@ -1,21 +1,28 @@
 package org.cryptimeleon.incentive.services.provider;
 
 import io.swagger.annotations.ApiOperation;
+import org.cryptimeleon.incentive.client.RepresentationCodec;
 import org.cryptimeleon.incentive.client.dto.EnrichedSpendTransactionDataDto;
+import org.cryptimeleon.incentive.client.dto.SpendTransactionDataResultDto;
 import org.cryptimeleon.incentive.client.dto.provider.BulkRequestProviderDto;
 import org.cryptimeleon.incentive.client.dto.provider.BulkResultsProviderDto;
 import org.cryptimeleon.incentive.services.provider.api.DSDetectedEntryDto;
+import org.cryptimeleon.incentive.services.provider.api.DsidBlacklistEntryDto;
 import org.cryptimeleon.incentive.services.provider.api.RegistrationCouponJSON;
 import org.cryptimeleon.incentive.services.provider.error.BasketAlreadyPaidException;
 import org.cryptimeleon.incentive.services.provider.error.BasketNotPaidException;
 import org.cryptimeleon.incentive.services.provider.error.IncentiveServiceException;
 import org.cryptimeleon.incentive.services.provider.error.OnlineDoubleSpendingException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.List;
 import java.util.UUID;
@@ -33,11 +40,15 @@ import java.util.UUID;
 @RestController
 public class ProviderController {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ProviderController.class);
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
     // ref to service that handles server side of crypto protocols + registration token issuing
     private final ProviderService providerService;
     // shared secret, required to perform privileged actions
     @Value("${incentive-service.provider-secret}")
     private String providerSecret;
+    // number of streamed spend transaction data records that are verified and added together
+    @Value("${provider.spend-transaction-data.chunk-size:1000}")
+    private int spendTransactionDataChunkSize;
 
     /*
      * endpoints for managing promotions in the system
@@ -147,23 +158,38 @@ public class ProviderController {
 
     /**
      * Handle a set of earn and spend token update requests together and return all results.
+     * Requests sent with the {@link RepresentationCodec#BINARY_MEDIA_TYPE} content type are answered with results in
+     * the binary format, all others with JSON.
      *
+     * @param contentType            the content type of the request
      * @param bulkRequestProviderDto a DTO containing all requests
      * @return a DTO containing all responses
      */
-    @PostMapping("/bulk")
-    public BulkResultsProviderDto bulk(@RequestBody BulkRequestProviderDto bulkRequestProviderDto) {
-        return providerService.bulk(bulkRequestProviderDto);
+    @PostMapping(value = "/bulk",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, RepresentationCodec.BINARY_MEDIA_TYPE_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, RepresentationCodec.BINARY_MEDIA_TYPE_VALUE})
+    public ResponseEntity<BulkResultsProviderDto> bulk(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                       @RequestBody BulkRequestProviderDto bulkRequestProviderDto) {
+        var codec = RepresentationCodec.forContentType(contentType);
+        return ResponseEntity.ok()
+                .contentType(codec.getMediaType())
+                .body(providerService.bulk(bulkRequestProviderDto, codec));
     }
 
     /**
-     * Query all registration user data.
+     * Query the registration user data, one page at a time in the order users registered.
      *
-     * @return json list of user data objects
+     * @param page the index of the page, starting at 0
+     * @param size the maximum number of entries per page, at most 10000
+     * @return json list of user data objects, empty if the page is behind the last entry
      */
     @GetMapping("/registration-coupons")
-    public List<RegistrationCouponJSON> getRegistrationCoupons() {
-        return providerService.getRegistrationCoupons();
+    public List<RegistrationCouponJSON> getRegistrationCoupons(@RequestParam(defaultValue = "0") int page,
+                                                               @RequestParam(defaultValue = "1000") int size) {
+        if (page < 0 || size <= 0 || size > 10000) {
+            throw new IncentiveServiceException("Invalid page " + page + " of size " + size);
+        }
+        return providerService.getRegistrationCoupons(page, size);
     }
 
     @PostMapping("/spend-transaction-data")
@@ -171,11 +197,58 @@ public class ProviderController {
         providerService.addSpendTransactionData(enrichedSpendTransactionDataDto);
     }
 
+    /**
+     * HTTP endpoint for the stores to sync many spend transaction data records at once.
+     * The records are verified in batches. Invalid records are rejected one by one, all others are added.
+     *
+     * @param enrichedSpendTransactionDataDtos the records
+     * @return the number of added records and the indices of the rejected ones
+     */
+    @PostMapping("/spend-transaction-data/batch")
+    public ResponseEntity<SpendTransactionDataResultDto> addSpendTransactionDataBatch(@RequestBody List<EnrichedSpendTransactionDataDto> enrichedSpendTransactionDataDtos) {
+        return new ResponseEntity<>(providerService.addSpendTransactionData(enrichedSpendTransactionDataDtos), HttpStatus.OK);
+    }
+
+    /**
+     * HTTP endpoint for the stores to stream spend transaction data as newline-delimited JSON, one
+     * {@link EnrichedSpendTransactionDataDto} per line.
+     * The records are verified and added in chunks while the stream is read. Invalid records, including malformed
+     * lines, are rejected one by one and all other records are added, such that the stores know which records to resend.
+     * Since earlier chunks are already added when a later line is rejected, rejections are reported with status 200 as
+     * in the batch endpoint.
+     *
+     * @param ndjson the request body
+     * @return the number of added records and the rejected lines
+     */
+    @PostMapping(value = "/spend-transaction-data/stream", consumes = NDJSON_MEDIA_TYPE)
+    public ResponseEntity<SpendTransactionDataResultDto> addSpendTransactionDataStream(InputStream ndjson) throws IOException {
+        return new ResponseEntity<>(providerService.addSpendTransactionData(ndjson, spendTransactionDataChunkSize), HttpStatus.OK);
+    }
+
     @GetMapping("/spend-transaction-data")
     public List<UUID> addSpendTransactionDataBasketIds() {
         return providerService.txDataBaskets();
     }
 
+    /**
+     * HTTP endpoint for the blacklist calls of other provider nodes, which are executed on the blacklist shard of this node.
+     * Authorized action, requires passing the provider secret via a header in the HTTP request.
+     *
+     * @param providerSecretHeader  password sent via a header (is compared to provider secret)
+     * @param operation             reserve, contains or add
+     * @param dsidBlacklistEntryDto the (dsid, gamma) tuple
+     * @return the result of the call
+     */
+    @PostMapping("/dsid-blacklist/{operation}")
+    public ResponseEntity<Boolean> dsidBlacklistShardCall(@RequestHeader("provider-secret") String providerSecretHeader,
+                                                          @PathVariable String operation,
+                                                          @RequestBody DsidBlacklistEntryDto dsidBlacklistEntryDto) {
+        if (providerSecretHeader == null || !providerSecretHeader.equals(providerSecret)) {
+            return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+        }
+        return new ResponseEntity<>(providerService.dsidBlacklistShardCall(operation, dsidBlacklistEntryDto), HttpStatus.OK);
+    }
+
     @GetMapping("/double-spending-detected")
     public List<DSDetectedEntryDto> getDoubleSpendingBaskets() {
         return providerService.doubleSpendingDetected();
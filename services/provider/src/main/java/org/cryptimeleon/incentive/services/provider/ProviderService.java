@@ -1,6 +1,10 @@
 package org.cryptimeleon.incentive.services.provider;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cryptimeleon.incentive.client.RepresentationCodec;
 import org.cryptimeleon.incentive.client.dto.EnrichedSpendTransactionDataDto;
+import org.cryptimeleon.incentive.client.dto.SpendTransactionDataResultDto;
 import org.cryptimeleon.incentive.client.dto.provider.*;
 import org.cryptimeleon.incentive.crypto.IncentiveSystemRestorer;
 import org.cryptimeleon.incentive.crypto.callback.IRegistrationCouponDBHandler;
@@ -8,23 +12,36 @@ import org.cryptimeleon.incentive.crypto.callback.IStorePublicKeyVerificationHan
 import org.cryptimeleon.incentive.crypto.exception.ProviderDoubleSpendingDetectedException;
 import org.cryptimeleon.incentive.crypto.model.*;
 import org.cryptimeleon.incentive.crypto.model.keys.provider.ProviderKeyPair;
-import org.cryptimeleon.incentive.promotion.ContextManager;
+import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
 import org.cryptimeleon.incentive.promotion.Promotion;
+import org.cryptimeleon.incentive.promotion.SpendRelationCache;
 import org.cryptimeleon.incentive.promotion.ZkpTokenUpdateMetadata;
 import org.cryptimeleon.incentive.services.provider.api.DSDetectedEntryDto;
+import org.cryptimeleon.incentive.services.provider.api.DsidBlacklistEntryDto;
 import org.cryptimeleon.incentive.services.provider.api.RegistrationCouponJSON;
 import org.cryptimeleon.incentive.services.provider.error.IncentiveServiceException;
 import org.cryptimeleon.incentive.services.provider.error.OnlineDoubleSpendingException;
 import org.cryptimeleon.incentive.services.provider.repository.*;
+import org.cryptimeleon.math.hash.UniqueByteRepresentable;
 import org.cryptimeleon.math.serialization.RepresentableRepresentation;
 import org.cryptimeleon.math.serialization.converter.JSONConverter;
 import org.cryptimeleon.math.structures.cartesian.Vector;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigInteger;
-import java.util.List;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -44,17 +61,32 @@ public class ProviderService {
     private final RegistrationCouponRepository registrationCouponRepository;
     private final TransactionRepository transactionRepository;
     private final DsidBlacklistRepository dsidBlacklistRepository;
+    private final ShardedDsidBlacklist shardedDsidBlacklist;
+    private final VerificationResultCacheRepository verificationResultCacheRepository;
+    private final ExecutorService cryptoExecutor;
+    private final ObjectMapper objectMapper;
+    // Trees, contexts and metadata of recent spend requests and synced spend transaction data
+    private final SpendRelationCache spendRelationCache = new SpendRelationCache(1024,
+            serializedMetadata -> (ZkpTokenUpdateMetadata) ((RepresentableRepresentation) RepresentationCodec.decode(serializedMetadata)).recreateRepresentable());
 
     @Autowired
     private ProviderService(CryptoRepository cryptoRepository,
                             PromotionRepository promotionRepository,
                             RegistrationCouponRepository registrationCouponRepository,
-                            TransactionRepository transactionRepository, DsidBlacklistRepository dsidBlacklistRepository) {
+                            TransactionRepository transactionRepository, DsidBlacklistRepository dsidBlacklistRepository,
+                            ShardedDsidBlacklist shardedDsidBlacklist,
+                            VerificationResultCacheRepository verificationResultCacheRepository,
+                            @Qualifier("cryptoExecutor") ExecutorService cryptoExecutor,
+                            ObjectMapper objectMapper) {
         this.cryptoRepository = cryptoRepository;
         this.promotionRepository = promotionRepository;
         this.registrationCouponRepository = registrationCouponRepository;
         this.transactionRepository = transactionRepository;
         this.dsidBlacklistRepository = dsidBlacklistRepository;
+        this.shardedDsidBlacklist = shardedDsidBlacklist;
+        this.verificationResultCacheRepository = verificationResultCacheRepository;
+        this.cryptoExecutor = cryptoExecutor;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -84,7 +116,7 @@ public class ProviderService {
         var providerSecretKey = cryptoRepository.getProviderSecretKey();
         var incentiveSystem = cryptoRepository.getIncentiveSystem();
         // generate a join request
-        JoinRequest joinRequest = new JoinRequest(jsonConverter.deserialize(serializedJoinRequest), pp, providerPublicKey);
+        JoinRequest joinRequest = new JoinRequest(RepresentationCodec.decode(serializedJoinRequest), pp, providerPublicKey);
         // run Issue algorithm to obtain a join response
         ProviderKeyPair providerKeyPair = new ProviderKeyPair(providerSecretKey, providerPublicKey);
         JoinResponse joinResponse = incentiveSystem.generateJoinRequestResponse(promotion.getPromotionParameters(), providerKeyPair, joinRequest);
@@ -100,6 +132,7 @@ public class ProviderService {
             Promotion promotion = recreatePromotionFromRepresentation(serializedPromotion);
             promotionRepository.addPromotion(promotion);
         }
+        spendRelationCache.clear();
     }
 
     /**
@@ -118,6 +151,7 @@ public class ProviderService {
      */
     public void deleteAllPromotions() {
         promotionRepository.deleteAllPromotions();
+        spendRelationCache.clear();
     }
 
     public String registerUser(String serializedRegistrationCoupon) {
@@ -141,8 +175,8 @@ public class ProviderService {
         return jsonConverter.serialize(registrationToken.getRepresentation());
     }
 
-    public List<RegistrationCouponJSON> getRegistrationCoupons() {
-        return registrationCouponRepository.getAllCoupons().stream().map((coupon) ->
+    public List<RegistrationCouponJSON> getRegistrationCoupons(int page, int size) {
+        return registrationCouponRepository.getCoupons(page, size).stream().map((coupon) ->
                 new RegistrationCouponJSON(
                         coupon.getUserInfo(),
                         jsonConverter.serialize(coupon.getUserPublicKey().getRepresentation()),
@@ -153,78 +187,192 @@ public class ProviderService {
     }
 
     public BulkResultsProviderDto bulk(BulkRequestProviderDto bulkRequestProviderDto) {
-        var serializedEarnResults = bulkRequestProviderDto.getEarnRequests().stream()
-                .map(this::earn)
+        return bulk(bulkRequestProviderDto, RepresentationCodec.json());
+    }
+
+    /**
+     * Handles all earn and spend requests of a bulk request.
+     * Requests may be serialized in any format supported by {@link RepresentationCodec}.
+     *
+     * @param bulkRequestProviderDto the requests
+     * @param codec                  the codec used to serialize the results
+     * @return the serialized results
+     */
+    public BulkResultsProviderDto bulk(BulkRequestProviderDto bulkRequestProviderDto, RepresentationCodec codec) {
+        // Decode before starting any verification, such that a malformed request has no side effects
+        var spendRequests = bulkRequestProviderDto.getSpendRequests().stream()
+                .map(this::decodeSpendRequest)
                 .collect(Collectors.toList());
 
-        var serializedSpendResults = bulkRequestProviderDto.getSpendRequests().stream()
-                .map(this::spend)
+        // The earn requests are verified in one batch, which runs next to the spend requests
+        var earnResultsFuture = CompletableFuture.supplyAsync(() -> earn(bulkRequestProviderDto.getEarnRequests(), codec), cryptoExecutor);
+
+        // Spend requests with the same dsid are verified one after another in the order of the bulk request,
+        // so it is deterministic which of them reserves the dsid
+        var indicesByDsid = new LinkedHashMap<Zn.ZnElement, List<Integer>>();
+        for (int i = 0; i < spendRequests.size(); i++) {
+            indicesByDsid.computeIfAbsent(spendRequests.get(i).spendRequest.getDoubleSpendingId(), dsid -> new ArrayList<>()).add(i);
+        }
+        var spendResults = new SpendResultProviderDto[spendRequests.size()];
+        var aborted = new AtomicBoolean(false);
+        var spendFutures = indicesByDsid.values().stream()
+                .map(indices -> CompletableFuture.runAsync(() -> {
+                    for (int i : indices) {
+                        if (aborted.get()) {
+                            return;
+                        }
+                        spendResults[i] = spend(spendRequests.get(i), codec);
+                    }
+                }, cryptoExecutor))
                 .collect(Collectors.toList());
 
-        return new BulkResultsProviderDto(serializedEarnResults, serializedSpendResults);
+        try {
+            var serializedEarnResults = join(earnResultsFuture);
+            spendFutures.forEach(ProviderService::join);
+            return new BulkResultsProviderDto(serializedEarnResults, Arrays.asList(spendResults));
+        } catch (RuntimeException e) {
+            // Skip the spend requests that have not started yet and wait for the running ones,
+            // such that no verification of the failed bulk request outlives it
+            aborted.set(true);
+            CompletableFuture.allOf(spendFutures.toArray(CompletableFuture[]::new)).exceptionally(t -> null).join();
+            throw e;
+        }
     }
 
-    private EarnResultProviderDto earn(EarnRequestProviderDto earnRequestProviderDto) {
-        var promotion = promotionRepository.getPromotion(earnRequestProviderDto.getPromotionId())
-                .orElseThrow(() -> new IncentiveServiceException(String.format("Promotion with id %s not found!", earnRequestProviderDto.getPromotionId())));
-        var earnRequestEcdsa = new EarnProviderRequest(
-                jsonConverter.deserialize(earnRequestProviderDto.getSerializedEarnRequestECDSA()),
-                cryptoRepository.getPublicParameters()
-        );
-        var earnResult = cryptoRepository.getIncentiveSystem().generateEarnResponse(
-                earnRequestEcdsa,
-                promotion.getPromotionParameters(),
+    /**
+     * Waits for a future and rethrows its exception, such that failures surface as if they happened in this thread.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the Credit algorithm for all earn requests of a bulk request.
+     * The SPS-EQ signatures of all requests are verified in a single batch.
+     */
+    private List<EarnResultProviderDto> earn(List<EarnRequestProviderDto> earnRequestProviderDtos, RepresentationCodec codec) {
+        var preparedPromotions = new ArrayList<PreparedPromotion>(earnRequestProviderDtos.size());
+        var earnRequests = new ArrayList<EarnProviderRequest>(earnRequestProviderDtos.size());
+        for (EarnRequestProviderDto earnRequestProviderDto : earnRequestProviderDtos) {
+            var promotionEntry = promotionRepository.getEntry(earnRequestProviderDto.getPromotionId())
+                    .orElseThrow(() -> new IncentiveServiceException(String.format("Promotion with id %s not found!", earnRequestProviderDto.getPromotionId())));
+            preparedPromotions.add(promotionEntry.getPreparedPromotion());
+            earnRequests.add(new EarnProviderRequest(
+                    RepresentationCodec.decode(earnRequestProviderDto.getSerializedEarnRequestECDSA()),
+                    cryptoRepository.getPublicParameters()
+            ));
+        }
+        var earnResults = cryptoRepository.getIncentiveSystem().generatePreparedEarnResponses(
+                earnRequests,
+                preparedPromotions,
                 cryptoRepository.getProviderKeyPair(),
                 transactionRepository,
-                storePublicKey -> true
+                storePublicKey -> true,
+                verificationResultCacheRepository.getEarnResultCache()
         );
-        return new EarnResultProviderDto(promotion.getPromotionParameters().getPromotionId(), jsonConverter.serialize(earnResult.getRepresentation()));
+        var results = new ArrayList<EarnResultProviderDto>(earnResults.size());
+        for (int i = 0; i < earnResults.size(); i++) {
+            results.add(new EarnResultProviderDto(preparedPromotions.get(i).getPromotionParameters().getPromotionId(), codec.encode(earnResults.get(i).getRepresentation())));
+        }
+        return results;
     }
 
-    private SpendResultProviderDto spend(SpendRequestProviderDto spendRequestProviderDto) {
-        var promotion = promotionRepository.getPromotion(spendRequestProviderDto.getPromotionId())
+    private DecodedSpendRequest decodeSpendRequest(SpendRequestProviderDto spendRequestProviderDto) {
+        var promotionEntry = promotionRepository.getEntry(spendRequestProviderDto.getPromotionId())
                 .orElseThrow(() -> new IncentiveServiceException(String.format("Promotion with id %s not found!", spendRequestProviderDto.getPromotionId())));
-        var tokenUpdate = promotion.getZkpTokenUpdates().stream()
-                .filter(x -> x.getTokenUpdateId().equals(spendRequestProviderDto.getTokenUpdateId()))
-                .findAny()
+        var promotion = promotionEntry.getPromotion();
+        var tokenUpdate = promotionEntry.getTokenUpdate(spendRequestProviderDto.getTokenUpdateId())
                 .orElseThrow(() -> new IncentiveServiceException(String.format("Token update with id %s for promotion of id %s not found!", spendRequestProviderDto.getTokenUpdateId(), spendRequestProviderDto.getPromotionId())));
-        ZkpTokenUpdateMetadata zkpTokenUpdateMetadata = (ZkpTokenUpdateMetadata) ((RepresentableRepresentation) jsonConverter.deserialize(spendRequestProviderDto.getSerializedTokenUpdateMetadata())).recreateRepresentable();
         Vector<BigInteger> basketPoints = new Vector<>(spendRequestProviderDto.getBasketPoints());
-        var tree = tokenUpdate.generateRelationTree(basketPoints, zkpTokenUpdateMetadata);
-
-        var context = ContextManager.computeContext(spendRequestProviderDto.getTokenUpdateId(), basketPoints, zkpTokenUpdateMetadata);
+        var spendRelation = spendRelationCache.get(tokenUpdate, basketPoints, spendRequestProviderDto.getSerializedTokenUpdateMetadata());
+        var tree = spendRelation.getTree();
+        var context = spendRelation.getContext();
         var spendRequest = new SpendProviderRequest(
-                jsonConverter.deserialize(spendRequestProviderDto.getSerializedSpendRequest()),
+                RepresentationCodec.decode(spendRequestProviderDto.getSerializedSpendRequest()),
                 cryptoRepository.getPublicParameters(),
                 promotion.getPromotionParameters(),
                 spendRequestProviderDto.getBasketId(),
                 tree,
                 cryptoRepository.getProviderPublicKey(),
-                context
+                context,
+                cryptoRepository.getIncentiveSystem().getSpendDeductZkpCache(),
+                true
         );
+        return new DecodedSpendRequest(promotionEntry.getPreparedPromotion(), spendRequest, spendRequestProviderDto.getBasketId(), tree, context);
+    }
+
+    private SpendResultProviderDto spend(DecodedSpendRequest decoded, RepresentationCodec codec) {
         SpendProviderResponse spendResult;
         try {
             spendResult = cryptoRepository.getIncentiveSystem().verifySpendRequestAndIssueNewToken(
                     cryptoRepository.getProviderKeyPair(),
-                    promotion.getPromotionParameters(),
-                    spendRequest,
-                    spendRequestProviderDto.getBasketId(),
-                    tree,
-                    context,
+                    decoded.preparedPromotion,
+                    decoded.spendRequest,
+                    decoded.basketId,
+                    decoded.tree,
+                    decoded.context,
                     s -> true,
-                    dsidBlacklistRepository
+                    shardedDsidBlacklist,
+                    verificationResultCacheRepository.getSpendResultCache()
             );
         } catch (ProviderDoubleSpendingDetectedException e) {
             throw new OnlineDoubleSpendingException();
         }
-        return new SpendResultProviderDto(promotion.getPromotionParameters().getPromotionId(), jsonConverter.serialize(spendResult.getRepresentation()));
+        return new SpendResultProviderDto(decoded.preparedPromotion.getPromotionParameters().getPromotionId(), codec.encode(spendResult.getRepresentation()));
+    }
+
+    /**
+     * A spend request of a bulk request together with everything needed to verify it.
+     */
+    private static class DecodedSpendRequest {
+        private final PreparedPromotion preparedPromotion;
+        private final SpendProviderRequest spendRequest;
+        private final UUID basketId;
+        private final SpendDeductTree tree;
+        private final UniqueByteRepresentable context;
+
+        DecodedSpendRequest(PreparedPromotion preparedPromotion, SpendProviderRequest spendRequest, UUID basketId, SpendDeductTree tree, UniqueByteRepresentable context) {
+            this.preparedPromotion = preparedPromotion;
+            this.spendRequest = spendRequest;
+            this.basketId = basketId;
+            this.tree = tree;
+            this.context = context;
+        }
+    }
+
+    /**
+     * Executes a blacklist call of another provider node on the local shard.
+     *
+     * @param operation             reserve, contains or add
+     * @param dsidBlacklistEntryDto the (dsid, gamma) tuple
+     * @return the result of the call, true for add
+     */
+    public boolean dsidBlacklistShardCall(String operation, DsidBlacklistEntryDto dsidBlacklistEntryDto) {
+        var zn = cryptoRepository.getPublicParameters().getBg().getZn();
+        var dsid = dsidBlacklistEntryDto.restoreDsid(zn);
+        var gamma = dsidBlacklistEntryDto.restoreGamma(zn);
+        switch (operation) {
+            case "reserve":
+                return dsidBlacklistRepository.checkAndReserve(dsid, gamma);
+            case "contains":
+                return dsidBlacklistRepository.containsDsidWithDifferentGamma(dsid, gamma);
+            case "add":
+                dsidBlacklistRepository.addEntryIfDsidNotPresent(dsid, gamma);
+                return true;
+            default:
+                throw new IncentiveServiceException("Unknown blacklist operation " + operation);
+        }
     }
 
     public List<UUID> txDataBaskets() {
-        return transactionRepository.getSpendTransactionDataList().values().stream()
-                .flatMap(list -> list.stream().map(SpendTransactionData::getBasketId))
-                .distinct()
-                .collect(Collectors.toList());
+        return transactionRepository.getSpendTransactionBasketIds();
     }
 
     public List<DSDetectedEntryDto> doubleSpendingDetected() {
@@ -235,26 +383,168 @@ public class ProviderService {
                 }).collect(Collectors.toList());
     }
 
+    /**
+     * Verifies and adds a single spend transaction data record synced from a store.
+     *
+     * @throws IncentiveServiceException if the record is rejected
+     */
     public void addSpendTransactionData(EnrichedSpendTransactionDataDto enrichedSpendTransactionDataDto) {
-        var serializedSpendData = enrichedSpendTransactionDataDto.getSerializedSpendTransactionData();
-        var tokenUpdateId = enrichedSpendTransactionDataDto.getTokenUpdateId();
-        var promotionId = enrichedSpendTransactionDataDto.getPromotionId();
-        var serializedMetadata = enrichedSpendTransactionDataDto.getSerializedMetadata();
-        var basketPoints = enrichedSpendTransactionDataDto.getBasketPoints();
-
-        var promotion = promotionRepository.getPromotion(promotionId)
-                .orElseThrow(() -> new IncentiveServiceException(String.format("Promotion with id %s not found!", enrichedSpendTransactionDataDto.getPromotionId())));
-        var tokenUpdate = promotion.getZkpTokenUpdates().stream()
-                .filter(x -> x.getTokenUpdateId().equals(enrichedSpendTransactionDataDto.getTokenUpdateId()))
-                .findAny()
-                .orElseThrow(() -> new IncentiveServiceException(String.format("Token update with id %s for promotion of id %s not found!", tokenUpdateId, promotionId)));
-        ZkpTokenUpdateMetadata zkpTokenUpdateMetadata = (ZkpTokenUpdateMetadata) ((RepresentableRepresentation) jsonConverter.deserialize(serializedMetadata)).recreateRepresentable();
-        Vector<BigInteger> basketPointVector = new Vector<>(basketPoints);
-        var tree = tokenUpdate.generateRelationTree(basketPointVector, zkpTokenUpdateMetadata);
-
-        var context = ContextManager.computeContext(tokenUpdateId, basketPointVector, zkpTokenUpdateMetadata);
-
-        var spendData = new SpendTransactionData(jsonConverter.deserialize(serializedSpendData), cryptoRepository.getPublicParameters(), promotion.getPromotionParameters(), tree, cryptoRepository.getProviderPublicKey(), context);
-        transactionRepository.addSpendData(spendData);
+        var result = addSpendTransactionData(List.of(enrichedSpendTransactionDataDto));
+        if (!result.getRejected().isEmpty()) {
+            throw new IncentiveServiceException(result.getRejected().get(0).getReason());
+        }
+    }
+
+    /**
+     * Verifies and adds spend transaction data synced from the stores.
+     * Transaction data with the same promotion, token update, basket points and metadata share the spend-deduct tree
+     * and context, hence their proofs are verified together. Records that are incomplete, cannot be decoded or are
+     * invalid are rejected one by one, all other records are added.
+     *
+     * @return the number of added records and the rejected records
+     */
+    public SpendTransactionDataResultDto addSpendTransactionData(List<EnrichedSpendTransactionDataDto> enrichedSpendTransactionDataDtos) {
+        var rejected = new ArrayList<SpendTransactionDataResultDto.Rejection>();
+        var groups = new LinkedHashMap<List<Object>, List<Integer>>();
+        for (int i = 0; i < enrichedSpendTransactionDataDtos.size(); i++) {
+            var dto = enrichedSpendTransactionDataDtos.get(i);
+            var missingField = findMissingField(dto);
+            if (missingField.isPresent()) {
+                rejected.add(new SpendTransactionDataResultDto.Rejection(i, missingField.get() + " is missing"));
+                continue;
+            }
+            var groupKey = List.<Object>of(dto.getPromotionId(), dto.getTokenUpdateId(), dto.getBasketPoints(), dto.getSerializedMetadata());
+            groups.computeIfAbsent(groupKey, key -> new ArrayList<>()).add(i);
+        }
+
+        var verifiedSpendData = new ArrayList<SpendTransactionData>(enrichedSpendTransactionDataDtos.size());
+        for (var indices : groups.values()) {
+            var first = enrichedSpendTransactionDataDtos.get(indices.get(0));
+            var promotionId = first.getPromotionId();
+            var promotion = promotionRepository.getPromotion(promotionId);
+            var tokenUpdate = promotionRepository.getTokenUpdate(promotionId, first.getTokenUpdateId());
+            if (promotion.isEmpty() || tokenUpdate.isEmpty()) {
+                var reason = String.format("Token update with id %s for promotion of id %s not found!", first.getTokenUpdateId(), promotionId);
+                indices.forEach(i -> rejected.add(new SpendTransactionDataResultDto.Rejection(i, reason)));
+                continue;
+            }
+            var promotionParameters = promotion.get().getPromotionParameters();
+            SpendRelationCache.SpendRelation spendRelation;
+            try {
+                spendRelation = spendRelationCache.get(tokenUpdate.get(), new Vector<>(first.getBasketPoints()), first.getSerializedMetadata());
+            } catch (RuntimeException e) {
+                var reason = "Invalid token update metadata: " + e.getMessage();
+                indices.forEach(i -> rejected.add(new SpendTransactionDataResultDto.Rejection(i, reason)));
+                continue;
+            }
+            var tree = spendRelation.getTree();
+            var context = spendRelation.getContext();
+
+            var spendData = new ArrayList<SpendTransactionData>(indices.size());
+            var spendDataIndices = new ArrayList<Integer>(indices.size());
+            for (int i : indices) {
+                try {
+                    spendData.add(new SpendTransactionData(
+                            RepresentationCodec.decode(enrichedSpendTransactionDataDtos.get(i).getSerializedSpendTransactionData()),
+                            cryptoRepository.getPublicParameters(),
+                            promotionParameters,
+                            tree,
+                            cryptoRepository.getProviderPublicKey(),
+                            context,
+                            cryptoRepository.getIncentiveSystem().getSpendDeductZkpCache()));
+                    spendDataIndices.add(i);
+                } catch (RuntimeException e) {
+                    rejected.add(new SpendTransactionDataResultDto.Rejection(i, "Could not decode spend transaction data: " + e.getMessage()));
+                }
+            }
+            var invalid = new HashSet<>(cryptoRepository.getIncentiveSystem().verifySpendTransactionData(
+                    spendData, promotionParameters, cryptoRepository.getProviderPublicKey(), tree, context, cryptoExecutor));
+            for (int j = 0; j < spendData.size(); j++) {
+                if (invalid.contains(j)) {
+                    rejected.add(new SpendTransactionDataResultDto.Rejection(spendDataIndices.get(j), "Invalid spend transaction data"));
+                } else {
+                    verifiedSpendData.add(spendData.get(j));
+                }
+            }
+        }
+
+        transactionRepository.addSpendData(verifiedSpendData);
+        rejected.sort(Comparator.comparingInt(SpendTransactionDataResultDto.Rejection::getIndex));
+        return new SpendTransactionDataResultDto(verifiedSpendData.size(), rejected);
+    }
+
+    /**
+     * Returns the name of the first field of the record that is not set, if any.
+     */
+    private static Optional<String> findMissingField(EnrichedSpendTransactionDataDto dto) {
+        if (dto == null) {
+            return Optional.of("Record");
+        } else if (dto.getSerializedSpendTransactionData() == null) {
+            return Optional.of("serializedSpendTransactionData");
+        } else if (dto.getPromotionId() == null) {
+            return Optional.of("promotionId");
+        } else if (dto.getTokenUpdateId() == null) {
+            return Optional.of("tokenUpdateId");
+        } else if (dto.getSerializedMetadata() == null) {
+            return Optional.of("serializedMetadata");
+        } else if (dto.getBasketPoints() == null || dto.getBasketPoints().contains(null)) {
+            return Optional.of("basketPoints");
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Verifies and adds spend transaction data from a stream of newline-delimited JSON
+     * {@link EnrichedSpendTransactionDataDto} objects.
+     * The records are read and added in chunks, so the stream can be longer than what fits into memory. Like for
+     * {@link #addSpendTransactionData(List)}, invalid records are rejected one by one and all other records are added,
+     * including lines that are not valid JSON. Rejections are identified by their line in the stream, starting at 0.
+     *
+     * @param ndjson    the stream
+     * @param chunkSize the number of records that are verified and added together
+     * @return the number of added records and the rejected records
+     */
+    public SpendTransactionDataResultDto addSpendTransactionData(InputStream ndjson, int chunkSize) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8));
+        var chunk = new ArrayList<EnrichedSpendTransactionDataDto>(chunkSize);
+        var chunkLines = new ArrayList<Integer>(chunkSize);
+        var rejected = new ArrayList<SpendTransactionDataResultDto.Rejection>();
+        int added = 0;
+        int lineNumber = -1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                chunk.add(objectMapper.readValue(line, EnrichedSpendTransactionDataDto.class));
+                chunkLines.add(lineNumber);
+            } catch (JsonProcessingException e) {
+                rejected.add(new SpendTransactionDataResultDto.Rejection(lineNumber, "Malformed JSON: " + e.getOriginalMessage()));
+                continue;
+            }
+            if (chunk.size() == chunkSize) {
+                added += addSpendTransactionDataChunk(chunk, chunkLines, rejected);
+                chunk.clear();
+                chunkLines.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            added += addSpendTransactionDataChunk(chunk, chunkLines, rejected);
+        }
+        rejected.sort(Comparator.comparingInt(SpendTransactionDataResultDto.Rejection::getIndex));
+        return new SpendTransactionDataResultDto(added, rejected);
+    }
+
+    /**
+     * Adds a chunk of a stream and collects its rejections, translated from indices in the chunk to lines in the stream.
+     */
+    private int addSpendTransactionDataChunk(List<EnrichedSpendTransactionDataDto> chunk,
+                                             List<Integer> chunkLines,
+                                             List<SpendTransactionDataResultDto.Rejection> rejected) {
+        var result = addSpendTransactionData(chunk);
+        result.getRejected().forEach(rejection -> rejected.add(new SpendTransactionDataResultDto.Rejection(chunkLines.get(rejection.getIndex()), rejection.getReason())));
+        return result.getAdded();
     }
 }
@@ -1,9 +1,60 @@
 package org.cryptimeleon.incentive.services.provider;
 
+import org.cryptimeleon.incentive.services.provider.repository.DsidBlacklistRepository;
+import org.cryptimeleon.incentive.services.provider.repository.HttpDsidBlacklistShardTransport;
+import org.cryptimeleon.incentive.services.provider.repository.ShardedDsidBlacklist;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
 @Configuration
 @EnableScheduling
 public class SpringConfig {
+
+    /**
+     * The dsid blacklist used for spends. It is sharded across the provider nodes listed in provider.dsid-blacklist.nodes
+     * (comma-separated base urls, provider.dsid-blacklist.self is the url of this node). Without a node list, all dsids
+     * are kept in the local {@link DsidBlacklistRepository}.
+     */
+    @Bean
+    public ShardedDsidBlacklist shardedDsidBlacklist(DsidBlacklistRepository dsidBlacklistRepository,
+                                                     @Value("${provider.dsid-blacklist.nodes:}") String nodes,
+                                                     @Value("${provider.dsid-blacklist.self:}") String self,
+                                                     @Value("${incentive-service.provider-secret}") String providerSecret) {
+        List<String> nodeList = Arrays.stream(nodes.split(","))
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .collect(Collectors.toList());
+        return new ShardedDsidBlacklist(nodeList, self, dsidBlacklistRepository, new HttpDsidBlacklistShardTransport(providerSecret));
+    }
+
+    /**
+     * Bounded executor for the verification of the earn and spend requests of bulk requests.
+     * The pool has provider.crypto-executor.threads threads (default: one per core). Once its queue is full, the
+     * submitting request thread runs the task itself, which throttles new requests instead of queueing without bound.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService cryptoExecutor(@Value("${provider.crypto-executor.threads:0}") int threads,
+                                          @Value("${provider.crypto-executor.queue-size:1024}") int queueSize) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        var threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    var thread = new Thread(runnable, "provider-crypto-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
 }
@@ -0,0 +1,36 @@
+package org.cryptimeleon.incentive.services.provider.api;
+
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+
+import java.math.BigInteger;
+
+/**
+ * A (dsid, gamma) tuple that is sent to the provider node that owns the dsid, see ShardedDsidBlacklist.
+ */
+@SuppressWarnings("unused")
+public class DsidBlacklistEntryDto {
+    private String dsid;
+    private String gamma;
+
+    public DsidBlacklistEntryDto() {}
+    public DsidBlacklistEntryDto(Zn.ZnElement dsid, Zn.ZnElement gamma) {
+        this.dsid = dsid.asInteger().toString();
+        this.gamma = gamma.asInteger().toString();
+    }
+
+    public String getDsid() {
+        return dsid;
+    }
+
+    public String getGamma() {
+        return gamma;
+    }
+
+    public Zn.ZnElement restoreDsid(Zn zn) {
+        return zn.createZnElement(new BigInteger(dsid));
+    }
+
+    public Zn.ZnElement restoreGamma(Zn zn) {
+        return zn.createZnElement(new BigInteger(gamma));
+    }
+}
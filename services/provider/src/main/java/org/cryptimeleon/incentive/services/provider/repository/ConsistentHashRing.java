@@ -0,0 +1,54 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * Assigns keys to nodes by consistent hashing.
+ * <p>
+ * Every node is placed at several points (virtual nodes) of a ring of 64-bit hashes, and a key belongs to the first node
+ * at or after the hash of the key. Adding or removing a node thus only moves the keys of its neighbouring ring segments.
+ */
+class ConsistentHashRing {
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param nodes        the names of the nodes, must not be empty
+     * @param virtualNodes the number of points per node, more points spread the keys more evenly
+     */
+    ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Ring needs at least one node");
+        }
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash((node + "#" + i).getBytes(StandardCharsets.UTF_8)), node);
+            }
+        }
+    }
+
+    /**
+     * Returns the node that owns a key.
+     *
+     * @param key the key, e.g. the unique byte representation of a dsid
+     * @return the name of the owning node
+     */
+    String ownerOf(byte[] key) {
+        var entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long hash(byte[] bytes) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(bytes)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
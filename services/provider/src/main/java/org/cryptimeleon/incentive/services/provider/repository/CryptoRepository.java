@@ -69,8 +69,9 @@ public class CryptoRepository {
                 String serializedPublicParameters = infoClient.querySerializedPublicParameters().block(Duration.ofSeconds(5));
                 String serializedProviderPublicKey = infoClient.querySerializedProviderPublicKey().block(Duration.ofSeconds(5));
                 String serializedProviderSecretKey = infoClient.querySerializedProviderSecretKey(sharedSecret).block(Duration.ofSeconds(5));
-                this.publicParameters = new IncentivePublicParameters(jsonConverter.deserialize(serializedPublicParameters));
-                this.providerPublicKey = new ProviderPublicKey(jsonConverter.deserialize(serializedProviderPublicKey), publicParameters);
+                // Long-running service, fixed-base tables pay off after a few requests
+                this.publicParameters = new IncentivePublicParameters(jsonConverter.deserialize(serializedPublicParameters), true);
+                this.providerPublicKey = new ProviderPublicKey(jsonConverter.deserialize(serializedProviderPublicKey), publicParameters, true);
                 this.providerSecretKey = new ProviderSecretKey(jsonConverter.deserialize(serializedProviderSecretKey), publicParameters);
                 this.incentiveSystem = new IncentiveSystem(publicParameters);
                 break;
@@ -2,24 +2,72 @@ package org.cryptimeleon.incentive.services.provider.repository;
 
 import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
 import org.cryptimeleon.math.structures.rings.zn.Zn;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
-import java.util.HashMap;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Store (double-spending-id, hash) tuples to prevent double-spending attacks but enable retries (same hash).
+ * Backed by a concurrent map, so spend requests can be processed in parallel.
+ * If provider.dsid-blacklist.file is set, the tuples are instead persisted in a {@link MappedDsidBlacklist}.
  */
 @Repository
 public class DsidBlacklistRepository implements IDsidBlacklistHandler {
-    final HashMap<Zn.ZnElement, Zn.ZnElement> dsMap = new HashMap<>();
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DsidBlacklistRepository.class);
+    final ConcurrentHashMap<Zn.ZnElement, Zn.ZnElement> dsMap = new ConcurrentHashMap<>();
+    private final MappedDsidBlacklist mappedBlacklist; // null if the blacklist is kept in memory
+
+    public DsidBlacklistRepository() {
+        this.mappedBlacklist = null;
+    }
+
+    @Autowired
+    public DsidBlacklistRepository(@Value("${provider.dsid-blacklist.file:}") String file,
+                                   @Value("${provider.dsid-blacklist.capacity:16777216}") long capacity) throws IOException {
+        if (file.isEmpty()) {
+            this.mappedBlacklist = null;
+        } else {
+            this.mappedBlacklist = new MappedDsidBlacklist(Path.of(file), capacity);
+            log.info("Opened dsid blacklist {} with {} of {} slots used", file, mappedBlacklist.size(), mappedBlacklist.getCapacity());
+        }
+    }
 
     @Override
     public boolean containsDsidWithDifferentGamma(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
-        return dsMap.containsKey(doubleSpendingId) && !dsMap.get(doubleSpendingId).equals(gamma);
+        if (mappedBlacklist != null) {
+            return mappedBlacklist.containsDsidWithDifferentGamma(doubleSpendingId, gamma);
+        }
+        var storedGamma = dsMap.get(doubleSpendingId);
+        return storedGamma != null && !storedGamma.equals(gamma);
     }
 
     @Override
     public void addEntryIfDsidNotPresent(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        if (mappedBlacklist != null) {
+            mappedBlacklist.addEntryIfDsidNotPresent(doubleSpendingId, gamma);
+            return;
+        }
         dsMap.putIfAbsent(doubleSpendingId, gamma);
     }
+
+    @Override
+    public boolean checkAndReserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        if (mappedBlacklist != null) {
+            return mappedBlacklist.checkAndReserve(doubleSpendingId, gamma);
+        }
+        var storedGamma = dsMap.putIfAbsent(doubleSpendingId, gamma);
+        return storedGamma == null || storedGamma.equals(gamma);
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (mappedBlacklist != null) {
+            mappedBlacklist.close();
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
+
+/**
+ * Connects a {@link ShardedDsidBlacklist} to the blacklist shards of other provider nodes.
+ */
+public interface DsidBlacklistShardTransport {
+    /**
+     * Returns a handler whose calls are executed by the blacklist shard of a node.
+     *
+     * @param node the name of the node, as listed in the node list of the sharded blacklist
+     * @return the remote handler
+     */
+    IDsidBlacklistHandler connect(String node);
+}
@@ -0,0 +1,60 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
+import org.cryptimeleon.incentive.services.provider.api.DsidBlacklistEntryDto;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+
+/**
+ * Transport that calls the /dsid-blacklist endpoints of other provider nodes. Node names are their base urls.
+ */
+public class HttpDsidBlacklistShardTransport implements DsidBlacklistShardTransport {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private final String providerSecret;
+
+    /**
+     * Constructor.
+     *
+     * @param providerSecret the shared secret that authorizes calls between provider nodes
+     */
+    public HttpDsidBlacklistShardTransport(String providerSecret) {
+        this.providerSecret = providerSecret;
+    }
+
+    @Override
+    public IDsidBlacklistHandler connect(String node) {
+        var webClient = WebClient.builder().baseUrl(node).build();
+        return new IDsidBlacklistHandler() {
+            @Override
+            public boolean containsDsidWithDifferentGamma(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+                return call("contains", doubleSpendingId, gamma);
+            }
+
+            @Override
+            public void addEntryIfDsidNotPresent(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+                call("add", doubleSpendingId, gamma);
+            }
+
+            @Override
+            public boolean checkAndReserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+                return call("reserve", doubleSpendingId, gamma);
+            }
+
+            private boolean call(String operation, Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+                Boolean result = webClient.post()
+                        .uri("/dsid-blacklist/{operation}", operation)
+                        .header("provider-secret", providerSecret)
+                        .bodyValue(new DsidBlacklistEntryDto(doubleSpendingId, gamma))
+                        .retrieve()
+                        .bodyToMono(Boolean.class)
+                        .block(TIMEOUT);
+                if (result == null) {
+                    throw new IllegalStateException("No response from blacklist node " + node);
+                }
+                return result;
+            }
+        };
+    }
+}
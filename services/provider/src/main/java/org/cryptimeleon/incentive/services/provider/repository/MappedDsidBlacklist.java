@@ -0,0 +1,369 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dsid blacklist in a memory-mapped file, for blacklists that are too large for the heap and must survive restarts.
+ * <p>
+ * Entries are stored in an open-addressing hash table with linear probing. Every slot holds 128-bit fingerprints
+ * (truncated SHA-256) of the dsid and of gamma, so all entries have a fixed width of 32 bytes, independent of the
+ * group. A zero first word marks an empty slot. The table has a fixed capacity that is chosen when the file
+ * is created, inserting into a table that is filled beyond {@value #MAX_LOAD_FACTOR} fails.
+ * <p>
+ * Lookups do not lock. An insert locks only the stripe of the empty slot it claims, writes gamma and the second word
+ * and then publishes the entry by writing the first word with release semantics. Inserts of different dsids thus only
+ * contend if they claim slots of the same stripe.
+ * <p>
+ * A Bloom filter on the heap is checked first, so looking up a dsid that was never seen (the common case) does not
+ * touch the mapped pages. It needs one byte per slot. {@link #close()} persists it next to the table and marks the
+ * table as cleanly closed, so the next start loads it sequentially. Only after a crash is it rebuilt by a scan of the
+ * table. Written entries are in the page cache immediately and reach the disk at the latest on {@link #flush()} or
+ * {@link #close()}.
+ */
+public class MappedDsidBlacklist implements IDsidBlacklistHandler, Closeable {
+    private static final int MAGIC = 0x44534944; // "DSID"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int CLEAN_OFFSET = 24; // 1 if the table was closed and the persisted Bloom filter matches it
+    private static final int SLOT_SIZE = 32;
+    private static final int SLOTS_PER_REGION_BITS = 25; // 1 GiB per mapped region, mappings are limited to 2 GiB
+    private static final long SLOTS_PER_REGION = 1L << SLOTS_PER_REGION_BITS;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    private static final int BLOOM_BITS_PER_SLOT = 8;
+    private static final int BLOOM_HASHES = 5;
+    private static final int BLOOM_IO_BUFFER_SIZE = 1 << 16;
+    private static final int LOCK_STRIPES = 64;
+    // Mapped buffers are big-endian, slots are 8-byte aligned as required for atomic access
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] regions;
+    private final long capacity;
+    private final Path bloomFilterFile;
+    private final AtomicLongArray bloomFilter;
+    private final long bloomMask;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Opens the blacklist in the given file, or creates it if the file does not exist yet.
+     * The Bloom filter is kept in a file with the suffix ".bloom" next to it.
+     *
+     * @param file     the file of the table
+     * @param capacity the number of slots of a new table, rounded up to a power of two. Ignored for existing files
+     * @throws IOException if the file cannot be opened or is not a dsid blacklist
+     */
+    public MappedDsidBlacklist(Path file, long capacity) throws IOException {
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+        if (exists) {
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException("File " + file + " is not a dsid blacklist of version " + VERSION);
+            }
+            this.capacity = header.getLong(CAPACITY_OFFSET);
+        } else {
+            this.capacity = Long.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putLong(CAPACITY_OFFSET, this.capacity);
+            header.putLong(SIZE_OFFSET, 0);
+        }
+
+        int numRegions = (int) ((this.capacity + SLOTS_PER_REGION - 1) / SLOTS_PER_REGION);
+        this.regions = new MappedByteBuffer[numRegions];
+        for (int i = 0; i < numRegions; i++) {
+            long slots = Math.min(SLOTS_PER_REGION, this.capacity - i * SLOTS_PER_REGION);
+            regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * SLOTS_PER_REGION * SLOT_SIZE, slots * SLOT_SIZE);
+        }
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+
+        long bloomBits = this.capacity * BLOOM_BITS_PER_SLOT;
+        this.bloomFilterFile = file.resolveSibling(file.getFileName() + ".bloom");
+        this.bloomFilter = new AtomicLongArray((int) Math.max(bloomBits / Long.SIZE, 1));
+        this.bloomMask = bloomBits - 1;
+        if (exists) {
+            if (header.getInt(CLEAN_OFFSET) == 1 && loadBloomFilter()) {
+                size.set(header.getLong(SIZE_OFFSET));
+            } else {
+                rebuildBloomFilter();
+            }
+        }
+        // Until the next close, a crash leaves the persisted Bloom filter outdated
+        header.putInt(CLEAN_OFFSET, 0);
+        header.force();
+    }
+
+    @Override
+    public boolean containsDsidWithDifferentGamma(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        var dsid = fingerprint(doubleSpendingId.getUniqueByteRepresentation());
+        if (!mightContain(dsid)) {
+            return false;
+        }
+
+        var g = fingerprint(gamma.getUniqueByteRepresentation());
+        long slot = findSlot(dsid, homeSlot(dsid));
+        return !isEmpty(slot) && !hasGamma(slot, g);
+    }
+
+    @Override
+    public void addEntryIfDsidNotPresent(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        checkAndReserve(doubleSpendingId, gamma);
+    }
+
+    @Override
+    public boolean checkAndReserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        var dsid = fingerprint(doubleSpendingId.getUniqueByteRepresentation());
+        var g = fingerprint(gamma.getUniqueByteRepresentation());
+
+        long slot = homeSlot(dsid);
+        while (true) {
+            slot = findSlot(dsid, slot);
+            if (!isEmpty(slot)) {
+                return hasGamma(slot, g);
+            }
+
+            var stripe = stripes[(int) (slot & (LOCK_STRIPES - 1))];
+            stripe.lock();
+            try {
+                if (isEmpty(slot)) {
+                    if (size.incrementAndGet() > capacity * MAX_LOAD_FACTOR) {
+                        size.decrementAndGet();
+                        throw new IllegalStateException("Dsid blacklist is full, capacity " + capacity);
+                    }
+
+                    // Write gamma and the Bloom filter before the first word, which publishes the entry
+                    var region = regions[(int) (slot >>> SLOTS_PER_REGION_BITS)];
+                    int offset = slotOffset(slot);
+                    region.putLong(offset + 16, g[0]);
+                    region.putLong(offset + 24, g[1]);
+                    region.putLong(offset + 8, dsid[1]);
+                    addToBloomFilter(dsid);
+                    LONG_VIEW.setRelease(region, offset, dsid[0]);
+                    return true;
+                }
+            } finally {
+                stripe.unlock();
+            }
+            // Another insert claimed the slot in the meantime, it might have been the same dsid, so probe it again
+        }
+    }
+
+    public long size() {
+        return size.get();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes all changes to the disk.
+     */
+    public void flush() {
+        for (var region : regions) {
+            region.force();
+        }
+        header.putLong(SIZE_OFFSET, size.get());
+        header.force();
+    }
+
+    /**
+     * Writes all changes and the Bloom filter to the disk and marks the table as cleanly closed.
+     */
+    @Override
+    public void close() throws IOException {
+        // Block all inserts, such that the persisted Bloom filter matches the table
+        for (var stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            flush();
+            saveBloomFilter();
+            header.putInt(CLEAN_OFFSET, 1);
+            header.force();
+            channel.close();
+        } finally {
+            for (var stripe : stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    private long homeSlot(long[] dsid) {
+        return dsid[1] & (capacity - 1);
+    }
+
+    /**
+     * Returns the slot that holds the dsid, or the first empty slot from the given slot on, where it would be inserted.
+     */
+    private long findSlot(long[] dsid, long slot) {
+        while (!isEmpty(slot)) {
+            var region = regions[(int) (slot >>> SLOTS_PER_REGION_BITS)];
+            int offset = slotOffset(slot);
+            if (region.getLong(offset) == dsid[0] && region.getLong(offset + 8) == dsid[1]) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return slot;
+    }
+
+    /**
+     * Reads the first word of the slot with acquire semantics, all other words of an occupied slot are visible after.
+     */
+    private boolean isEmpty(long slot) {
+        var region = regions[(int) (slot >>> SLOTS_PER_REGION_BITS)];
+        return (long) LONG_VIEW.getAcquire(region, slotOffset(slot)) == 0;
+    }
+
+    private boolean hasGamma(long slot, long[] gamma) {
+        var region = regions[(int) (slot >>> SLOTS_PER_REGION_BITS)];
+        int offset = slotOffset(slot);
+        return region.getLong(offset + 16) == gamma[0] && region.getLong(offset + 24) == gamma[1];
+    }
+
+    private static int slotOffset(long slot) {
+        return (int) ((slot & (SLOTS_PER_REGION - 1)) * SLOT_SIZE);
+    }
+
+    private void rebuildBloomFilter() {
+        long count = 0;
+        for (long slot = 0; slot < capacity; slot++) {
+            if (!isEmpty(slot)) {
+                var region = regions[(int) (slot >>> SLOTS_PER_REGION_BITS)];
+                int offset = slotOffset(slot);
+                addToBloomFilter(new long[]{region.getLong(offset), region.getLong(offset + 8)});
+                count++;
+            }
+        }
+        // The table is the source of truth, the header might be outdated after a crash
+        size.set(count);
+        header.putLong(SIZE_OFFSET, count);
+    }
+
+    /**
+     * Loads the Bloom filter persisted by {@link #close()}.
+     *
+     * @return false if there is no Bloom filter of the right size
+     */
+    private boolean loadBloomFilter() throws IOException {
+        long bytes = bloomFilter.length() * (long) Long.BYTES;
+        if (!Files.exists(bloomFilterFile) || Files.size(bloomFilterFile) != bytes) {
+            return false;
+        }
+        try (var in = FileChannel.open(bloomFilterFile, StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(BLOOM_IO_BUFFER_SIZE);
+            int index = 0;
+            while (index < bloomFilter.length()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), (bloomFilter.length() - index) * (long) Long.BYTES));
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    bloomFilter.set(index++, buffer.getLong());
+                }
+            }
+        }
+        return true;
+    }
+
+    private void saveBloomFilter() throws IOException {
+        var tempFile = bloomFilterFile.resolveSibling(bloomFilterFile.getFileName() + ".tmp");
+        try (var out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.allocate(BLOOM_IO_BUFFER_SIZE);
+            for (int index = 0; index < bloomFilter.length(); index++) {
+                buffer.putLong(bloomFilter.get(index));
+                if (!buffer.hasRemaining() || index == bloomFilter.length() - 1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            out.force(true);
+        }
+        Files.move(tempFile, bloomFilterFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean mightContain(long[] dsid) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = bloomBit(dsid, i);
+            if ((bloomFilter.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToBloomFilter(long[] dsid) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = bloomBit(dsid, i);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word;
+            do {
+                word = bloomFilter.get(index);
+            } while ((word & mask) == 0 && !bloomFilter.compareAndSet(index, word, word | mask));
+        }
+    }
+
+    private long bloomBit(long[] dsid, int i) {
+        // Double hashing, the fingerprint is a cryptographic hash so both halves are independent
+        return (dsid[0] + i * (dsid[1] | 1)) & bloomMask;
+    }
+
+    /**
+     * The first 128 bit of the SHA-256 hash, the first word is never zero since that marks empty slots.
+     */
+    private static long[] fingerprint(byte[] bytes) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (hash[i] & 0xff);
+            low = (low << 8) | (hash[i + 8] & 0xff);
+        }
+        if (high == 0) {
+            high = 1;
+        }
+        return new long[]{high, low};
+    }
+}
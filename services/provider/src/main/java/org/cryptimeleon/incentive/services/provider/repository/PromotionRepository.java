@@ -1,24 +1,38 @@
 package org.cryptimeleon.incentive.services.provider.repository;
 
+import org.cryptimeleon.incentive.crypto.model.PreparedPromotion;
 import org.cryptimeleon.incentive.promotion.Promotion;
+import org.cryptimeleon.incentive.promotion.PromotionCatalog;
+import org.cryptimeleon.incentive.promotion.ZkpTokenUpdate;
 import org.cryptimeleon.incentive.services.provider.error.IncentiveServiceException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * This repository manages all promotions.
- * Currently just a list. Will be replaced by a database in the future.
+ * Requests read an immutable {@link PromotionCatalog} that is replaced on every change, so they never see a
+ * half-applied change. Will be replaced by a database in the future.
  */
 @Repository
 public class PromotionRepository {
-    private final List<Promotion> promotions = new ArrayList<>();
+    private volatile PromotionCatalog catalog;
+
+    @Autowired
+    public PromotionRepository(CryptoRepository cryptoRepository) {
+        this.catalog = PromotionCatalog.empty(promotionParameters -> PreparedPromotion.prepare(
+                cryptoRepository.getPublicParameters(),
+                cryptoRepository.getProviderKeyPair(),
+                promotionParameters
+        ));
+    }
 
     public List<Promotion> getPromotions() {
-        return promotions;
+        return catalog.getPromotions();
     }
 
     /**
@@ -27,7 +41,20 @@ public class PromotionRepository {
      * @return Optional
      */
     public Optional<Promotion> getPromotion(BigInteger promotionId) {
-        return promotions.stream().filter(p -> p.getPromotionParameters().getPromotionId().equals(promotionId)).findAny();
+        return catalog.getPromotion(promotionId);
+    }
+
+    /**
+     * Returns the promotion with the passed promotion ID together with its token updates and prepared crypto values.
+     *
+     * @return Optional
+     */
+    public Optional<PromotionCatalog.Entry> getEntry(BigInteger promotionId) {
+        return catalog.getEntry(promotionId);
+    }
+
+    public Optional<ZkpTokenUpdate> getTokenUpdate(BigInteger promotionId, UUID tokenUpdateId) {
+        return catalog.getTokenUpdate(promotionId, tokenUpdateId);
     }
 
     /**
@@ -35,10 +62,10 @@ public class PromotionRepository {
      *
      * @param promotion promotion object
      */
-    public void addPromotion(Promotion promotion) {
-        if (promotions.stream().noneMatch(p -> p.getPromotionParameters().getPromotionId().equals(promotion.getPromotionParameters().getPromotionId()))) {
-            promotions.add(promotion);
-        } else {
+    public synchronized void addPromotion(Promotion promotion) {
+        try {
+            catalog = catalog.with(promotion);
+        } catch (IllegalArgumentException e) {
             throw new IncentiveServiceException("PromotionId already used!");
         }
     }
@@ -46,7 +73,7 @@ public class PromotionRepository {
     /**
      * Deletes all promotions from the system.
      */
-    public void deleteAllPromotions() {
-        promotions.clear();
+    public synchronized void deleteAllPromotions() {
+        catalog = catalog.cleared();
     }
 }
@@ -1,28 +1,143 @@
 package org.cryptimeleon.incentive.services.provider.repository;
 
+import org.cryptimeleon.incentive.crypto.IncentiveSystemRestorer;
 import org.cryptimeleon.incentive.crypto.model.RegistrationCoupon;
 import org.cryptimeleon.incentive.crypto.model.keys.user.UserPublicKey;
+import org.cryptimeleon.math.hash.impl.SHA256HashFunction;
+import org.cryptimeleon.math.serialization.converter.BinaryConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Stores the registration coupons of all users.
+ * <p>
+ * Coupons are appended to a {@link TransactionLog}, each record prefixed with a 64-bit fingerprint of the user public
+ * key. Only an index from fingerprint to log positions and the positions in registration order are kept in memory,
+ * so lookups by public key and paging read single coupons from the log. On startup, the index is rebuilt by replaying
+ * the log. The log is written to provider.registration-coupons.dir, which must be set.
+ */
 @Repository
 public class RegistrationCouponRepository {
-    private final List<RegistrationCoupon> registrationCouponList = new ArrayList<>();
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RegistrationCouponRepository.class);
+    private static final byte COUPON_RECORD = 1;
+    private static final int FINGERPRINT_SIZE = Long.BYTES;
+
+    private final TransactionLog couponLog;
+    private final CryptoRepository cryptoRepository;
+    // Log positions of the coupons per fingerprint, arrays are replaced and never modified
+    private final Map<Long, long[]> fingerprintIndex = new ConcurrentHashMap<>();
+    // Log positions of all coupons in the order they were added, guarded by this
+    private long[] positions = new long[1024];
+    private int size = 0;
+
+    /**
+     * Constructor, opens the coupon log and rebuilds the index.
+     *
+     * @throws IllegalStateException if no directory is configured
+     */
+    @Autowired
+    public RegistrationCouponRepository(CryptoRepository cryptoRepository,
+                                        @Value("${provider.registration-coupons.dir:}") String directory,
+                                        @Value("${provider.registration-coupons.segment-size:16777216}") int segmentSize) throws IOException {
+        this.cryptoRepository = cryptoRepository;
+
+        if (directory.isEmpty()) {
+            throw new IllegalStateException("provider.registration-coupons.dir is not set, registration coupons would not be kept across restarts");
+        }
+        Path logDirectory = Path.of(directory);
+        this.couponLog = new TransactionLog(logDirectory, segmentSize, 2);
+        couponLog.replay(0, (type, payload, position) -> {
+            if (type == COUPON_RECORD) {
+                index(ByteBuffer.wrap(payload).getLong(), position);
+            }
+        });
+        log.info("Opened registration coupon log {} with {} coupons", logDirectory, size());
+    }
 
     public void addCoupon(RegistrationCoupon registrationCoupon) {
-        registrationCouponList.add(registrationCoupon);
+        long fingerprint = fingerprint(registrationCoupon.getUserPublicKey());
+        byte[] serializedCoupon = new BinaryConverter().serialize(registrationCoupon.getRepresentation());
+        byte[] payload = ByteBuffer.allocate(FINGERPRINT_SIZE + serializedCoupon.length)
+                .putLong(fingerprint)
+                .put(serializedCoupon)
+                .array();
+        index(fingerprint, couponLog.append(COUPON_RECORD, payload));
     }
 
-    public List<RegistrationCoupon> getAllCoupons() {
-        return registrationCouponList;
+    /**
+     * Returns a page of the coupons in the order they were added.
+     *
+     * @param page     the index of the page, starting at 0
+     * @param pageSize the maximum number of coupons per page
+     * @return the coupons of the page, empty if the page is behind the last coupon
+     */
+    public List<RegistrationCoupon> getCoupons(int page, int pageSize) {
+        if (page < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page " + page + " of size " + pageSize);
+        }
+        long[] pagePositions;
+        synchronized (this) {
+            long from = (long) page * pageSize;
+            if (from >= size) {
+                return List.of();
+            }
+            pagePositions = Arrays.copyOfRange(positions, (int) from, (int) Math.min(from + pageSize, size));
+        }
+        var coupons = new ArrayList<RegistrationCoupon>(pagePositions.length);
+        for (long position : pagePositions) {
+            coupons.add(read(position));
+        }
+        return coupons;
+    }
+
+    public synchronized int size() {
+        return size;
     }
 
     public Optional<RegistrationCoupon> findEntryFor(UserPublicKey userPublicKey) {
-        return registrationCouponList.stream()
+        long[] candidates = fingerprintIndex.getOrDefault(fingerprint(userPublicKey), new long[0]);
+        // Fingerprints can collide, so compare the public keys of the candidates
+        return Arrays.stream(candidates)
+                .mapToObj(this::read)
                 .filter(registrationCoupon -> registrationCoupon.getUserPublicKey().equals(userPublicKey))
                 .findAny();
     }
+
+    @PreDestroy
+    public void close() throws IOException {
+        couponLog.close();
+    }
+
+    private void index(long fingerprint, long position) {
+        fingerprintIndex.merge(fingerprint, new long[]{position}, (existing, added) -> {
+            long[] merged = Arrays.copyOf(existing, existing.length + 1);
+            merged[existing.length] = added[0];
+            return merged;
+        });
+        synchronized (this) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[size++] = position;
+        }
+    }
+
+    private RegistrationCoupon read(long position) {
+        byte[] payload = couponLog.read(position);
+        var representation = new BinaryConverter().deserialize(Arrays.copyOfRange(payload, FINGERPRINT_SIZE, payload.length));
+        return new RegistrationCoupon(representation, new IncentiveSystemRestorer(cryptoRepository.getPublicParameters()));
+    }
+
+    private static long fingerprint(UserPublicKey userPublicKey) {
+        byte[] hash = new SHA256HashFunction().hash(userPublicKey.getUniqueByteRepresentation());
+        return ByteBuffer.wrap(hash).getLong();
+    }
 }
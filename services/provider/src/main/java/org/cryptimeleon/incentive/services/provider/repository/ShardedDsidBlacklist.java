@@ -0,0 +1,74 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Double-spending blacklist that is partitioned across several provider nodes.
+ * <p>
+ * Every dsid is owned by exactly one node, determined by consistent hashing of its unique byte representation. Calls
+ * for dsids of this node go to the local shard, all others are forwarded to the owner via the transport. Since the owner
+ * reserves atomically, {@link #checkAndReserve(Zn.ZnElement, Zn.ZnElement)} stays atomic across nodes.
+ * All nodes need the same node list.
+ */
+public class ShardedDsidBlacklist implements IDsidBlacklistHandler {
+    private static final int VIRTUAL_NODES = 128;
+
+    private final String self;
+    private final IDsidBlacklistHandler localShard;
+    private final DsidBlacklistShardTransport transport;
+    private final ConsistentHashRing ring;
+    private final Map<String, IDsidBlacklistHandler> remoteShards = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param nodes      the names of all nodes including this one, an empty list keeps all dsids local
+     * @param self       the name of this node
+     * @param localShard the blacklist shard of this node
+     * @param transport  connects to the shards of the other nodes
+     */
+    public ShardedDsidBlacklist(List<String> nodes, String self, IDsidBlacklistHandler localShard, DsidBlacklistShardTransport transport) {
+        if (!nodes.isEmpty() && !nodes.contains(self)) {
+            throw new IllegalArgumentException("Node " + self + " is not part of the node list " + nodes);
+        }
+        this.self = self;
+        this.localShard = localShard;
+        this.transport = transport;
+        this.ring = new ConsistentHashRing(nodes.isEmpty() ? List.of(self) : nodes, VIRTUAL_NODES);
+    }
+
+    @Override
+    public boolean containsDsidWithDifferentGamma(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        return shardOf(doubleSpendingId).containsDsidWithDifferentGamma(doubleSpendingId, gamma);
+    }
+
+    @Override
+    public void addEntryIfDsidNotPresent(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        shardOf(doubleSpendingId).addEntryIfDsidNotPresent(doubleSpendingId, gamma);
+    }
+
+    @Override
+    public boolean checkAndReserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        return shardOf(doubleSpendingId).checkAndReserve(doubleSpendingId, gamma);
+    }
+
+    /**
+     * Returns the name of the node that owns a dsid.
+     */
+    public String ownerOf(Zn.ZnElement doubleSpendingId) {
+        return ring.ownerOf(doubleSpendingId.getUniqueByteRepresentation());
+    }
+
+    private IDsidBlacklistHandler shardOf(Zn.ZnElement doubleSpendingId) {
+        var owner = ownerOf(doubleSpendingId);
+        if (owner.equals(self)) {
+            return localShard;
+        }
+        return remoteShards.computeIfAbsent(owner, transport::connect);
+    }
+}
@@ -0,0 +1,350 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of binary records in memory-mapped segment files.
+ * <p>
+ * Segments have a fixed size and are named by their index. A record consists of the payload length, a type byte, the
+ * payload and a CRC32 over type and payload. A length of zero marks the end of the log within a segment; a record
+ * that does not fit into the current segment starts the next one.
+ * Appends return once the record is on disk. A background thread forces the current segment every commit interval,
+ * so concurrent appends share one fsync (group commit).
+ * <p>
+ * Records are addressed by their position, the segment index in the upper and the offset in the lower 32 bits.
+ * Positions increase with every append.
+ */
+public class TransactionLog implements Closeable {
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long commitIntervalMillis;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Object appendLock = new Object();
+    private final Object commitLock = new Object();
+    private final Thread committer;
+
+    private int writeOffset;
+    private volatile long appendedPosition;
+    private long durablePosition;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the log in a directory, recovering the end of the log from the last segment.
+     *
+     * @param directory            the directory of the segment files, is created if it does not exist
+     * @param segmentSize          the size of new segments in bytes, limits the size of a record
+     * @param commitIntervalMillis the maximum time between two fsyncs
+     * @throws IOException if the segments cannot be opened
+     */
+    public TransactionLog(Path directory, int segmentSize, long commitIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commitIntervalMillis = commitIntervalMillis;
+        Files.createDirectories(directory);
+
+        List<Path> segmentFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            segmentFiles = files.filter(file -> file.getFileName().toString().matches("segment-\\d{10}\\.log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            if (!segmentFiles.get(i).equals(segmentPath(i))) {
+                throw new IOException("Missing transaction log segment " + segmentPath(i));
+            }
+            segments.add(map(segmentFiles.get(i), Files.size(segmentFiles.get(i))));
+        }
+        if (segments.isEmpty()) {
+            segments.add(map(segmentPath(0), segmentSize));
+        }
+
+        this.writeOffset = recoverEnd(segments.get(segments.size() - 1));
+        this.appendedPosition = position(segments.size() - 1, writeOffset);
+        this.durablePosition = appendedPosition;
+
+        this.committer = new Thread(this::commitLoop, "transaction-log-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Appends a record and waits until it is on disk.
+     *
+     * @param type    the type of the record, for the caller to tell records apart
+     * @param payload the record
+     * @return the position of the record
+     */
+    public long append(byte type, byte[] payload) {
+        return appendAll(type, List.of(payload))[0];
+    }
+
+    /**
+     * Appends several records of the same type and waits once until all of them are on disk.
+     *
+     * @param type     the type of the records
+     * @param payloads the records
+     * @return the positions of the records
+     */
+    public long[] appendAll(byte type, List<byte[]> payloads) {
+        for (byte[] payload : payloads) {
+            if (payload.length + RECORD_OVERHEAD >= segmentSize) {
+                throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit into a segment");
+            }
+        }
+
+        var recordPositions = new long[payloads.size()];
+        long endPosition;
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("Transaction log is closed");
+            }
+            for (int i = 0; i < payloads.size(); i++) {
+                recordPositions[i] = write(type, payloads.get(i));
+            }
+            endPosition = position(segments.size() - 1, writeOffset);
+            appendedPosition = endPosition;
+        }
+
+        awaitDurable(endPosition);
+        return recordPositions;
+    }
+
+    /**
+     * Reads the payload of the record at a position.
+     *
+     * @param position the position returned by {@link #append(byte, byte[])} or passed to a {@link RecordConsumer}
+     * @return the payload
+     */
+    public byte[] read(long position) {
+        MappedByteBuffer segment;
+        synchronized (appendLock) {
+            segment = segments.get(segmentIndex(position));
+        }
+        var record = segment.duplicate();
+        record.position(segmentOffset(position));
+        var payload = new byte[record.getInt()];
+        record.get();
+        record.get(payload);
+        return payload;
+    }
+
+    /**
+     * Passes all records from a position on to the consumer, in the order they were appended.
+     *
+     * @param fromPosition the position to start at, e.g. 0 or the end position of an earlier replay
+     * @param consumer     receives the records
+     * @return the end position of the log, i.e. the position to continue from later
+     */
+    public long replay(long fromPosition, RecordConsumer consumer) {
+        List<MappedByteBuffer> currentSegments;
+        long endPosition;
+        synchronized (appendLock) {
+            currentSegments = new ArrayList<>(segments);
+            endPosition = appendedPosition;
+        }
+
+        int segmentIndex = segmentIndex(fromPosition);
+        int offset = segmentOffset(fromPosition);
+        while (position(segmentIndex, offset) < endPosition) {
+            var record = currentSegments.get(segmentIndex).duplicate();
+            record.position(offset);
+            int length = record.getInt();
+            if (length == 0) {
+                // End of this segment, continue with the next one
+                segmentIndex++;
+                offset = 0;
+                continue;
+            }
+            byte type = record.get();
+            var payload = new byte[length];
+            record.get(payload);
+            record.getInt();
+            consumer.accept(type, payload, position(segmentIndex, offset));
+            offset = record.position();
+        }
+        return endPosition;
+    }
+
+    public long getEndPosition() {
+        return appendedPosition;
+    }
+
+    /**
+     * Forces all appended records to disk and releases the appends that wait for the next commit.
+     * Later appends fail.
+     */
+    @Override
+    public void close() throws IOException {
+        long target;
+        synchronized (appendLock) {
+            closed = true;
+            segments.get(segments.size() - 1).force();
+            target = appendedPosition;
+        }
+        committer.interrupt();
+        synchronized (commitLock) {
+            durablePosition = Math.max(durablePosition, target);
+            commitLock.notifyAll();
+        }
+    }
+
+    private void awaitDurable(long position) {
+        synchronized (commitLock) {
+            commitLock.notifyAll();
+            while (durablePosition < position) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the transaction log commit", e);
+                }
+            }
+        }
+    }
+
+    private void commitLoop() {
+        while (!closed) {
+            try {
+                synchronized (commitLock) {
+                    if (durablePosition >= appendedPosition) {
+                        commitLock.wait(commitIntervalMillis);
+                    }
+                }
+                // Give concurrent appends the chance to join this commit
+                Thread.sleep(commitIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long target;
+            MappedByteBuffer segment;
+            synchronized (appendLock) {
+                target = appendedPosition;
+                segment = segments.get(segments.size() - 1);
+            }
+            // Earlier segments have been forced when the log rolled over
+            segment.force();
+            synchronized (commitLock) {
+                durablePosition = Math.max(durablePosition, target);
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes a record behind the last one, must hold the append lock.
+     *
+     * @return the position of the record
+     */
+    private long write(byte type, byte[] payload) {
+        var segment = segments.get(segments.size() - 1);
+        // Keep at least the 4 bytes of the end marker
+        if (writeOffset + payload.length + RECORD_OVERHEAD + 4 > segment.capacity()) {
+            segment.force();
+            segment = rollSegment();
+        }
+
+        var crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        long recordPosition = position(segments.size() - 1, writeOffset);
+        var record = segment.duplicate();
+        record.position(writeOffset);
+        record.putInt(payload.length);
+        record.put(type);
+        record.put(payload);
+        record.putInt((int) crc.getValue());
+        writeOffset = record.position();
+        return recordPosition;
+    }
+
+    private MappedByteBuffer rollSegment() {
+        try {
+            var segment = map(segmentPath(segments.size()), segmentSize);
+            segments.add(segment);
+            writeOffset = 0;
+            return segment;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create transaction log segment", e);
+        }
+    }
+
+    /**
+     * Finds the end of the log in a segment. A torn record at the end (crash during an append) is cut off.
+     */
+    private static int recoverEnd(MappedByteBuffer segment) {
+        int offset = 0;
+        while (offset + RECORD_OVERHEAD <= segment.capacity()) {
+            int length = segment.getInt(offset);
+            if (length == 0) {
+                return offset;
+            }
+            if (length < 0 || offset + length + RECORD_OVERHEAD > segment.capacity() || !hasValidChecksum(segment, offset, length)) {
+                // Clear the remainder, such that the next append is followed by a valid end marker
+                for (int i = offset; i < segment.capacity(); i++) {
+                    segment.put(i, (byte) 0);
+                }
+                segment.force();
+                return offset;
+            }
+            offset += length + RECORD_OVERHEAD;
+        }
+        return offset;
+    }
+
+    private static boolean hasValidChecksum(MappedByteBuffer segment, int offset, int length) {
+        var record = segment.duplicate();
+        record.position(offset + 4);
+        var crc = new CRC32();
+        crc.update(record.get());
+        var payload = new byte[length];
+        record.get(payload);
+        crc.update(payload);
+        return record.getInt() == (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("segment-%010d.log", index));
+    }
+
+    private static long position(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | offset;
+    }
+
+    private static int segmentIndex(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int segmentOffset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Receives the records of a replay.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(byte type, byte[] payload, long position);
+    }
+}
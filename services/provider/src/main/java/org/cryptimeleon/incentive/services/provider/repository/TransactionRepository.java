@@ -6,64 +6,350 @@ import org.cryptimeleon.incentive.crypto.model.DoubleSpendingTag;
 import org.cryptimeleon.incentive.crypto.model.EarnTransactionData;
 import org.cryptimeleon.incentive.crypto.model.SpendTransactionData;
 import org.cryptimeleon.incentive.crypto.model.UserInfo;
+import org.cryptimeleon.math.serialization.converter.BinaryConverter;
 import org.cryptimeleon.math.structures.rings.zn.Zn;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 /**
  * Store all transaction for clearing and offline double-spending protection
+ * <p>
+ * Earn and spend transactions are appended to a {@link TransactionLog}, so they survive restarts and do not have to be
+ * kept on heap. Only an index from dsid to the log positions of its spend transactions is kept in memory, together with
+ * a bounded cache of recently read spend records. The index is snapshotted periodically and on shutdown; on startup,
+ * the snapshot is loaded and the remainder of the log is replayed.
+ * The log directory provider.transaction-log.dir must be set.
+ * <p>
+ * Double-spending is detected incrementally: adding a spend transaction marks its dsid as dirty if the dsid has been
+ * seen before, and a background worker links the dirty dsids. The cost of detection thus depends on the number of new
+ * transactions, not on the size of the log.
  */
 @Repository
 public class TransactionRepository implements IEarnTransactionDBHandler, ISpendTransactionDBHandler {
-    // Some data could appear twice bc. users can re-do earn without gaining an advantage. Filter by the hash h / ecdsa signature
-    private final List<EarnTransactionData> earnTransactionDataList = new ArrayList<>();
-    private final Map<Zn.ZnElement,List<SpendTransactionData>> spendTransactionDataList = Collections.synchronizedMap(new HashMap<>());
-    private final Map<UUID, UserInfo> doubleSpendingDetected = Collections.synchronizedMap(new HashMap<>());
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TransactionRepository.class);
+    private static final byte EARN_RECORD = 1;
+    private static final byte SPEND_RECORD = 2;
+    private static final String SNAPSHOT_FILE = "dsid-index.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x54584958; // "TXIX"
+
+    private final TransactionLog transactionLog;
+    private final Path snapshotFile;
+    // Positions of all spend records per dsid, arrays are replaced and never modified
+    private final Map<BigInteger, long[]> dsidIndex = new ConcurrentHashMap<>();
+    private final Map<Long, SpendRecord> spendRecordCache;
+    // Appends and index updates hold the read lock, snapshots the write lock
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Map<UUID, UserInfo> doubleSpendingDetected = new ConcurrentHashMap<>();
+    // Dsids with new spend records that have to be checked, the set prevents queueing a dsid more than once
+    private final BlockingQueue<BigInteger> dirtyDsidQueue = new LinkedBlockingQueue<>();
+    private final Set<BigInteger> dirtyDsids = ConcurrentHashMap.newKeySet();
+    private final Thread linker;
     private final CryptoRepository cryptoRepository;
 
     @Autowired
-    public TransactionRepository(CryptoRepository cryptoRepository) {
+    public TransactionRepository(CryptoRepository cryptoRepository,
+                                 @Value("${provider.transaction-log.dir:}") String directory,
+                                 @Value("${provider.transaction-log.segment-size:67108864}") int segmentSize,
+                                 @Value("${provider.transaction-log.commit-interval-ms:2}") long commitIntervalMillis,
+                                 @Value("${provider.transaction-log.cache-size:10000}") int cacheSize) throws IOException {
         this.cryptoRepository = cryptoRepository;
+        this.spendRecordCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SpendRecord> eldest) {
+                return size() > cacheSize;
+            }
+        });
+
+        if (directory.isEmpty()) {
+            throw new IllegalStateException("provider.transaction-log.dir is not set, transactions would not be kept across restarts");
+        }
+        Path logDirectory = Path.of(directory);
+        this.transactionLog = new TransactionLog(logDirectory, segmentSize, commitIntervalMillis);
+        this.snapshotFile = logDirectory.resolve(SNAPSHOT_FILE);
+
+        long replayFrom = loadSnapshot();
+        transactionLog.replay(replayFrom, (type, payload, position) -> {
+            if (type == SPEND_RECORD) {
+                addToIndex(SpendRecord.decode(payload).dsid, position);
+            }
+        });
+        log.info("Opened transaction log {} with {} dsids, replayed from position {}", logDirectory, dsidIndex.size(), replayFrom);
+
+        // Detected double-spending is not persisted, so link all dsids that have been spent more than once again
+        dsidIndex.forEach((dsid, positions) -> {
+            if (positions.length > 1) {
+                markDirty(dsid);
+            }
+        });
+        this.linker = new Thread(this::linkDirtyDsids, "double-spending-linker");
+        this.linker.setDaemon(true);
+        this.linker.start();
     }
 
     @Override
     public void addEarnData(EarnTransactionData earnTransactionData) {
-        earnTransactionDataList.add(earnTransactionData);
+        transactionLog.append(EARN_RECORD, new BinaryConverter().serialize(earnTransactionData.getRepresentation()));
     }
 
     @Override
     public void addSpendData(SpendTransactionData spendTransactionData) {
-        spendTransactionDataList.putIfAbsent(spendTransactionData.getDsid(), Collections.synchronizedList(new ArrayList<>()));
-        var entriesForDsid = spendTransactionDataList.get(spendTransactionData.getDsid());
-        entriesForDsid.add(spendTransactionData);
-    }
-
-    // Start after one minute, sync every minute
-    @Scheduled(initialDelay = 60_000, fixedRate = 30_000)
-    public void linkAll() {
-        spendTransactionDataList.forEach((znElement, spendTransactionDataList) -> {
-            var first = spendTransactionDataList.get(0);
-            var secondOptional = spendTransactionDataList.stream().filter(entry -> !entry.getC().equals(first.getC())).findAny();
-            if (secondOptional.isPresent()) {
-                var second = secondOptional.get();
-                UserInfo userInfo = cryptoRepository.getIncentiveSystem().link(
-                        new DoubleSpendingTag(first.getC(), first.getGamma()),
-                        new DoubleSpendingTag(second.getC(), second.getGamma()));
-                doubleSpendingDetected.put(first.getBasketId(), userInfo);
-                doubleSpendingDetected.put(second.getBasketId(), userInfo);
-                // TODO tuple basketId, promotionId => avoid attacking with multiple identities
+        addSpendData(List.of(spendTransactionData));
+    }
+
+    /**
+     * Adds many spend transactions with a single wait for the log commit.
+     */
+    public void addSpendData(List<SpendTransactionData> spendTransactionDataList) {
+        var records = new ArrayList<SpendRecord>(spendTransactionDataList.size());
+        var payloads = new ArrayList<byte[]>(spendTransactionDataList.size());
+        var binaryConverter = new BinaryConverter();
+        for (SpendTransactionData spendTransactionData : spendTransactionDataList) {
+            var record = new SpendRecord(spendTransactionData);
+            records.add(record);
+            payloads.add(record.encode(binaryConverter.serialize(spendTransactionData.getRepresentation())));
+        }
+
+        indexLock.readLock().lock();
+        try {
+            long[] positions = transactionLog.appendAll(SPEND_RECORD, payloads);
+            for (int i = 0; i < records.size(); i++) {
+                var record = records.get(i);
+                spendRecordCache.put(positions[i], record);
+                if (addToIndex(record.dsid, positions[i]).length > 1) {
+                    markDirty(record.dsid);
+                }
             }
-        });
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Links the spend transactions of a dsid if at least two of them have a different challenge c. Since all of them
+     * spent the same token, all their baskets are marked with the identified user.
+     */
+    void link(BigInteger dsid) {
+        var records = Arrays.stream(dsidIndex.get(dsid)).mapToObj(this::readSpendRecord).collect(Collectors.toList());
+        var first = records.get(0);
+        var secondOptional = records.stream().filter(entry -> !entry.c.equals(first.c)).findAny();
+        if (secondOptional.isEmpty() || records.stream().allMatch(entry -> doubleSpendingDetected.containsKey(entry.basketId))) {
+            return;
+        }
+
+        var zn = cryptoRepository.getPublicParameters().getBg().getZn();
+        UserInfo userInfo = cryptoRepository.getIncentiveSystem().link(
+                first.computeDsTag(zn),
+                secondOptional.get().computeDsTag(zn));
+        records.forEach(entry -> doubleSpendingDetected.put(entry.basketId, userInfo));
+        // TODO tuple basketId, promotionId => avoid attacking with multiple identities
+    }
+
+    private void markDirty(BigInteger dsid) {
+        if (dirtyDsids.add(dsid)) {
+            dirtyDsidQueue.add(dsid);
+        }
+    }
+
+    private void linkDirtyDsids() {
+        while (!Thread.currentThread().isInterrupted()) {
+            BigInteger dsid;
+            try {
+                dsid = dirtyDsidQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Remove before linking, such that records added meanwhile mark the dsid again
+            dirtyDsids.remove(dsid);
+            try {
+                link(dsid);
+            } catch (RuntimeException e) {
+                log.error("Could not link spend transactions of dsid {}", dsid, e);
+            }
+        }
     }
 
     public Map<UUID, UserInfo> getDoubleSpendingDetected() {
         return Collections.unmodifiableMap(doubleSpendingDetected);
     }
 
-    public Map<Zn.ZnElement, List<SpendTransactionData>> getSpendTransactionDataList() {
-        return Collections.unmodifiableMap(spendTransactionDataList);
+    /**
+     * Returns the ids of all baskets with logged spend transactions. Reads the whole log.
+     */
+    public List<UUID> getSpendTransactionBasketIds() {
+        var basketIds = new LinkedHashSet<UUID>();
+        transactionLog.replay(0, (type, payload, position) -> {
+            if (type == SPEND_RECORD) {
+                basketIds.add(SpendRecord.decode(payload).basketId);
+            }
+        });
+        return new ArrayList<>(basketIds);
+    }
+
+    /**
+     * Writes the dsid index to the snapshot file, such that a restart only has to replay the log from here on.
+     */
+    @Scheduled(initialDelay = 300_000, fixedRate = 300_000)
+    public void snapshot() throws IOException {
+        long endPosition;
+        Map<BigInteger, long[]> index;
+        indexLock.writeLock().lock();
+        try {
+            endPosition = transactionLog.getEndPosition();
+            index = new HashMap<>(dsidIndex);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+
+        var tempFile = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(endPosition);
+            out.writeInt(index.size());
+            for (var entry : index.entrySet()) {
+                writeBigInteger(out, entry.getKey());
+                out.writeInt(entry.getValue().length);
+                for (long position : entry.getValue()) {
+                    out.writeLong(position);
+                }
+            }
+        }
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        linker.interrupt();
+        snapshot();
+        transactionLog.close();
+    }
+
+    /**
+     * Loads the dsid index from the snapshot file.
+     *
+     * @return the log position up to which the snapshot covers the log, 0 if there is no usable snapshot
+     */
+    private long loadSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Invalid snapshot file");
+            }
+            long endPosition = in.readLong();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                var dsid = readBigInteger(in);
+                var positions = new long[in.readInt()];
+                for (int j = 0; j < positions.length; j++) {
+                    positions[j] = in.readLong();
+                }
+                dsidIndex.put(dsid, positions);
+            }
+            return endPosition;
+        } catch (IOException e) {
+            log.warn("Could not load transaction index snapshot, replaying the whole log", e);
+            dsidIndex.clear();
+            return 0;
+        }
+    }
+
+    private long[] addToIndex(BigInteger dsid, long position) {
+        return dsidIndex.merge(dsid, new long[]{position}, (positions, added) -> {
+            if (Arrays.stream(positions).anyMatch(p -> p == position)) {
+                return positions;
+            }
+            var merged = Arrays.copyOf(positions, positions.length + 1);
+            merged[positions.length] = position;
+            return merged;
+        });
+    }
+
+    private SpendRecord readSpendRecord(long position) {
+        return spendRecordCache.computeIfAbsent(position, p -> SpendRecord.decode(transactionLog.read(p)));
+    }
+
+    private static void writeBigInteger(DataOutputStream out, BigInteger value) throws IOException {
+        var bytes = value.toByteArray();
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static BigInteger readBigInteger(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * A logged spend transaction. Only the fields needed for linking are decoded, the full transaction data follows as
+     * {@link BinaryConverter} output. Zn elements are stored as integers, since the public parameters are not known when
+     * the log is replayed.
+     */
+    private static class SpendRecord {
+        private final BigInteger dsid;
+        private final BigInteger c;
+        private final BigInteger gamma;
+        private final UUID basketId;
+
+        SpendRecord(SpendTransactionData spendTransactionData) {
+            this.dsid = spendTransactionData.getDsid().asInteger();
+            this.c = spendTransactionData.getC().asInteger();
+            this.gamma = spendTransactionData.getGamma().asInteger();
+            this.basketId = spendTransactionData.getBasketId();
+        }
+
+        private SpendRecord(BigInteger dsid, BigInteger c, BigInteger gamma, UUID basketId) {
+            this.dsid = dsid;
+            this.c = c;
+            this.gamma = gamma;
+            this.basketId = basketId;
+        }
+
+        static SpendRecord decode(byte[] payload) {
+            try (var in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                var dsid = readBigInteger(in);
+                var c = readBigInteger(in);
+                var gamma = readBigInteger(in);
+                var basketId = new UUID(in.readLong(), in.readLong());
+                return new SpendRecord(dsid, c, gamma, basketId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte[] encode(byte[] spendTransactionData) {
+            var bytes = new ByteArrayOutputStream(spendTransactionData.length + 128);
+            try (var out = new DataOutputStream(bytes)) {
+                writeBigInteger(out, dsid);
+                writeBigInteger(out, c);
+                writeBigInteger(out, gamma);
+                out.writeLong(basketId.getMostSignificantBits());
+                out.writeLong(basketId.getLeastSignificantBits());
+                out.write(spendTransactionData);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        DoubleSpendingTag computeDsTag(Zn zn) {
+            return new DoubleSpendingTag(zn.createZnElement(c), zn.createZnElement(gamma));
+        }
     }
 }
@@ -0,0 +1,35 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
+import org.cryptimeleon.incentive.crypto.VerificationResultCache;
+import org.cryptimeleon.incentive.crypto.model.SpendProviderResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+
+/**
+ * Keeps the responses to recently processed spend and earn requests, such that retries of the same request are
+ * answered without verifying and signing again.
+ */
+@Repository
+public class VerificationResultCacheRepository {
+    private final VerificationResultCache<SpendProviderResponse> spendResultCache;
+    private final VerificationResultCache<SPSEQSignature> earnResultCache;
+
+    @Autowired
+    private VerificationResultCacheRepository(@Value("${provider.result-cache.max-size:10000}") int maxSize,
+                                              @Value("${provider.result-cache.ttl-seconds:600}") long ttlSeconds) {
+        this.spendResultCache = new VerificationResultCache<>(maxSize, Duration.ofSeconds(ttlSeconds));
+        this.earnResultCache = new VerificationResultCache<>(maxSize, Duration.ofSeconds(ttlSeconds));
+    }
+
+    public VerificationResultCache<SpendProviderResponse> getSpendResultCache() {
+        return spendResultCache;
+    }
+
+    public VerificationResultCache<SPSEQSignature> getEarnResultCache() {
+        return earnResultCache;
+    }
+}
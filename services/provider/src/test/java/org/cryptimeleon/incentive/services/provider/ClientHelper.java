@@ -1,6 +1,8 @@
 package org.cryptimeleon.incentive.services.provider;
 
 import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
+import org.cryptimeleon.incentive.client.dto.EnrichedSpendTransactionDataDto;
+import org.cryptimeleon.incentive.client.dto.SpendTransactionDataResultDto;
 import org.cryptimeleon.incentive.client.dto.provider.BulkRequestProviderDto;
 import org.cryptimeleon.incentive.client.dto.provider.BulkResultsProviderDto;
 import org.cryptimeleon.incentive.client.dto.provider.EarnRequestProviderDto;
@@ -158,16 +160,20 @@ public class ClientHelper {
     }
 
     public static SpendProviderResponse spend(WebTestClient webClient, IncentiveSystem incentiveSystem, PromotionParameters promotionParameters, ZkpTokenUpdate tokenUpdate, SpendProviderRequest spendProviderRequest, ZkpTokenUpdateMetadata metadata, UUID basketId, List<BigInteger> basketPoints) {
-        var spendRequestDto = new SpendRequestProviderDto(promotionParameters.getPromotionId(),
+        var spendRequestDto = spendRequestDto(promotionParameters, tokenUpdate, spendProviderRequest, metadata, basketId, basketPoints);
+        BulkRequestProviderDto bulkRequestProviderDto = new BulkRequestProviderDto(List.of(spendRequestDto), Collections.emptyList());
+        BulkResultsProviderDto bulkResultsProviderDto = bulkWithProvider(webClient, bulkRequestProviderDto);
+        var serializedSpendResponse = bulkResultsProviderDto.getSpendResults().get(0).getSerializedSpendResult();
+        return new SpendProviderResponse(jsonConverter.deserialize(serializedSpendResponse), incentiveSystem.pp);
+    }
+
+    public static SpendRequestProviderDto spendRequestDto(PromotionParameters promotionParameters, ZkpTokenUpdate tokenUpdate, SpendProviderRequest spendProviderRequest, ZkpTokenUpdateMetadata metadata, UUID basketId, List<BigInteger> basketPoints) {
+        return new SpendRequestProviderDto(promotionParameters.getPromotionId(),
                 jsonConverter.serialize(spendProviderRequest.getRepresentation()),
                 jsonConverter.serialize(new RepresentableRepresentation(metadata)),
                 basketId,
                 tokenUpdate.getTokenUpdateId(),
                 basketPoints);
-        BulkRequestProviderDto bulkRequestProviderDto = new BulkRequestProviderDto(List.of(spendRequestDto), Collections.emptyList());
-        BulkResultsProviderDto bulkResultsProviderDto = bulkWithProvider(webClient, bulkRequestProviderDto);
-        var serializedSpendResponse = bulkResultsProviderDto.getSpendResults().get(0).getSerializedSpendResult();
-        return new SpendProviderResponse(jsonConverter.deserialize(serializedSpendResponse), incentiveSystem.pp);
     }
 
     public static BulkResultsProviderDto bulkWithProvider(WebTestClient webClient,
@@ -183,6 +189,18 @@ public class ClientHelper {
                 .getResponseBody();
     }
 
+    public static SpendTransactionDataResultDto syncSpendTransactionData(WebTestClient webClient,
+                                                                         List<EnrichedSpendTransactionDataDto> enrichedSpendTransactionDataDtos) {
+        return webClient.post()
+                .uri("/spend-transaction-data/batch")
+                .body(BodyInserters.fromValue(enrichedSpendTransactionDataDtos))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(SpendTransactionDataResultDto.class)
+                .returnResult()
+                .getResponseBody();
+    }
 
     /*
      * helper methods
@@ -1,16 +1,25 @@
 package org.cryptimeleon.incentive.services.provider;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cryptimeleon.craco.sig.sps.eq.SPSEQSignature;
+import org.cryptimeleon.incentive.client.dto.EnrichedSpendTransactionDataDto;
+import org.cryptimeleon.incentive.client.dto.SpendTransactionDataResultDto;
+import org.cryptimeleon.incentive.client.dto.provider.BulkRequestProviderDto;
+import org.cryptimeleon.incentive.client.dto.provider.EarnRequestProviderDto;
+import org.cryptimeleon.incentive.client.dto.provider.SpendRequestProviderDto;
 import org.cryptimeleon.incentive.crypto.Helper;
 import org.cryptimeleon.incentive.crypto.IncentiveSystem;
 import org.cryptimeleon.incentive.crypto.TestSuite;
+import org.cryptimeleon.incentive.crypto.callback.ISpendTransactionDBHandler;
 import org.cryptimeleon.incentive.crypto.callback.IStoreBasketRedeemedHandler;
 import org.cryptimeleon.incentive.crypto.exception.StoreDoubleSpendingDetectedException;
 import org.cryptimeleon.incentive.crypto.model.*;
 import org.cryptimeleon.incentive.promotion.TestSuiteWithPromotion;
 import org.cryptimeleon.incentive.promotion.model.Basket;
+import org.cryptimeleon.incentive.services.provider.api.DsidBlacklistEntryDto;
 import org.cryptimeleon.incentive.services.provider.api.RegistrationCouponJSON;
 import org.cryptimeleon.incentive.services.provider.repository.CryptoRepository;
+import org.cryptimeleon.math.serialization.RepresentableRepresentation;
 import org.cryptimeleon.math.serialization.converter.JSONConverter;
 import org.cryptimeleon.math.structures.cartesian.Vector;
 import org.cryptimeleon.math.structures.rings.RingElement;
@@ -22,9 +31,14 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -104,6 +118,10 @@ public class ProviderServiceTest {
     }
 
     private static SpendStoreResponse generateSpendCouponSignature(SpendStoreRequest spendStoreRequest, Basket basket) throws StoreDoubleSpendingDetectedException {
+        return generateSpendCouponSignature(spendStoreRequest, basket, spendTransactionData -> {});
+    }
+
+    private static SpendStoreResponse generateSpendCouponSignature(SpendStoreRequest spendStoreRequest, Basket basket, ISpendTransactionDBHandler spendTransactionDBHandler) throws StoreDoubleSpendingDetectedException {
         return incentiveSystem.signSpendCoupon(
                 TestSuiteWithPromotion.storeKeyPair,
                 TestSuiteWithPromotion.providerKeyPair.getPk(),
@@ -114,7 +132,7 @@ public class ProviderServiceTest {
                 TestSuiteWithPromotion.context,
                 (basketId, promotionId, hash) -> IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_NOT_REDEEMED,
                 new TestSuite.TestDsidBlacklist(),
-                spendTransactionData -> {}
+                spendTransactionDBHandler
         );
     }
 
@@ -258,6 +276,74 @@ public class ProviderServiceTest {
         assertThatThrownBy(() -> runSpendWithService(webClient, spendProviderRequest2, TestSuiteWithPromotion.basketButWithDifferentId)).isInstanceOf(AssertionError.class);
     }
 
+    @Test
+    public void bulkWithEarnAndSeveralSpendsTest(@Autowired WebTestClient webClient) throws StoreDoubleSpendingDetectedException {
+        addPromotion(webClient, TestSuiteWithPromotion.promotion, providerSecret, HttpStatus.OK);
+        var promotionParameters = TestSuiteWithPromotion.promotion.getPromotionParameters();
+
+        Token earnToken = TestSuite.generateToken(promotionParameters);
+        EarnStoreResponse earnStoreResponse = TestSuite.getEarnCouponForPromotion(earnToken, testEarnAmount, TestSuiteWithPromotion.basket.getBasketId(), promotionParameters.getPromotionId());
+        var earnRequest = incentiveSystem.generateEarnRequest(earnToken, TestSuite.providerKeyPair.getPk(), TestSuite.userKeyPair, testEarnAmount, earnStoreResponse);
+
+        var tokens = new ArrayList<Token>();
+        var spendProviderRequests = new ArrayList<SpendProviderRequest>();
+        var spendRequestDtos = new ArrayList<SpendRequestProviderDto>();
+        for (int i = 0; i < 3; i++) {
+            var token = generateToken();
+            var basket = new Basket(UUID.randomUUID(), TestSuiteWithPromotion.basket.getBasketItemList());
+            var spendStoreRequest = generateSpendCouponRequest(token, basket);
+            var spendProviderRequest = new SpendProviderRequest(spendStoreRequest, generateSpendCouponSignature(spendStoreRequest, basket));
+            tokens.add(token);
+            spendProviderRequests.add(spendProviderRequest);
+            spendRequestDtos.add(spendRequestDto(promotionParameters, TestSuiteWithPromotion.spendTokenUpdate, spendProviderRequest,
+                    TestSuiteWithPromotion.metadata, basket.getBasketId(), TestSuiteWithPromotion.basketPoints.toList()));
+        }
+
+        // The earn batch and the spends are verified in parallel, results keep the order of the requests
+        var bulkResults = bulkWithProvider(webClient, new BulkRequestProviderDto(spendRequestDtos,
+                List.of(new EarnRequestProviderDto(promotionParameters.getPromotionId(), jsonConverter.serialize(earnRequest.getRepresentation())))));
+
+        var earnResponse = new SPSEQSignature(jsonConverter.deserialize(bulkResults.getEarnResults().get(0).getSerializedEarnResponse()), pp.getBg().getG1(), pp.getBg().getG2());
+        var earnedToken = incentiveSystem.handleEarnResponse(earnRequest, earnResponse, promotionParameters, earnToken, TestSuite.userKeyPair, TestSuite.providerKeyPair.getPk());
+        assertThat(earnedToken.getPoints().map(RingElement::asInteger)).isEqualTo(testEarnAmount);
+
+        assertThat(bulkResults.getSpendResults()).hasSize(3);
+        for (int i = 0; i < 3; i++) {
+            var spendProviderResponse = new SpendProviderResponse(jsonConverter.deserialize(bulkResults.getSpendResults().get(i).getSerializedSpendResult()), pp);
+            var updatedToken = retrieveUpdatedTokenFromResponse(tokens.get(i), spendProviderRequests.get(i), spendProviderResponse);
+            assertThat(updatedToken.getPoints().map(RingElement::asInteger)).isEqualTo(TestSuiteWithPromotion.pointsAfterSpend);
+        }
+    }
+
+    @Test
+    public void failedBulkRequestCanBeRetriedTest(@Autowired WebTestClient webClient) throws StoreDoubleSpendingDetectedException {
+        addPromotion(webClient, TestSuiteWithPromotion.promotion, providerSecret, HttpStatus.OK);
+        var promotionParameters = TestSuiteWithPromotion.promotion.getPromotionParameters();
+
+        var token = generateToken();
+        var spendStoreRequest = generateSpendCouponRequest(token);
+        var spendProviderRequest = new SpendProviderRequest(spendStoreRequest, generateSpendCouponSignature(spendStoreRequest));
+        var spendRequestDto = spendRequestDto(promotionParameters, TestSuiteWithPromotion.spendTokenUpdate, spendProviderRequest,
+                TestSuiteWithPromotion.metadata, TestSuiteWithPromotion.basket.getBasketId(), TestSuiteWithPromotion.basketPoints.toList());
+
+        // The earn request of an unknown promotion fails the whole bulk request while the spend is verified
+        Token earnToken = TestSuite.generateToken(promotionParameters);
+        EarnStoreResponse earnStoreResponse = TestSuite.getEarnCouponForPromotion(earnToken, testEarnAmount, TestSuiteWithPromotion.basket.getBasketId(), promotionParameters.getPromotionId());
+        var earnRequest = incentiveSystem.generateEarnRequest(earnToken, TestSuite.providerKeyPair.getPk(), TestSuite.userKeyPair, testEarnAmount, earnStoreResponse);
+        var unknownPromotionEarn = new EarnRequestProviderDto(promotionParameters.getPromotionId().add(BigInteger.ONE), jsonConverter.serialize(earnRequest.getRepresentation()));
+        webClient.post()
+                .uri("/bulk")
+                .body(BodyInserters.fromValue(new BulkRequestProviderDto(List.of(spendRequestDto), List.of(unknownPromotionEarn))))
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        // Retrying the spend with the same dsid and gamma succeeds
+        var spendProviderResponse = runSpendWithService(webClient, spendProviderRequest);
+        var updatedToken = retrieveUpdatedTokenFromResponse(token, spendProviderRequest, spendProviderResponse);
+        assertThat(updatedToken.getPoints().map(RingElement::asInteger)).isEqualTo(TestSuiteWithPromotion.pointsAfterSpend);
+    }
+
     @Test
     public void spendTestInvalidECDSA(@Autowired WebTestClient webClient) throws StoreDoubleSpendingDetectedException {
         addPromotion(webClient, TestSuiteWithPromotion.promotion, providerSecret, HttpStatus.OK);
@@ -280,6 +366,94 @@ public class ProviderServiceTest {
         assertThatThrownBy(() -> runSpendWithService(webClient, spendProviderRequest)).isInstanceOf(AssertionError.class);
     }
 
+    @Test
+    public void invalidSpendTransactionDataIsRejectedPerRecordTest(@Autowired WebTestClient webClient) throws StoreDoubleSpendingDetectedException {
+        addPromotion(webClient, TestSuiteWithPromotion.promotion, providerSecret, HttpStatus.OK);
+
+        var spendTransactionData = new ArrayList<SpendTransactionData>();
+        for (int i = 0; i < 2; i++) {
+            var basket = new Basket(UUID.randomUUID(), TestSuiteWithPromotion.basket.getBasketItemList());
+            generateSpendCouponSignature(generateSpendCouponRequest(generateToken(), basket), basket, spendTransactionData::add);
+        }
+        // Moving a transaction to another basket changes gamma and invalidates the coupon signature
+        var valid = spendTransactionData.get(1);
+        var movedToOtherBasket = new SpendTransactionData(valid.getPromotionId(), valid.getDsid(), UUID.randomUUID(),
+                valid.getTokenSignature(), valid.getCouponSignature(), valid.getStorePublicKey(), valid.getC(),
+                valid.getGamma(), valid.getC0(), valid.getcPre0(), valid.getcPre1(), valid.getProof());
+
+        var result = syncSpendTransactionData(webClient, List.of(
+                spendTransactionDataDto(spendTransactionData.get(0), TestSuiteWithPromotion.promotion.getPromotionParameters().getPromotionId()),
+                spendTransactionDataDto(spendTransactionData.get(1), null),
+                spendTransactionDataDto(movedToOtherBasket, TestSuiteWithPromotion.promotion.getPromotionParameters().getPromotionId()),
+                spendTransactionDataDto(spendTransactionData.get(1), TestSuiteWithPromotion.promotion.getPromotionParameters().getPromotionId())
+        ));
+
+        assertThat(result.getAdded()).isEqualTo(2);
+        assertThat(result.getRejected()).extracting(SpendTransactionDataResultDto.Rejection::getIndex).containsExactly(1, 2);
+    }
+
+    /**
+     * Streams more records than fit into one chunk (the test configuration uses chunks of two records), such that
+     * the records of the first chunks are added before the invalid records of later chunks are read.
+     */
+    @Test
+    public void streamedSpendTransactionDataIsAddedInChunksTest(@Autowired WebTestClient webClient, @Autowired ObjectMapper objectMapper) throws Exception {
+        addPromotion(webClient, TestSuiteWithPromotion.promotion, providerSecret, HttpStatus.OK);
+        var promotionId = TestSuiteWithPromotion.promotion.getPromotionParameters().getPromotionId();
+
+        var spendTransactionData = new ArrayList<SpendTransactionData>();
+        for (int i = 0; i < 4; i++) {
+            var basket = new Basket(UUID.randomUUID(), TestSuiteWithPromotion.basket.getBasketItemList());
+            generateSpendCouponSignature(generateSpendCouponRequest(generateToken(), basket), basket, spendTransactionData::add);
+        }
+        var lines = List.of(
+                objectMapper.writeValueAsString(spendTransactionDataDto(spendTransactionData.get(0), promotionId)),
+                objectMapper.writeValueAsString(spendTransactionDataDto(spendTransactionData.get(1), promotionId)),
+                "{\"promotionId\": ",
+                objectMapper.writeValueAsString(spendTransactionDataDto(spendTransactionData.get(2), promotionId)),
+                objectMapper.writeValueAsString(spendTransactionDataDto(spendTransactionData.get(3), null)),
+                objectMapper.writeValueAsString(spendTransactionDataDto(spendTransactionData.get(3), promotionId))
+        );
+
+        var result = webClient.post()
+                .uri("/spend-transaction-data/stream")
+                .contentType(MediaType.valueOf("application/x-ndjson"))
+                .body(BodyInserters.fromValue(String.join("\n", lines)))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(SpendTransactionDataResultDto.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(result).isNotNull();
+        assertThat(result.getAdded()).isEqualTo(4);
+        assertThat(result.getRejected()).extracting(SpendTransactionDataResultDto.Rejection::getIndex).containsExactly(2, 4);
+        assertThat(result.getRejected().get(0).getReason()).startsWith("Malformed JSON");
+    }
+
+    @Test
+    public void unknownDsidBlacklistOperationIsRejectedTest(@Autowired WebTestClient webClient) {
+        var zn = pp.getBg().getZn();
+        webClient.post()
+                .uri("/dsid-blacklist/remove")
+                .header("provider-secret", providerSecret)
+                .body(BodyInserters.fromValue(new DsidBlacklistEntryDto(zn.getUniformlyRandomElement(), zn.getUniformlyRandomElement())))
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    private static EnrichedSpendTransactionDataDto spendTransactionDataDto(SpendTransactionData spendTransactionData, BigInteger promotionId) {
+        return new EnrichedSpendTransactionDataDto(
+                spendTransactionData,
+                promotionId,
+                TestSuiteWithPromotion.spendTokenUpdate.getTokenUpdateId(),
+                jsonConverter.serialize(new RepresentableRepresentation(TestSuiteWithPromotion.metadata)),
+                TestSuiteWithPromotion.basketPoints.toList()
+        );
+    }
+
     private SPSEQSignature retrieveRegistrationSignatureForCoupon(WebTestClient webClient, RegistrationCoupon registrationCoupon) {
         var serializedSignature = webClient.get()
                 .uri("/register-with-coupon")
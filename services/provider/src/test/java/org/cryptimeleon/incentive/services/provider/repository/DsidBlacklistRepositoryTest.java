@@ -0,0 +1,60 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.BilinearGroupChoice;
+import org.cryptimeleon.incentive.crypto.IncentiveSystem;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DsidBlacklistRepositoryTest {
+    final Zn zn = IncentiveSystem.setup(128, BilinearGroupChoice.Debug).getBg().getZn();
+
+    @Test
+    void onlyOneConcurrentReservationWithDifferentGammaSucceedsTest() throws InterruptedException, ExecutionException {
+        var repository = new DsidBlacklistRepository();
+        var dsid = zn.getUniformlyRandomElement();
+        int threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        var start = new CountDownLatch(1);
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            var gamma = zn.getUniformlyRandomElement();
+            results.add(executor.submit(() -> {
+                start.await();
+                return repository.checkAndReserve(dsid, gamma);
+            }));
+        }
+        start.countDown();
+
+        int successful = 0;
+        for (var result : results) {
+            if (result.get()) {
+                successful++;
+            }
+        }
+        executor.shutdown();
+
+        assertThat(successful).isEqualTo(1);
+    }
+
+    @Test
+    void retryWithSameGammaSucceedsTest() {
+        var repository = new DsidBlacklistRepository();
+        var dsid = zn.getUniformlyRandomElement();
+        var gamma = zn.getUniformlyRandomElement();
+
+        assertThat(repository.checkAndReserve(dsid, gamma)).isTrue();
+        assertThat(repository.checkAndReserve(dsid, gamma)).isTrue();
+        assertThat(repository.checkAndReserve(dsid, zn.getUniformlyRandomElement())).isFalse();
+        assertThat(repository.containsDsidWithDifferentGamma(dsid, gamma)).isFalse();
+    }
+}
@@ -0,0 +1,26 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transport between shards in the same JVM, e.g. to run several provider nodes in one test.
+ */
+public class LocalDsidBlacklistShardTransport implements DsidBlacklistShardTransport {
+    private final Map<String, IDsidBlacklistHandler> shards = new ConcurrentHashMap<>();
+
+    public void register(String node, IDsidBlacklistHandler shard) {
+        shards.put(node, shard);
+    }
+
+    @Override
+    public IDsidBlacklistHandler connect(String node) {
+        var shard = shards.get(node);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown blacklist node " + node);
+        }
+        return shard;
+    }
+}
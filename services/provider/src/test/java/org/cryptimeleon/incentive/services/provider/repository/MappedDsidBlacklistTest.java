@@ -0,0 +1,102 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.BilinearGroupChoice;
+import org.cryptimeleon.incentive.crypto.IncentiveSystem;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedDsidBlacklistTest {
+    final Zn zn = IncentiveSystem.setup(128, BilinearGroupChoice.Debug).getBg().getZn();
+
+    @Test
+    void entriesSurviveReopeningTest(@TempDir Path tempDir) throws IOException {
+        var file = tempDir.resolve("dsid-blacklist");
+        var dsid = zn.getUniformlyRandomElement();
+        var gamma = zn.getUniformlyRandomElement();
+        var otherGamma = zn.getUniformlyRandomElement();
+
+        try (var blacklist = new MappedDsidBlacklist(file, 1000)) {
+            assertThat(blacklist.getCapacity()).isEqualTo(1024);
+            assertThat(blacklist.containsDsidWithDifferentGamma(dsid, gamma)).isFalse();
+            assertThat(blacklist.checkAndReserve(dsid, gamma)).isTrue();
+            for (int i = 0; i < 100; i++) {
+                blacklist.addEntryIfDsidNotPresent(zn.getUniformlyRandomElement(), zn.getUniformlyRandomElement());
+            }
+        }
+
+        // Capacity of an existing file is kept
+        try (var blacklist = new MappedDsidBlacklist(file, 16)) {
+            assertThat(blacklist.size()).isEqualTo(101);
+            assertThat(blacklist.getCapacity()).isEqualTo(1024);
+            assertThat(blacklist.checkAndReserve(dsid, gamma)).isTrue();
+            assertThat(blacklist.checkAndReserve(dsid, otherGamma)).isFalse();
+            assertThat(blacklist.containsDsidWithDifferentGamma(dsid, otherGamma)).isTrue();
+            assertThat(blacklist.containsDsidWithDifferentGamma(zn.getUniformlyRandomElement(), gamma)).isFalse();
+        }
+    }
+
+    @Test
+    void bloomFilterIsRebuiltWithoutCleanCloseTest(@TempDir Path tempDir) throws IOException {
+        var file = tempDir.resolve("dsid-blacklist");
+        var dsid = zn.getUniformlyRandomElement();
+        var gamma = zn.getUniformlyRandomElement();
+
+        try (var blacklist = new MappedDsidBlacklist(file, 1000)) {
+            blacklist.checkAndReserve(dsid, gamma);
+        }
+        assertThat(tempDir.resolve("dsid-blacklist.bloom")).exists();
+
+        // Simulate a crash after the next start, the persisted Bloom filter does not contain the new entry
+        var otherDsid = zn.getUniformlyRandomElement();
+        var crashed = new MappedDsidBlacklist(file, 1000);
+        crashed.checkAndReserve(otherDsid, gamma);
+        crashed.flush();
+
+        try (var blacklist = new MappedDsidBlacklist(file, 1000)) {
+            assertThat(blacklist.size()).isEqualTo(2);
+            assertThat(blacklist.containsDsidWithDifferentGamma(dsid, zn.getUniformlyRandomElement())).isTrue();
+            assertThat(blacklist.containsDsidWithDifferentGamma(otherDsid, zn.getUniformlyRandomElement())).isTrue();
+        }
+        crashed.close();
+    }
+
+    @Test
+    void concurrentReservationsOfOneDsidTest(@TempDir Path tempDir) throws Exception {
+        var dsid = zn.getUniformlyRandomElement();
+        var executor = Executors.newFixedThreadPool(8);
+        try (var blacklist = new MappedDsidBlacklist(tempDir.resolve("dsid-blacklist"), 1 << 12)) {
+            var tasks = new ArrayList<Callable<Boolean>>();
+            for (int i = 0; i < 64; i++) {
+                var gamma = zn.getUniformlyRandomElement();
+                tasks.add(() -> {
+                    // Other dsids, some of them collide with the slots probed for the shared dsid
+                    for (int j = 0; j < 16; j++) {
+                        blacklist.checkAndReserve(zn.getUniformlyRandomElement(), gamma);
+                    }
+                    return blacklist.checkAndReserve(dsid, gamma);
+                });
+            }
+
+            long reserved = 0;
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                if (result.get()) {
+                    reserved++;
+                }
+            }
+            assertThat(reserved).isEqualTo(1);
+            assertThat(blacklist.size()).isEqualTo(64 * 16 + 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
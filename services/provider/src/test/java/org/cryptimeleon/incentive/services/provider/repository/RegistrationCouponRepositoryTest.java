@@ -0,0 +1,48 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.TestSuite;
+import org.cryptimeleon.incentive.crypto.model.RegistrationCoupon;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RegistrationCouponRepositoryTest {
+
+    @Test
+    void couponsSurviveReopeningTest(@TempDir Path tempDir) throws IOException {
+        var cryptoRepository = mock(CryptoRepository.class);
+        when(cryptoRepository.getPublicParameters()).thenReturn(TestSuite.pp);
+
+        List<RegistrationCoupon> coupons = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            var userPublicKey = TestSuite.incentiveSystem.generateUserPreKeyPair().getPk();
+            coupons.add(TestSuite.incentiveSystem.signRegistrationCoupon(TestSuite.storeKeyPair, userPublicKey, "User " + i));
+        }
+
+        var repository = new RegistrationCouponRepository(cryptoRepository, tempDir.toString(), 65536);
+        coupons.forEach(repository::addCoupon);
+        assertThat(repository.findEntryFor(coupons.get(3).getUserPublicKey())).contains(coupons.get(3));
+        repository.close();
+
+        var reopened = new RegistrationCouponRepository(cryptoRepository, tempDir.toString(), 65536);
+        assertThat(reopened.size()).isEqualTo(5);
+        for (RegistrationCoupon coupon : coupons) {
+            assertThat(reopened.findEntryFor(coupon.getUserPublicKey())).contains(coupon);
+        }
+        assertThat(reopened.findEntryFor(TestSuite.incentiveSystem.generateUserPreKeyPair().getPk())).isEmpty();
+
+        // Pages follow the registration order
+        assertThat(reopened.getCoupons(0, 2)).containsExactly(coupons.get(0), coupons.get(1));
+        assertThat(reopened.getCoupons(2, 2)).containsExactly(coupons.get(4));
+        assertThat(reopened.getCoupons(3, 2)).isEmpty();
+        reopened.close();
+    }
+}
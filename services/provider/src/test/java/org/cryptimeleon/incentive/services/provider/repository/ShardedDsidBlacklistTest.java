@@ -0,0 +1,63 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.BilinearGroupChoice;
+import org.cryptimeleon.incentive.crypto.IncentiveSystem;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardedDsidBlacklistTest {
+    final Zn zn = IncentiveSystem.setup(128, BilinearGroupChoice.Debug).getBg().getZn();
+
+    @Test
+    void eachDsidHasOneOwnerAcrossNodesTest() {
+        var nodes = List.of("node-a", "node-b", "node-c");
+        var transport = new LocalDsidBlacklistShardTransport();
+        Map<String, DsidBlacklistRepository> localShards = new LinkedHashMap<>();
+        List<ShardedDsidBlacklist> blacklists = new ArrayList<>();
+        for (String node : nodes) {
+            var localShard = new DsidBlacklistRepository();
+            localShards.put(node, localShard);
+            transport.register(node, localShard);
+            blacklists.add(new ShardedDsidBlacklist(nodes, node, localShard, transport));
+        }
+
+        int entries = 300;
+        for (int i = 0; i < entries; i++) {
+            var dsid = zn.getUniformlyRandomElement();
+            var gamma = zn.getUniformlyRandomElement();
+            var otherGamma = zn.getUniformlyRandomElement();
+            var owner = blacklists.get(0).ownerOf(dsid);
+
+            // Reserve via one node, all nodes see the reservation and route to the same owner
+            assertThat(blacklists.get(i % 3).checkAndReserve(dsid, gamma)).isTrue();
+            for (ShardedDsidBlacklist blacklist : blacklists) {
+                assertThat(blacklist.ownerOf(dsid)).isEqualTo(owner);
+                assertThat(blacklist.checkAndReserve(dsid, gamma)).isTrue();
+                assertThat(blacklist.checkAndReserve(dsid, otherGamma)).isFalse();
+                assertThat(blacklist.containsDsidWithDifferentGamma(dsid, otherGamma)).isTrue();
+            }
+            assertThat(localShards.get(owner).dsMap).containsKey(dsid);
+        }
+
+        // Every dsid is stored exactly once and all nodes own a share
+        assertThat(localShards.values().stream().mapToInt(shard -> shard.dsMap.size()).sum()).isEqualTo(entries);
+        assertThat(localShards.values()).allSatisfy(shard -> assertThat(shard.dsMap).isNotEmpty());
+    }
+
+    @Test
+    void withoutNodeListAllDsidsAreLocalTest() {
+        var localShard = new DsidBlacklistRepository();
+        var blacklist = new ShardedDsidBlacklist(List.of(), "", localShard, new LocalDsidBlacklistShardTransport());
+        var dsid = zn.getUniformlyRandomElement();
+
+        assertThat(blacklist.checkAndReserve(dsid, zn.getUniformlyRandomElement())).isTrue();
+        assertThat(localShard.dsMap).containsKey(dsid);
+    }
+}
@@ -0,0 +1,116 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionLogTest {
+
+    @Test
+    void recordsSurviveReopeningTest(@TempDir Path tempDir) throws IOException {
+        var positions = new ArrayList<Long>();
+        long endPosition;
+        // Small segments, such that the records span several segments
+        try (var transactionLog = new TransactionLog(tempDir, 256, 1)) {
+            for (int i = 0; i < 20; i++) {
+                positions.add(transactionLog.append((byte) (i % 2), payload(i)));
+            }
+            endPosition = transactionLog.getEndPosition();
+            assertThat(transactionLog.read(positions.get(7))).isEqualTo(payload(7));
+        }
+
+        try (var transactionLog = new TransactionLog(tempDir, 256, 1)) {
+            assertThat(transactionLog.getEndPosition()).isEqualTo(endPosition);
+            var replayed = new ArrayList<byte[]>();
+            var replayedPositions = new ArrayList<Long>();
+            transactionLog.replay(0, (type, payload, position) -> {
+                assertThat(type).isEqualTo((byte) (replayed.size() % 2));
+                replayed.add(payload);
+                replayedPositions.add(position);
+            });
+            assertThat(replayedPositions).isEqualTo(positions);
+            for (int i = 0; i < 20; i++) {
+                assertThat(replayed.get(i)).isEqualTo(payload(i));
+            }
+
+            // Replay from a position only returns the later records
+            var later = new ArrayList<Long>();
+            transactionLog.replay(positions.get(15), (type, payload, position) -> later.add(position));
+            assertThat(later).isEqualTo(positions.subList(15, 20));
+
+            transactionLog.append((byte) 0, payload(20));
+            assertThat(transactionLog.getEndPosition()).isGreaterThan(endPosition);
+        }
+    }
+
+    @Test
+    void appendAllTest(@TempDir Path tempDir) throws IOException {
+        try (var transactionLog = new TransactionLog(tempDir, 256, 1)) {
+            var payloads = new ArrayList<byte[]>();
+            for (int i = 0; i < 20; i++) {
+                payloads.add(payload(i));
+            }
+            long[] positions = transactionLog.appendAll((byte) 2, payloads);
+
+            assertThat(positions).hasSize(20).isSorted();
+            for (int i = 0; i < 20; i++) {
+                assertThat(transactionLog.read(positions[i])).isEqualTo(payload(i));
+            }
+        }
+    }
+
+    @Test
+    void closeReleasesWaitingAppendsTest(@TempDir Path tempDir) throws Exception {
+        // The commit interval is longer than the test, only close can make the append durable
+        var transactionLog = new TransactionLog(tempDir, 256, 60_000);
+        var appended = new CompletableFuture<Long>();
+        var appender = new Thread(() -> appended.complete(transactionLog.append((byte) 0, payload(0))));
+        appender.start();
+        while (transactionLog.getEndPosition() == 0) {
+            Thread.sleep(1);
+        }
+        assertThat(appended).isNotDone();
+
+        transactionLog.close();
+        assertThat(appended.get(10, TimeUnit.SECONDS)).isZero();
+    }
+
+    @Test
+    void tornRecordIsDiscardedTest(@TempDir Path tempDir) throws IOException {
+        long secondPosition;
+        try (var transactionLog = new TransactionLog(tempDir, 1024, 1)) {
+            transactionLog.append((byte) 1, payload(1));
+            secondPosition = transactionLog.append((byte) 1, payload(2));
+        }
+
+        // Corrupt the payload of the second record
+        try (var channel = FileChannel.open(tempDir.resolve("segment-0000000000.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), secondPosition + 6);
+        }
+
+        try (var transactionLog = new TransactionLog(tempDir, 1024, 1)) {
+            assertThat(transactionLog.getEndPosition()).isEqualTo(secondPosition);
+            List<byte[]> replayed = new ArrayList<>();
+            transactionLog.replay(0, (type, payload, position) -> replayed.add(payload));
+            assertThat(replayed).hasSize(1);
+        }
+    }
+
+    private static byte[] payload(int i) {
+        var payload = new byte[10 + i];
+        payload[0] = (byte) i;
+        payload[payload.length - 1] = (byte) i;
+        return payload;
+    }
+}
@@ -0,0 +1,105 @@
+package org.cryptimeleon.incentive.services.provider.repository;
+
+import org.cryptimeleon.incentive.crypto.Helper;
+import org.cryptimeleon.incentive.crypto.TestSuite;
+import org.cryptimeleon.incentive.crypto.callback.IStoreBasketRedeemedHandler;
+import org.cryptimeleon.incentive.crypto.exception.StoreDoubleSpendingDetectedException;
+import org.cryptimeleon.incentive.crypto.model.SpendTransactionData;
+import org.cryptimeleon.incentive.crypto.model.Token;
+import org.cryptimeleon.incentive.promotion.TestSuiteWithPromotion;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TransactionRepositoryTest {
+
+    @Test
+    void doubleSpendingIsDetectedAcrossSyncsTest(@TempDir Path tempDir) throws Exception {
+        var cryptoRepository = mock(CryptoRepository.class);
+        when(cryptoRepository.getPublicParameters()).thenReturn(TestSuite.pp);
+        when(cryptoRepository.getIncentiveSystem()).thenReturn(TestSuite.incentiveSystem);
+        var transactionRepository = new TransactionRepository(cryptoRepository, tempDir.toString(), 1 << 20, 1, 100);
+
+        var token = generateToken();
+        var otherToken = generateToken();
+        var firstBasketId = UUID.randomUUID();
+        var secondBasketId = UUID.randomUUID();
+        var thirdBasketId = UUID.randomUUID();
+
+        // First sync: every token has been spent once
+        transactionRepository.addSpendData(List.of(spend(token, firstBasketId), spend(otherToken, UUID.randomUUID())));
+        Thread.sleep(100);
+        assertThat(transactionRepository.getDoubleSpendingDetected()).isEmpty();
+
+        // Second sync: the token is spent again, which links both spends
+        transactionRepository.addSpendData(spend(token, secondBasketId));
+        awaitUntil(() -> transactionRepository.getDoubleSpendingDetected().size() == 2);
+        assertThat(transactionRepository.getDoubleSpendingDetected()).containsOnlyKeys(firstBasketId, secondBasketId);
+        assertThat(transactionRepository.getDoubleSpendingDetected().get(firstBasketId).getUpk())
+                .isEqualTo(TestSuiteWithPromotion.userKeyPair.getPk());
+
+        // Third sync: a further spend of the same token is detected as well
+        transactionRepository.addSpendData(spend(token, thirdBasketId));
+        awaitUntil(() -> transactionRepository.getDoubleSpendingDetected().size() == 3);
+        assertThat(transactionRepository.getDoubleSpendingDetected()).containsOnlyKeys(firstBasketId, secondBasketId, thirdBasketId);
+        transactionRepository.close();
+    }
+
+    private static Token generateToken() {
+        return Helper.generateToken(
+                TestSuite.pp,
+                TestSuiteWithPromotion.userKeyPair,
+                TestSuiteWithPromotion.providerKeyPair,
+                TestSuiteWithPromotion.promotion.getPromotionParameters(),
+                TestSuiteWithPromotion.pointsBeforeSpend
+        );
+    }
+
+    /**
+     * Runs the store side of a spend and returns the resulting transaction data.
+     */
+    private static SpendTransactionData spend(Token token, UUID basketId) throws StoreDoubleSpendingDetectedException {
+        var incentiveSystem = TestSuite.incentiveSystem;
+        var spendStoreRequest = incentiveSystem.generateStoreSpendRequest(
+                TestSuiteWithPromotion.userKeyPair,
+                TestSuiteWithPromotion.providerKeyPair.getPk(),
+                token,
+                TestSuiteWithPromotion.promotion.getPromotionParameters(),
+                basketId,
+                TestSuiteWithPromotion.pointsAfterSpend,
+                TestSuiteWithPromotion.tree,
+                TestSuiteWithPromotion.context);
+        var spendTransactionData = new ArrayList<SpendTransactionData>();
+        // A fresh blacklist per spend, such that the store does not detect the double-spending already
+        incentiveSystem.signSpendCoupon(
+                TestSuiteWithPromotion.storeKeyPair,
+                TestSuiteWithPromotion.providerKeyPair.getPk(),
+                basketId,
+                TestSuiteWithPromotion.promotion.getPromotionParameters(),
+                spendStoreRequest,
+                TestSuiteWithPromotion.tree,
+                TestSuiteWithPromotion.context,
+                (id, promotionId, hash) -> IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_NOT_REDEEMED,
+                new TestSuite.TestDsidBlacklist(),
+                spendTransactionData::add
+        );
+        return spendTransactionData.get(0);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
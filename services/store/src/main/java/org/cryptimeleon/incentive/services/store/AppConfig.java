@@ -1,8 +1,16 @@
 package org.cryptimeleon.incentive.services.store;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Enable fire-and-forget request with @Async
  */
@@ -10,4 +18,23 @@ import org.springframework.scheduling.annotation.EnableAsync;
 @EnableAsync
 public class AppConfig {
 
+    /**
+     * Bounded executor for the verification and signing of the earn and spend requests of bulk requests.
+     * The pool has store.crypto-executor.threads threads (default: one per core). Once its queue is full, the
+     * submitting request thread runs the task itself, which throttles new requests instead of queueing without bound.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService cryptoExecutor(@Value("${store.crypto-executor.threads:0}") int threads,
+                                          @Value("${store.crypto-executor.queue-size:1024}") int queueSize) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        var threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    var thread = new Thread(runnable, "store-crypto-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
 }
@@ -1,11 +1,15 @@
 package org.cryptimeleon.incentive.services.store;
 
 import io.swagger.annotations.ApiOperation;
+import org.cryptimeleon.incentive.client.RepresentationCodec;
 import org.cryptimeleon.incentive.client.dto.store.BulkRequestStoreDto;
 import org.cryptimeleon.incentive.client.dto.store.BulkResultsStoreDto;
+import org.cryptimeleon.incentive.services.store.exceptions.BulkResultsFullException;
 import org.cryptimeleon.incentive.services.store.exceptions.DSPreventedException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
@@ -54,11 +58,15 @@ public class IncentiveController {
      * Send a bulk request, i.e., a bundle of earn and spend requests associated to the same basket.
      * The requests are processed, but the results held back until the corresponding basket is paid.
      *
+     * Requests sent with the {@link RepresentationCodec#BINARY_MEDIA_TYPE} content type get their results in the binary
+     * format, all others in JSON.
+     *
+     * @param contentType         the content type of the request
      * @param bulkRequestStoreDto a dto containing all individual token update requests
      */
-    @PostMapping("/bulk")
-    ResponseEntity<Void> bulkRequest(@RequestBody BulkRequestStoreDto bulkRequestStoreDto) {
-        incentiveService.processBulkRequest(bulkRequestStoreDto);
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, RepresentationCodec.BINARY_MEDIA_TYPE_VALUE})
+    ResponseEntity<Void> bulkRequest(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType, @RequestBody BulkRequestStoreDto bulkRequestStoreDto) {
+        incentiveService.processBulkRequest(bulkRequestStoreDto, RepresentationCodec.forContentType(contentType));
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
@@ -125,6 +133,11 @@ public class IncentiveController {
         return new ResponseEntity<>("Double-spending prevented", HttpStatus.I_AM_A_TEAPOT);
     }
 
+    @ExceptionHandler(BulkResultsFullException.class)
+    public ResponseEntity<String> handleException(BulkResultsFullException ex) {
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(StoreException.class)
     public ResponseEntity<String> handleException(StoreException ex) {
         // For debugging causes send the exception string
@@ -1,13 +1,16 @@
 package org.cryptimeleon.incentive.services.store;
 
+import org.cryptimeleon.incentive.client.RepresentationCodec;
 import org.cryptimeleon.incentive.client.dto.store.*;
+import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
 import org.cryptimeleon.incentive.crypto.callback.IStoreBasketRedeemedHandler;
+import org.cryptimeleon.incentive.crypto.callback.IVerificationResultCacheHandler;
 import org.cryptimeleon.incentive.crypto.exception.StoreDoubleSpendingDetectedException;
 import org.cryptimeleon.incentive.crypto.model.*;
 import org.cryptimeleon.incentive.crypto.model.keys.user.UserPublicKey;
 import org.cryptimeleon.incentive.crypto.proof.spend.tree.SpendDeductTree;
-import org.cryptimeleon.incentive.promotion.ContextManager;
 import org.cryptimeleon.incentive.promotion.Promotion;
+import org.cryptimeleon.incentive.promotion.SpendRelationCache;
 import org.cryptimeleon.incentive.promotion.ZkpTokenUpdate;
 import org.cryptimeleon.incentive.promotion.ZkpTokenUpdateMetadata;
 import org.cryptimeleon.incentive.promotion.model.Basket;
@@ -23,15 +26,18 @@ import org.cryptimeleon.math.hash.UniqueByteRepresentable;
 import org.cryptimeleon.math.serialization.RepresentableRepresentation;
 import org.cryptimeleon.math.serialization.converter.JSONConverter;
 import org.cryptimeleon.math.structures.cartesian.Vector;
+import org.cryptimeleon.math.structures.rings.zn.Zn;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigInteger;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service for the incentive-system-related functionality of the store service.
@@ -42,11 +48,17 @@ public class IncentiveService {
     private final CryptoRepository cryptoRepository;
     private final PromotionRepository promotionRepository;
     private final JSONConverter jsonConverter = new JSONConverter();
+    // Trees, contexts and metadata of recent spend requests
+    private final SpendRelationCache spendRelationCache = new SpendRelationCache(1024,
+            serializedMetadata -> (ZkpTokenUpdateMetadata) ((RepresentableRepresentation) RepresentationCodec.decode(serializedMetadata)).recreateRepresentable());
     private final BasketRepository basketRepository;
     private final DsidBlacklistRepository dsidBlacklistRepository;
     private final TransactionRepository transactionRepository;
     private final BulkResponseRepository bulkResponseRepository;
     private final RewardItemRepository rewardItemRepository;
+    private final VerificationResultCacheRepository verificationResultCacheRepository;
+    // Verifies and signs the requests of bulk requests
+    private final ExecutorService cryptoExecutor;
 
     @Autowired
     private IncentiveService(CryptoRepository cryptoRepository,
@@ -55,7 +67,9 @@ public class IncentiveService {
                              DsidBlacklistRepository dsidBlacklistRepository,
                              TransactionRepository transactionRepository,
                              BulkResponseRepository bulkResponseRepository,
-                             RewardItemRepository rewardItemRepository) {
+                             RewardItemRepository rewardItemRepository,
+                             VerificationResultCacheRepository verificationResultCacheRepository,
+                             ExecutorService cryptoExecutor) {
         this.cryptoRepository = cryptoRepository;
         this.promotionRepository = promotionRepository;
         this.basketRepository = basketRepository;
@@ -63,6 +77,8 @@ public class IncentiveService {
         this.transactionRepository = transactionRepository;
         this.bulkResponseRepository = bulkResponseRepository;
         this.rewardItemRepository = rewardItemRepository;
+        this.verificationResultCacheRepository = verificationResultCacheRepository;
+        this.cryptoExecutor = cryptoExecutor;
     }
 
     public static Basket promotionBasketFromBasketEntity(BasketEntity basketEntity) {
@@ -85,42 +101,83 @@ public class IncentiveService {
         return jsonConverter.serialize(registrationCoupon.getRepresentation());
     }
 
+    @Transactional
     public void processBulkRequest(BulkRequestStoreDto bulkRequestStoreDto) {
+        processBulkRequest(bulkRequestStoreDto, RepresentationCodec.json());
+    }
+
+    /**
+     * Processes all earn and spend requests of a bulk request and stores the results until the basket is paid.
+     * Requests may be serialized in any format supported by {@link RepresentationCodec}.
+     * <p>
+     * The basket is loaded and locked once. All requests are verified and signed in parallel against an in-memory view
+     * of its redeemed promotions, and the new redeem hashes and reward items are saved together at the end.
+     * Spend transaction data and cached responses are only handed on once the transaction commits. Dsids are reserved
+     * immediately, such that concurrent requests cannot spend the same token, and released again on a rollback, which
+     * also drops the held back results.
+     *
+     * @param bulkRequestStoreDto the requests
+     * @param codec               the codec used to serialize the results
+     */
+    @Transactional
+    public void processBulkRequest(BulkRequestStoreDto bulkRequestStoreDto, RepresentationCodec codec) {
         // Verification
         UUID basketId = bulkRequestStoreDto.getBasketId();
-        BasketEntity basketEntity = basketRepository.findById(basketId)
+        BasketEntity basketEntity = basketRepository.findLockedByBasketID(basketId)
                 .orElseThrow(() -> new StoreException(String.format("Cannot find basket with id %s", basketId)));
 
         // Lock basket
         basketEntity.setLocked(true);
-        basketRepository.save(basketEntity);
 
-        Basket basket = promotionBasketFromBasketEntity(basketEntity);
-        // Process all earn and spend requests and store results(TODO in parallel?, check if duplicate promotionIds?)
+        var promotionIds = new HashSet<BigInteger>();
+        bulkRequestStoreDto.getEarnRequestStoreDtoList().forEach(earnRequestStoreDto -> promotionIds.add(earnRequestStoreDto.getPromotionId()));
+        bulkRequestStoreDto.getSpendRequestStoreDtoList().forEach(spendRequestStoreDto -> promotionIds.add(spendRequestStoreDto.getPromotionId()));
+        var bulk = new BulkContext(basketEntity, promotionIds);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    bulk.commit();
+                } else {
+                    bulk.rollback();
+                }
+            }
+        });
         // Earn
-        List<EarnResultStoreDto> earnResultStoreDtoList = bulkRequestStoreDto.getEarnRequestStoreDtoList().stream().map(earnRequestStoreDto -> {
-            EarnStoreResponse signature = earn(earnRequestStoreDto, basket);
-            return new EarnResultStoreDto(earnRequestStoreDto.getPromotionId(), jsonConverter.serialize(signature.getRepresentation()));
-        }).collect(Collectors.toList());
+        List<CompletableFuture<EarnResultStoreDto>> earnResultFutures = bulkRequestStoreDto.getEarnRequestStoreDtoList().stream()
+                .map(earnRequestStoreDto -> CompletableFuture.supplyAsync(() -> {
+                    EarnStoreResponse signature = earn(earnRequestStoreDto, bulk);
+                    return new EarnResultStoreDto(earnRequestStoreDto.getPromotionId(), codec.encode(signature.getRepresentation()));
+                }, cryptoExecutor))
+                .collect(Collectors.toList());
 
         // Spend
-        List<SpendResultsStoreDto> spendResultsStoreDtoList = bulkRequestStoreDto.getSpendRequestStoreDtoList().stream().map(spendRequestStoreDto -> {
-                    var signature = spend(spendRequestStoreDto, basket);
-                    return new SpendResultsStoreDto(spendRequestStoreDto.getPromotionId(), jsonConverter.serialize(signature.getRepresentation()));
-                }
-        ).collect(Collectors.toList());
+        List<CompletableFuture<SpendResultsStoreDto>> spendResultFutures = bulkRequestStoreDto.getSpendRequestStoreDtoList().stream()
+                .map(spendRequestStoreDto -> CompletableFuture.supplyAsync(() -> {
+                    var signature = spend(spendRequestStoreDto, bulk);
+                    return new SpendResultsStoreDto(spendRequestStoreDto.getPromotionId(), codec.encode(signature.getRepresentation()));
+                }, cryptoExecutor))
+                .collect(Collectors.toList());
+
+        List<EarnResultStoreDto> earnResultStoreDtoList;
+        List<SpendResultsStoreDto> spendResultsStoreDtoList;
+        try {
+            earnResultStoreDtoList = earnResultFutures.stream().map(IncentiveService::join).collect(Collectors.toList());
+            spendResultsStoreDtoList = spendResultFutures.stream().map(IncentiveService::join).collect(Collectors.toList());
+        } catch (RuntimeException e) {
+            // Wait for the remaining requests, such that the rollback releases their dsid reservations as well
+            CompletableFuture.allOf(Stream.concat(earnResultFutures.stream(), spendResultFutures.stream()).toArray(CompletableFuture[]::new))
+                    .exceptionally(t -> null)
+                    .join();
+            throw e;
+        }
 
         bulkResponseRepository.addBulkResult(basketId, new BulkResultsStoreDto(earnResultStoreDtoList, spendResultsStoreDtoList));
+        bulk.resultAdded = true;
 
         // Add reward items to basket
         List<RewardItemEntity> rewardItemEntities = bulkRequestStoreDto.getSpendRequestStoreDtoList().stream()
-                .map(spendRequestStoreDto -> {
-                    Promotion promotion = promotionRepository.getPromotion(spendRequestStoreDto.getPromotionId())
-                            .orElseThrow(() -> new StoreException(String.format("Cannot find promotion with id %s", spendRequestStoreDto.getPromotionId())));
-                    ZkpTokenUpdate requestedTokenUpdate = promotion.getZkpTokenUpdates().stream().filter(zkpTokenUpdate -> zkpTokenUpdate.getTokenUpdateId().equals(spendRequestStoreDto.getTokenUpdateId())).findAny()
-                            .orElseThrow(() -> new StoreException(String.format("Cannot find token update with id %s in promotion with id %s", spendRequestStoreDto.getTokenUpdateId(), promotion)));
-                    return requestedTokenUpdate.getSideEffect();
-                })
+                .map(spendRequestStoreDto -> bulk.getTokenUpdate(spendRequestStoreDto.getPromotionId(), spendRequestStoreDto.getTokenUpdateId()).getSideEffect())
                 .filter(sideEffect -> sideEffect instanceof RewardSideEffect)
                 .map(sideEffect -> (RewardSideEffect) sideEffect)
                 .map(rewardSideEffect -> rewardItemRepository.findById(rewardSideEffect.getRewardId()))
@@ -129,9 +186,24 @@ public class IncentiveService {
                 .collect(Collectors.toList());
 
         basketEntity.addRewardItems(rewardItemEntities);
+        bulk.redeemedHashes.forEach(basketEntity::setRedeemHashForPromotionId);
         basketRepository.save(basketEntity);
     }
 
+    /**
+     * Waits for a future and rethrows its exception, such that failures surface as if they happened in this thread.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     public BulkResultsStoreDto bulkResponses(UUID basketId) {
         // Verification
         BasketEntity basketEntity = basketRepository.findById(basketId)
@@ -145,50 +217,47 @@ public class IncentiveService {
         return bulkResponseRepository.removeBulkResultFor(basketId);
     }
 
-    public EarnStoreResponse earn(EarnRequestStoreDto earnRequestStoreDto, Basket basket) {
+    private EarnStoreResponse earn(EarnRequestStoreDto earnRequestStoreDto, BulkContext bulk) {
         var promotionId = earnRequestStoreDto.getPromotionId();
-        EarnStoreRequest earnStoreRequest = new EarnStoreRequest(jsonConverter.deserialize(earnRequestStoreDto.getSerializedRequest()));
-        Promotion promotion = promotionRepository.getPromotion(promotionId)
-                .orElseThrow(() -> new StoreException(String.format("Cannot find promotion with id %s", promotionId)));
+        EarnStoreRequest earnStoreRequest = new EarnStoreRequest(RepresentationCodec.decode(earnRequestStoreDto.getSerializedRequest()));
 
-        Vector<BigInteger> deltaK = promotion.computeEarningsForBasket(basket);
+        Vector<BigInteger> deltaK = bulk.getEarnings(promotionId);
 
         return cryptoRepository.getIncentiveSystem().signEarnCoupon(
                 cryptoRepository.getStoreKeyPair(),
                 deltaK,
                 earnStoreRequest,
-                basket.getBasketId(),
+                bulk.basket.getBasketId(),
                 promotionId,
-                this::checkBasketStateAndRedeem
+                bulk::checkBasketStateAndRedeem
         );
     }
 
-    public SpendStoreResponse spend(SpendRequestStoreDto spendRequestStoreDto, Basket basket) {
+    private SpendStoreResponse spend(SpendRequestStoreDto spendRequestStoreDto, BulkContext bulk) {
         var serializedSpendStoreRequest = spendRequestStoreDto.getSerializedRequest();
         var promotionId = spendRequestStoreDto.getPromotionId();
         UUID tokenUpdateId = spendRequestStoreDto.getTokenUpdateId();
         String serializedZkpTokenUpdateMetadata = spendRequestStoreDto.getSerializedTokenUpdateMetadata();
+        Basket basket = bulk.basket;
 
-
-        Promotion promotion = promotionRepository.getPromotion(promotionId)
-                .orElseThrow(() -> new StoreException(String.format("Cannot find promotion with id %s", promotionId)));
-        ZkpTokenUpdateMetadata zkpTokenUpdateMetadata = (ZkpTokenUpdateMetadata) ((RepresentableRepresentation) jsonConverter.deserialize(serializedZkpTokenUpdateMetadata)).recreateRepresentable();
-
-        ZkpTokenUpdate requestedTokenUpdate = promotion.getZkpTokenUpdates().stream().filter(zkpTokenUpdate -> zkpTokenUpdate.getTokenUpdateId().equals(tokenUpdateId)).findAny()
-                .orElseThrow(() -> new StoreException(String.format("Cannot find token update with id %s in promotion with id %s", tokenUpdateId, promotion)));
+        Promotion promotion = bulk.getPromotion(promotionId);
+        ZkpTokenUpdate requestedTokenUpdate = bulk.getTokenUpdate(promotionId, tokenUpdateId);
 
         // Include value of basket into spend, i.e. users need to spend fewer points from the token if their basket is worth some
-        Vector<BigInteger> basketValueForUpdate = promotion.computeEarningsForBasket(basket);
-        SpendDeductTree relationTree = requestedTokenUpdate.generateRelationTree(basketValueForUpdate, zkpTokenUpdateMetadata);
-        UniqueByteRepresentable context = ContextManager.computeContext(tokenUpdateId, basketValueForUpdate, zkpTokenUpdateMetadata);
+        Vector<BigInteger> basketValueForUpdate = bulk.getEarnings(promotionId);
+        var spendRelation = spendRelationCache.get(requestedTokenUpdate, basketValueForUpdate, serializedZkpTokenUpdateMetadata);
+        SpendDeductTree relationTree = spendRelation.getTree();
+        UniqueByteRepresentable context = spendRelation.getContext();
 
-        SpendStoreRequest spendStoreRequest = new SpendStoreRequest(jsonConverter.deserialize(serializedSpendStoreRequest),
+        SpendStoreRequest spendStoreRequest = new SpendStoreRequest(RepresentationCodec.decode(serializedSpendStoreRequest),
                 cryptoRepository.getPublicParameters(),
                 basket.getBasketId(),
                 promotion.getPromotionParameters(),
                 cryptoRepository.getProviderPublicKey(),
                 relationTree,
-                context);
+                context,
+                cryptoRepository.getIncentiveSystem().getSpendDeductZkpCache(),
+                true);
 
         try {
             return cryptoRepository.getIncentiveSystem().signSpendCoupon(
@@ -199,29 +268,115 @@ public class IncentiveService {
                     spendStoreRequest,
                     relationTree,
                     context,
-                    this::checkBasketStateAndRedeem,
-                    dsidBlacklistRepository,
-                    spendTransactionData -> transactionRepository.addSpendData(new BasketSpendTransactionData(basket.getBasketId(), promotion, requestedTokenUpdate, spendTransactionData, serializedZkpTokenUpdateMetadata, basketValueForUpdate.toList()))
+                    bulk::checkBasketStateAndRedeem,
+                    bulk,
+                    spendTransactionData -> bulk.spendTransactionData.add(new BasketSpendTransactionData(basket.getBasketId(), promotion, requestedTokenUpdate, spendTransactionData, serializedZkpTokenUpdateMetadata, basketValueForUpdate.toList())),
+                    bulk
             );
         } catch (StoreDoubleSpendingDetectedException e) {
             throw new DSPreventedException();
         }
     }
 
-    IStoreBasketRedeemedHandler.BasketRedeemState checkBasketStateAndRedeem(UUID basketId, BigInteger promotionId, byte[] hash) {
-        BasketEntity basketEntity = basketRepository.findById(basketId)
-                .orElseThrow(() -> new StoreException(String.format("Cannot find basket with id %s", basketId)));
-        var redeemedHashOptional = basketEntity.getRedeemHashForPromotionId(promotionId);
-        if (redeemedHashOptional.isEmpty()) {
-            basketEntity.setRedeemHashForPromotionId(promotionId, hash);
-            basketRepository.save(basketEntity);
-            return IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_NOT_REDEEMED;
+    /**
+     * State shared by the requests of one bulk request: the basket, lookups that only depend on the promotion, and the
+     * redeem hashes of the basket. Redeem hashes are checked and set in memory and saved with the basket afterwards.
+     * Also collects the side effects of the spend requests until the transaction completes.
+     * Responses are read from the shared result cache, but only cached once the transaction commits, since a retry
+     * after a rollback has to produce the spend transaction data again.
+     */
+    private class BulkContext implements IDsidBlacklistHandler, IVerificationResultCacheHandler<SpendStoreResponse> {
+        private final Basket basket;
+        private final Map<BigInteger, Promotion> promotions = new ConcurrentHashMap<>();
+        private final Map<BigInteger, Vector<BigInteger>> earnings = new ConcurrentHashMap<>();
+        private final Map<BigInteger, byte[]> existingHashes = new HashMap<>();
+        private final Map<BigInteger, byte[]> redeemedHashes = new HashMap<>();
+        private final List<BasketSpendTransactionData> spendTransactionData = Collections.synchronizedList(new ArrayList<>());
+        // (dsid, gamma) tuples added to the blacklist by this bulk request
+        private final List<Map.Entry<Zn.ZnElement, Zn.ZnElement>> reservedDsids = Collections.synchronizedList(new ArrayList<>());
+        private final List<Map.Entry<byte[], SpendStoreResponse>> pendingResults = Collections.synchronizedList(new ArrayList<>());
+        // Whether the results of this bulk request have been added to the bulk response repository
+        private boolean resultAdded = false;
+
+        BulkContext(BasketEntity basketEntity, Collection<BigInteger> promotionIds) {
+            this.basket = promotionBasketFromBasketEntity(basketEntity);
+            // Read the entity in this thread, workers only see the copies
+            for (BigInteger promotionId : promotionIds) {
+                basketEntity.getRedeemHashForPromotionId(promotionId).ifPresent(hash -> existingHashes.put(promotionId, hash));
+            }
+        }
+
+        Promotion getPromotion(BigInteger promotionId) {
+            return promotions.computeIfAbsent(promotionId, id -> promotionRepository.getPromotion(id)
+                    .orElseThrow(() -> new StoreException(String.format("Cannot find promotion with id %s", id))));
+        }
+
+        ZkpTokenUpdate getTokenUpdate(BigInteger promotionId, UUID tokenUpdateId) {
+            Promotion promotion = getPromotion(promotionId);
+            return promotionRepository.getTokenUpdate(promotionId, tokenUpdateId)
+                    .orElseThrow(() -> new StoreException(String.format("Cannot find token update with id %s in promotion with id %s", tokenUpdateId, promotion)));
+        }
+
+        Vector<BigInteger> getEarnings(BigInteger promotionId) {
+            return earnings.computeIfAbsent(promotionId, id -> getPromotion(id).computeEarningsForBasket(basket));
+        }
+
+        synchronized IStoreBasketRedeemedHandler.BasketRedeemState checkBasketStateAndRedeem(UUID basketId, BigInteger promotionId, byte[] hash) {
+            var redeemedHash = existingHashes.getOrDefault(promotionId, redeemedHashes.get(promotionId));
+            if (redeemedHash == null) {
+                redeemedHashes.put(promotionId, hash);
+                return IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_NOT_REDEEMED;
+            }
+
+            if (Arrays.equals(redeemedHash, hash)) {
+                return IStoreBasketRedeemedHandler.BasketRedeemState.BASKED_REDEEMED_RETRY;
+            } else {
+                return IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_REDEEMED_ABORT;
+            }
+        }
+
+        @Override
+        public boolean containsDsidWithDifferentGamma(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+            return dsidBlacklistRepository.containsDsidWithDifferentGamma(doubleSpendingId, gamma);
+        }
+
+        @Override
+        public void addEntryIfDsidNotPresent(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+            checkAndReserve(doubleSpendingId, gamma);
+        }
+
+        @Override
+        public boolean checkAndReserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+            var storedGamma = dsidBlacklistRepository.reserve(doubleSpendingId, gamma);
+            if (storedGamma == null) {
+                reservedDsids.add(Map.entry(doubleSpendingId, gamma));
+                return true;
+            }
+            return storedGamma.equals(gamma);
+        }
+
+        @Override
+        public Optional<SpendStoreResponse> get(byte[] digest) {
+            return verificationResultCacheRepository.getSpendResultCache().get(digest);
+        }
+
+        @Override
+        public void put(byte[] digest, SpendStoreResponse response) {
+            pendingResults.add(Map.entry(digest, response));
+        }
+
+        void commit() {
+            spendTransactionData.forEach(transactionRepository::addSpendData);
+            var spendResultCache = verificationResultCacheRepository.getSpendResultCache();
+            pendingResults.forEach(result -> spendResultCache.put(result.getKey(), result.getValue()));
         }
 
-        if (Arrays.equals(redeemedHashOptional.get(), hash)) {
-            return IStoreBasketRedeemedHandler.BasketRedeemState.BASKED_REDEEMED_RETRY;
-        } else {
-            return IStoreBasketRedeemedHandler.BasketRedeemState.BASKET_REDEEMED_ABORT;
+        void rollback() {
+            reservedDsids.forEach(reservation -> dsidBlacklistRepository.release(reservation.getKey(), reservation.getValue()));
+            // The results are added before the basket is saved, do not hand them out if saving fails
+            if (resultAdded) {
+                bulkResponseRepository.discardBulkResult(basket.getBasketId());
+            }
         }
     }
 
@@ -235,9 +390,11 @@ public class IncentiveService {
             Promotion promotion = (Promotion) representableRepresentation.recreateRepresentable();
             promotionRepository.addPromotion(promotion);
         }
+        spendRelationCache.clear();
     }
 
     public void deleteAllPromotions() {
         promotionRepository.deleteAllPromotions();
+        spendRelationCache.clear();
     }
 }
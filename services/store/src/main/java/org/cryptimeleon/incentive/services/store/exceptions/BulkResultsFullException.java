@@ -0,0 +1,11 @@
+package org.cryptimeleon.incentive.services.store.exceptions;
+
+/**
+ * Thrown if the results of a bulk request cannot be held back until the basket is paid, since the store keeps too many
+ * results already. Clients should retry later.
+ */
+public class BulkResultsFullException extends RuntimeException {
+    public BulkResultsFullException(String message) {
+        super(message);
+    }
+}
@@ -1,27 +1,232 @@
 package org.cryptimeleon.incentive.services.store.repository;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cryptimeleon.incentive.client.dto.store.BulkResultsStoreDto;
 import org.cryptimeleon.incentive.services.store.StoreException;
+import org.cryptimeleon.incentive.services.store.exceptions.BulkResultsFullException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
 
 /**
  * Essentially a cache for the earn/spend responses that are held back until the corresponding basket is paid.
+ * <p>
+ * Results are kept as serialized JSON, so their size on heap is known. Results that are not fetched within the TTL are
+ * dropped, e.g. those of users who walked away after locking their basket. The heap used by all results is capped:
+ * if a spill directory is configured, results that are larger than the spill threshold or do not fit under the cap
+ * are written to disk; otherwise results that do not fit are rejected with a {@link BulkResultsFullException}, such
+ * that the client retries later instead of losing results it already waits for.
  */
 @Repository
 public class BulkResponseRepository {
-    private final HashMap<UUID, BulkResultsStoreDto> responseForBasketMap = new HashMap<>();
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BulkResponseRepository.class);
+    private static final String SPILL_SUFFIX = ".bulk";
+
+    private final ObjectMapper objectMapper;
+    private final Map<UUID, StoredResult> results = new ConcurrentHashMap<>();
+    // Results in the order they were added, which is also the order they expire in. Removed results are skipped.
+    private final Queue<StoredResult> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong heapBytes = new AtomicLong();
+    private final long ttlMillis;
+    private final long maxHeapBytes;
+    private final Path spillDirectory; // null if spilling is disabled
+    private final long spillThresholdBytes;
+    private final LongSupplier clock;
+
+    @Autowired
+    public BulkResponseRepository(ObjectMapper objectMapper,
+                                  @Value("${store.bulk-results.ttl-seconds:900}") long ttlSeconds,
+                                  @Value("${store.bulk-results.max-bytes:67108864}") long maxHeapBytes,
+                                  @Value("${store.bulk-results.spill-dir:}") String spillDirectory,
+                                  @Value("${store.bulk-results.spill-threshold-bytes:262144}") long spillThresholdBytes) throws IOException {
+        this(objectMapper, ttlSeconds * 1000, maxHeapBytes, spillDirectory.isEmpty() ? null : Path.of(spillDirectory), spillThresholdBytes, System::currentTimeMillis);
+    }
+
+    BulkResponseRepository(ObjectMapper objectMapper, long ttlMillis, long maxHeapBytes, Path spillDirectory, long spillThresholdBytes, LongSupplier clock) throws IOException {
+        this.objectMapper = objectMapper;
+        this.ttlMillis = ttlMillis;
+        this.maxHeapBytes = maxHeapBytes;
+        this.spillDirectory = spillDirectory;
+        this.spillThresholdBytes = spillThresholdBytes;
+        this.clock = clock;
+
+        if (spillDirectory != null) {
+            Files.createDirectories(spillDirectory);
+            // Results are not kept across restarts, so spilled results of an earlier run are garbage
+            try (Stream<Path> files = Files.list(spillDirectory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(SPILL_SUFFIX)).forEach(BulkResponseRepository::deleteSpillFile);
+            }
+        }
+    }
 
     public BulkResultsStoreDto removeBulkResultFor(UUID basketId) {
-        if (!responseForBasketMap.containsKey(basketId)) {
+        evictExpired();
+        var storedResult = results.remove(basketId);
+        if (storedResult == null) {
             throw new StoreException(String.format("No bulk results for basket with id %s found!", basketId));
         }
-        return responseForBasketMap.remove(basketId);
+        try {
+            return objectMapper.readValue(read(storedResult), BulkResultsStoreDto.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not restore bulk results of basket " + basketId, e);
+        } finally {
+            release(storedResult);
+        }
     }
 
+    /**
+     * Holds back the results of a bulk request until the basket is paid.
+     *
+     * @throws BulkResultsFullException if the results do not fit under the heap cap and spilling is disabled
+     */
     public void addBulkResult(UUID basketId, BulkResultsStoreDto bulkResultsStoreDto) {
-        responseForBasketMap.put(basketId, bulkResultsStoreDto);
+        evictExpired();
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(bulkResultsStoreDto);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not serialize bulk results of basket " + basketId, e);
+        }
+
+        StoredResult storedResult;
+        if (spillDirectory != null && (payload.length > spillThresholdBytes || !reserveHeap(payload.length))) {
+            storedResult = new StoredResult(basketId, null, spill(basketId, payload), payload.length, clock.getAsLong() + ttlMillis);
+        } else {
+            if (spillDirectory == null && !reserveHeap(payload.length)) {
+                log.warn("Rejecting bulk results of basket {}, results on heap would exceed {} bytes", basketId, maxHeapBytes);
+                throw new BulkResultsFullException("Too many pending bulk results, retry later");
+            }
+            storedResult = new StoredResult(basketId, payload, null, payload.length, clock.getAsLong() + ttlMillis);
+        }
+
+        // Enqueue after adding to the map, such that evictExpired does not skip the result as already removed
+        var replaced = results.put(basketId, storedResult);
+        insertionOrder.add(storedResult);
+        if (replaced != null) {
+            release(replaced);
+        }
+    }
+
+    /**
+     * Drops the results of a basket without reading them, e.g. if the transaction that added them was rolled back.
+     * Does nothing if there are no results for the basket.
+     */
+    public void discardBulkResult(UUID basketId) {
+        var storedResult = results.remove(basketId);
+        if (storedResult != null) {
+            release(storedResult);
+        }
+    }
+
+    /**
+     * Number of results that have been added and not yet fetched or expired.
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Bytes of the results that are kept on heap.
+     */
+    public long getHeapBytes() {
+        return heapBytes.get();
+    }
+
+    /**
+     * Takes heap for a result if it fits under the cap.
+     */
+    private boolean reserveHeap(long bytes) {
+        long current;
+        do {
+            current = heapBytes.get();
+            if (current + bytes > maxHeapBytes) {
+                return false;
+            }
+        } while (!heapBytes.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    private void evictExpired() {
+        long now = clock.getAsLong();
+        StoredResult oldest;
+        while ((oldest = insertionOrder.peek()) != null && (oldest.expiresAt <= now || results.get(oldest.basketId) != oldest)) {
+            if (insertionOrder.remove(oldest) && results.remove(oldest.basketId, oldest)) {
+                release(oldest);
+            }
+        }
+    }
+
+    /**
+     * Returns the serialized result, reading it from disk if it was spilled.
+     */
+    private byte[] read(StoredResult storedResult) throws IOException {
+        if (storedResult.spillFile == null) {
+            return storedResult.payload;
+        }
+        return Files.readAllBytes(storedResult.spillFile);
+    }
+
+    /**
+     * Frees the heap or disk space of a result that has been removed from the map, without reading it.
+     */
+    private void release(StoredResult storedResult) {
+        if (storedResult.spillFile == null) {
+            heapBytes.addAndGet(-storedResult.size);
+            // The result may still be queued for expiry, do not keep its payload alive until then
+            storedResult.payload = null;
+        } else {
+            deleteSpillFile(storedResult.spillFile);
+        }
+    }
+
+    private Path spill(UUID basketId, byte[] payload) {
+        // Unique per result, so replacing the results of a basket does not race with deleting the old file
+        var spillFile = spillDirectory.resolve(basketId + "-" + UUID.randomUUID() + SPILL_SUFFIX);
+        try {
+            Files.write(spillFile, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not spill bulk results of basket " + basketId, e);
+        }
+        return spillFile;
+    }
+
+    private static void deleteSpillFile(Path spillFile) {
+        try {
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            log.warn("Could not delete spilled bulk results {}", spillFile, e);
+        }
+    }
+
+    /**
+     * A result on heap (payload) or on disk (spill file).
+     */
+    private static class StoredResult {
+        private final UUID basketId;
+        private byte[] payload;
+        private final Path spillFile;
+        private final long size;
+        private final long expiresAt;
+
+        StoredResult(UUID basketId, byte[] payload, Path spillFile, long size, long expiresAt) {
+            this.basketId = basketId;
+            this.payload = payload;
+            this.spillFile = spillFile;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
     }
 }
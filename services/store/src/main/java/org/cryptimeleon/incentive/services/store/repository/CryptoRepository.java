@@ -73,8 +73,9 @@ public class CryptoRepository {
                 String serializedStorePublicKey = infoClient.querySerializedStorePublicKey().block(Duration.ofSeconds(5));
                 String serializedStoreSecretKey = infoClient.querySerializedStoreSecretKey(storeSharedSecret).block(Duration.ofSeconds(5));
 
-                this.publicParameters = new IncentivePublicParameters(jsonConverter.deserialize(serializedPublicParameters));
-                this.providerPublicKey = new ProviderPublicKey(jsonConverter.deserialize(serializedProviderPublicKey), publicParameters);
+                // Long-running service, fixed-base tables pay off after a few requests
+                this.publicParameters = new IncentivePublicParameters(jsonConverter.deserialize(serializedPublicParameters), true);
+                this.providerPublicKey = new ProviderPublicKey(jsonConverter.deserialize(serializedProviderPublicKey), publicParameters, true);
                 this.storePublicKey = new StorePublicKey(jsonConverter.deserialize(serializedStorePublicKey));
                 this.storeSecretKey = new StoreSecretKey(jsonConverter.deserialize(serializedStoreSecretKey));
                 this.incentiveSystem = new IncentiveSystem(publicParameters);
@@ -4,20 +4,44 @@ import org.cryptimeleon.incentive.crypto.callback.IDsidBlacklistHandler;
 import org.cryptimeleon.math.structures.rings.zn.Zn;
 import org.springframework.stereotype.Repository;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Repository
 public class DsidBlacklistRepository implements IDsidBlacklistHandler {
 
-    private final HashMap<Zn.ZnElement, Zn.ZnElement> storage = new HashMap<>();
+    private final ConcurrentHashMap<Zn.ZnElement, Zn.ZnElement> storage = new ConcurrentHashMap<>();
 
     @Override
     public boolean containsDsidWithDifferentGamma(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
-        return storage.containsKey(doubleSpendingId) && !storage.get(doubleSpendingId).equals(gamma);
+        var storedGamma = storage.get(doubleSpendingId);
+        return storedGamma != null && !storedGamma.equals(gamma);
     }
 
     @Override
     public void addEntryIfDsidNotPresent(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
         storage.putIfAbsent(doubleSpendingId, gamma);
     }
+
+    @Override
+    public boolean checkAndReserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        var storedGamma = reserve(doubleSpendingId, gamma);
+        return storedGamma == null || storedGamma.equals(gamma);
+    }
+
+    /**
+     * Adds the tuple unless the dsid is present already.
+     *
+     * @return the gamma stored for the dsid before, null if the tuple has been added
+     */
+    public Zn.ZnElement reserve(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        return storage.putIfAbsent(doubleSpendingId, gamma);
+    }
+
+    /**
+     * Removes a tuple added by {@link #reserve(Zn.ZnElement, Zn.ZnElement)}, e.g. because the request that added it
+     * was rolled back.
+     */
+    public void release(Zn.ZnElement doubleSpendingId, Zn.ZnElement gamma) {
+        storage.remove(doubleSpendingId, gamma);
+    }
 }
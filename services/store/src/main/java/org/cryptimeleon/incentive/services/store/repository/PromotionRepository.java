@@ -1,20 +1,27 @@
 package org.cryptimeleon.incentive.services.store.repository;
 
 import org.cryptimeleon.incentive.promotion.Promotion;
+import org.cryptimeleon.incentive.promotion.PromotionCatalog;
+import org.cryptimeleon.incentive.promotion.ZkpTokenUpdate;
 import org.cryptimeleon.incentive.services.store.StoreException;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
+/**
+ * This repository manages all promotions.
+ * Requests read an immutable {@link PromotionCatalog} that is replaced on every change.
+ */
 @Repository
 public class PromotionRepository {
-    private final List<Promotion> promotions = new ArrayList<>();
+    // The store does not prepare promotions, prepared promotions hold values derived from the provider secret key
+    private volatile PromotionCatalog catalog = PromotionCatalog.empty();
 
     public List<Promotion> getPromotions() {
-        return promotions;
+        return catalog.getPromotions();
     }
 
     /**
@@ -23,7 +30,11 @@ public class PromotionRepository {
      * @return Optional
      */
     public Optional<Promotion> getPromotion(BigInteger promotionId) {
-        return promotions.stream().filter(p -> p.getPromotionParameters().getPromotionId().equals(promotionId)).findAny();
+        return catalog.getPromotion(promotionId);
+    }
+
+    public Optional<ZkpTokenUpdate> getTokenUpdate(BigInteger promotionId, UUID tokenUpdateId) {
+        return catalog.getTokenUpdate(promotionId, tokenUpdateId);
     }
 
     /**
@@ -31,10 +42,10 @@ public class PromotionRepository {
      *
      * @param promotion promotion object
      */
-    public void addPromotion(Promotion promotion) {
-        if (promotions.stream().noneMatch(p -> p.getPromotionParameters().getPromotionId().equals(promotion.getPromotionParameters().getPromotionId()))) {
-            promotions.add(promotion);
-        } else {
+    public synchronized void addPromotion(Promotion promotion) {
+        try {
+            catalog = catalog.with(promotion);
+        } catch (IllegalArgumentException e) {
             throw new StoreException("PromotionId already used!");
         }
     }
@@ -42,7 +53,7 @@ public class PromotionRepository {
     /**
      * Deletes all promotions from the system.
      */
-    public void deleteAllPromotions() {
-        promotions.clear();
+    public synchronized void deleteAllPromotions() {
+        catalog = catalog.cleared();
     }
 }
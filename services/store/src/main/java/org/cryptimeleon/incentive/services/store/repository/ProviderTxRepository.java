@@ -1,12 +1,19 @@
 package org.cryptimeleon.incentive.services.store.repository;
 
 import org.cryptimeleon.incentive.client.IncentiveClient;
+import org.cryptimeleon.incentive.client.RepresentationCodec;
 import org.cryptimeleon.incentive.client.dto.EnrichedSpendTransactionDataDto;
+import org.cryptimeleon.incentive.client.dto.SpendTransactionDataResultDto;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.List;
+import java.util.stream.Collectors;
 
 @Repository
 public class ProviderTxRepository {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ProviderTxRepository.class);
 
     private final IncentiveClient incentiveClient;
 
@@ -15,13 +22,32 @@ public class ProviderTxRepository {
         this.incentiveClient = incentiveClient;
     }
 
-    public void sendBasketTransactioData(BasketSpendTransactionData basketSpendTransactionData) {
-        incentiveClient.sendSpendTransactionData(spendDataToDto(basketSpendTransactionData));
+    /**
+     * Sends a batch of spend transaction data to the provider.
+     * Only the records the provider lists in its result count as rejected. Any error status, including 4xx responses
+     * (e.g. an unknown endpoint or a request that is too large), is thrown, such that the batch is retried, split or
+     * moved to the dead letters by the {@link SpendTransactionOutbox}.
+     *
+     * @return the indices of the records the provider rejected as invalid
+     * @throws WebClientResponseException if the provider answered with an error status
+     */
+    public List<Integer> sendBasketTransactionDataBatch(List<BasketSpendTransactionData> basketSpendTransactionData) {
+        SpendTransactionDataResultDto result = incentiveClient.sendSpendTransactionDataBatch(basketSpendTransactionData.stream()
+                .map(this::spendDataToDto)
+                .collect(Collectors.toList()));
+        for (var rejection : result.getRejected()) {
+            log.error("Provider rejected spend transaction of basket {}: {}", basketSpendTransactionData.get(rejection.getIndex()).getBasketId(), rejection.getReason());
+        }
+        return result.getRejected().stream().map(SpendTransactionDataResultDto.Rejection::getIndex).collect(Collectors.toList());
     }
 
-    private EnrichedSpendTransactionDataDto spendDataToDto(BasketSpendTransactionData basketSpendTransactionData) {
+    /**
+     * Converts spend transaction data to the dto the provider accepts, e.g. to store it for a later replay.
+     */
+    EnrichedSpendTransactionDataDto spendDataToDto(BasketSpendTransactionData basketSpendTransactionData) {
         return new EnrichedSpendTransactionDataDto(
                 basketSpendTransactionData.getSpendTransactionData(),
+                RepresentationCodec.binary(),
                 basketSpendTransactionData.getPromotion().getPromotionParameters().getPromotionId(),
                 basketSpendTransactionData.getTokenUpdate().getTokenUpdateId(),
                 basketSpendTransactionData.getSerializedMetadata(),
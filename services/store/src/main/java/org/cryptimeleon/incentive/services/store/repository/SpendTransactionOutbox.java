@@ -0,0 +1,228 @@
+package org.cryptimeleon.incentive.services.store.repository;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers spend transaction data and forwards it to the provider in batches.
+ * <p>
+ * A batch is sent once it is full or once the time window since its first record has passed. The queue is bounded,
+ * but adding never blocks: if the provider cannot keep up, records that do not fit are moved to the dead letters
+ * instead of buffering without limit. Batches that fail with an error are retried with exponential backoff for a limited
+ * number of attempts. After that, the batch is split in half and both halves are sent on their own, such that a single
+ * record the provider cannot process does not hold back the others. A single record that still fails is moved to the
+ * dead letters. The provider verifies each record on its own and reports the invalid ones, which are dropped.
+ */
+public class SpendTransactionOutbox implements Closeable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SpendTransactionOutbox.class);
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final BlockingQueue<BasketSpendTransactionData> queue;
+    private final BatchSender sender;
+    private final DeadLetterHandler deadLetterHandler;
+    private final int batchSize;
+    private final long windowMillis;
+    private final int maxAttempts;
+    private final CountDownLatch closeSignal = new CountDownLatch(1);
+    private final Thread senderThread;
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private volatile int inFlight = 0;
+
+    /**
+     * Constructor, starts the sender thread.
+     *
+     * @param sender            sends a batch to the provider
+     * @param deadLetterHandler takes the records that could not be sent to the provider
+     * @param capacity          maximum number of buffered records
+     * @param batchSize         maximum number of records per batch
+     * @param windowMillis      maximum time a record waits for its batch to fill up
+     * @param maxAttempts       number of attempts to send a batch before it is split or moved to the dead letters
+     */
+    public SpendTransactionOutbox(BatchSender sender, DeadLetterHandler deadLetterHandler, int capacity, int batchSize, long windowMillis, int maxAttempts) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sender = sender;
+        this.deadLetterHandler = deadLetterHandler;
+        this.batchSize = batchSize;
+        this.windowMillis = windowMillis;
+        this.maxAttempts = maxAttempts;
+        this.senderThread = new Thread(this::run, "spend-transaction-outbox");
+        this.senderThread.setDaemon(true);
+        this.senderThread.start();
+    }
+
+    /**
+     * Adds a record to the outbox. Never blocks: if the outbox is full or closed, the record is moved to the dead letters.
+     *
+     * @param basketSpendTransactionData the record
+     */
+    public void add(BasketSpendTransactionData basketSpendTransactionData) {
+        if (closeSignal.getCount() == 0 || !queue.offer(basketSpendTransactionData)) {
+            log.warn("Spend transaction outbox is full or closed, moving spend transaction of basket {} to the dead letters", basketSpendTransactionData.getBasketId());
+            deadLetter(List.of(basketSpendTransactionData));
+        }
+    }
+
+    /**
+     * Returns the number of records that have not been acknowledged or rejected by the provider yet.
+     */
+    public int getPendingCount() {
+        return queue.size() + inFlight;
+    }
+
+    public long getAcknowledgedCount() {
+        return acknowledged.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getDeadLetteredCount() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Sends the remaining records and stops the sender thread. Records that still cannot be sent are moved to the dead
+     * letters.
+     *
+     * @param timeoutMillis maximum time to wait for the remaining records to be sent
+     */
+    public void close(long timeoutMillis) {
+        closeSignal.countDown();
+        try {
+            senderThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        var remaining = new ArrayList<BasketSpendTransactionData>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.error("Closed spend transaction outbox with {} records that were not sent to the provider", remaining.size());
+            deadLetter(remaining);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(10_000);
+    }
+
+    private void run() {
+        var batch = new ArrayList<BasketSpendTransactionData>(batchSize);
+        while (closeSignal.getCount() > 0 || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(windowMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Fill the batch until it is full or the window of its first record has passed
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || closeSignal.getCount() == 0) {
+                        break;
+                    }
+                    var next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            inFlight = batch.size();
+            send(batch);
+            inFlight = 0;
+            batch.clear();
+        }
+    }
+
+    /**
+     * Sends a batch until the provider acknowledges or rejects it, for at most {@link #maxAttempts} attempts. Then the
+     * batch is split in half and both halves are sent on their own, a single record is moved to the dead letters.
+     * If the outbox is closed meanwhile, the batch is moved to the dead letters right away.
+     */
+    private void send(List<BasketSpendTransactionData> batch) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            List<Integer> rejectedIndices;
+            try {
+                rejectedIndices = sender.send(batch);
+            } catch (RuntimeException e) {
+                log.warn("Could not send {} spend transactions to the provider (attempt {} of {})", batch.size(), attempt, maxAttempts, e);
+                if (attempt == maxAttempts) {
+                    break;
+                }
+                try {
+                    if (closeSignal.await(backoff, TimeUnit.MILLISECONDS)) {
+                        deadLetter(batch);
+                        return;
+                    }
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    deadLetter(batch);
+                    return;
+                }
+                backoff = Math.min(2 * backoff, MAX_BACKOFF_MILLIS);
+                continue;
+            }
+
+            acknowledged.addAndGet(batch.size() - rejectedIndices.size());
+            rejected.addAndGet(rejectedIndices.size());
+            return;
+        }
+
+        if (batch.size() == 1) {
+            deadLetter(batch);
+            return;
+        }
+        int half = batch.size() / 2;
+        send(batch.subList(0, half));
+        send(batch.subList(half, batch.size()));
+    }
+
+    private void deadLetter(List<BasketSpendTransactionData> records) {
+        deadLettered.addAndGet(records.size());
+        try {
+            deadLetterHandler.accept(List.copyOf(records));
+        } catch (RuntimeException e) {
+            log.error("Could not move {} spend transactions to the dead letters, they are lost", records.size(), e);
+        }
+    }
+
+    /**
+     * Sends a batch of records to the provider.
+     */
+    @FunctionalInterface
+    public interface BatchSender {
+        /**
+         * @param batch the records
+         * @return the indices of the records the provider rejected as invalid, all other records were acknowledged
+         * @throws RuntimeException if the outcome is unknown, e.g. on network errors, such that the batch is retried
+         */
+        List<Integer> send(List<BasketSpendTransactionData> batch);
+    }
+
+    /**
+     * Takes records that could not be sent to the provider, e.g. to store them for a later replay.
+     */
+    @FunctionalInterface
+    public interface DeadLetterHandler {
+        void accept(List<BasketSpendTransactionData> records);
+    }
+}
@@ -1,50 +1,112 @@
 package org.cryptimeleon.incentive.services.store.repository;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Store all transaction data for clearing and offline double-spending detection.
- * TODO: Send them to provider
+ * Spend transaction data is forwarded to the provider in batches via a {@link SpendTransactionOutbox}. Records that
+ * cannot be forwarded are appended to a dead letter file as newline-delimited JSON, which can be replayed via the
+ * provider's spend-transaction-data/stream endpoint.
  */
 @Repository
 public class TransactionRepository {
-    private final ArrayList<BasketEarnTransactionData> earnData = new ArrayList<>();
-    private final ArrayList<BasketSpendTransactionData> spendData = new ArrayList<>();
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TransactionRepository.class);
+
+    private final Map<UUID, List<BasketEarnTransactionData>> earnDataByBasketId = new ConcurrentHashMap<>();
+    private final Map<UUID, List<BasketSpendTransactionData>> spendDataByBasketId = new ConcurrentHashMap<>();
 
     private final ProviderTxRepository providerTxRepository;
+    private final ObjectMapper objectMapper;
+    private final Path deadLetterFile;
+    private final SpendTransactionOutbox outbox;
 
+    /**
+     * Constructor.
+     *
+     * @throws IllegalStateException if no dead letter file is configured
+     */
     @Autowired
-    public TransactionRepository(ProviderTxRepository providerTxRepository) {
+    public TransactionRepository(ProviderTxRepository providerTxRepository,
+                                 ObjectMapper objectMapper,
+                                 @Value("${store.outbox.dead-letter-file:}") String deadLetterFile,
+                                 @Value("${store.outbox.capacity:10000}") int capacity,
+                                 @Value("${store.outbox.batch-size:500}") int batchSize,
+                                 @Value("${store.outbox.window-ms:200}") long windowMillis,
+                                 @Value("${store.outbox.max-attempts:8}") int maxAttempts) {
+        if (deadLetterFile.isEmpty()) {
+            throw new IllegalStateException("No dead letter file for spend transaction data configured, set store.outbox.dead-letter-file");
+        }
         this.providerTxRepository = providerTxRepository;
+        this.objectMapper = objectMapper;
+        this.deadLetterFile = Path.of(deadLetterFile);
+        this.outbox = new SpendTransactionOutbox(providerTxRepository::sendBasketTransactionDataBatch, this::writeDeadLetters, capacity, batchSize, windowMillis, maxAttempts);
     }
 
 
     public void addEarnData(BasketEarnTransactionData basketEarnTransactionData) {
-        earnData.add(basketEarnTransactionData);
+        earnDataByBasketId.computeIfAbsent(basketEarnTransactionData.getBasketId(), basketId -> new CopyOnWriteArrayList<>())
+                .add(basketEarnTransactionData);
     }
 
-    @Async
+    /**
+     * Stores spend transaction data and queues it for the provider. Never blocks, see {@link SpendTransactionOutbox#add(BasketSpendTransactionData)}.
+     */
     public void addSpendData(BasketSpendTransactionData basketSpendTransactionData) {
-        spendData.add(basketSpendTransactionData);
-        providerTxRepository.sendBasketTransactioData(basketSpendTransactionData);
+        spendDataByBasketId.computeIfAbsent(basketSpendTransactionData.getBasketId(), basketId -> new CopyOnWriteArrayList<>())
+                .add(basketSpendTransactionData);
+        outbox.add(basketSpendTransactionData);
     }
 
     public Optional<BasketSpendTransactionData> getSpendDataForBasketId(UUID basketId) {
-        return spendData.stream()
-                .filter(spendData -> spendData.getBasketId().equals(basketId))
-                .findAny();
+        return spendDataByBasketId.getOrDefault(basketId, Collections.emptyList()).stream().findAny();
     }
 
     public Optional<BasketEarnTransactionData> getEarnDataForBasketId(UUID basketId) {
-        return earnData.stream()
-                .filter(earnData -> earnData.getBasketId().equals(basketId))
-                .findAny();
+        return earnDataByBasketId.getOrDefault(basketId, Collections.emptyList()).stream().findAny();
+    }
+
+    @PreDestroy
+    void close() {
+        outbox.close();
     }
-}
 
+    private synchronized void writeDeadLetters(List<BasketSpendTransactionData> records) {
+        var lines = new ArrayList<String>(records.size());
+        for (var record : records) {
+            try {
+                lines.add(objectMapper.writeValueAsString(providerTxRepository.spendDataToDto(record)));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        try {
+            if (deadLetterFile.getParent() != null) {
+                Files.createDirectories(deadLetterFile.getParent());
+            }
+            Files.write(deadLetterFile, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.error("Moved {} spend transactions to the dead letter file {}", records.size(), deadLetterFile);
+    }
+}
@@ -0,0 +1,28 @@
+package org.cryptimeleon.incentive.services.store.repository;
+
+import org.cryptimeleon.incentive.crypto.VerificationResultCache;
+import org.cryptimeleon.incentive.crypto.model.SpendStoreResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+
+/**
+ * Keeps the responses to recently signed spend requests, such that retries of the same request are answered without
+ * verifying the token signature and ZKP again.
+ */
+@Repository
+public class VerificationResultCacheRepository {
+    private final VerificationResultCache<SpendStoreResponse> spendResultCache;
+
+    @Autowired
+    private VerificationResultCacheRepository(@Value("${store.result-cache.max-size:10000}") int maxSize,
+                                              @Value("${store.result-cache.ttl-seconds:600}") long ttlSeconds) {
+        this.spendResultCache = new VerificationResultCache<>(maxSize, Duration.ofSeconds(ttlSeconds));
+    }
+
+    public VerificationResultCache<SpendStoreResponse> getSpendResultCache() {
+        return spendResultCache;
+    }
+}
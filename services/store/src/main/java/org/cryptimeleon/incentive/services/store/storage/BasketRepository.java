@@ -1,10 +1,18 @@
 package org.cryptimeleon.incentive.services.store.storage;
 
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface BasketRepository extends CrudRepository<BasketEntity, UUID> {
+    /**
+     * Loads a basket and locks its row until the end of the current transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<BasketEntity> findLockedByBasketID(UUID basketID);
 }
@@ -7,7 +7,11 @@ import org.cryptimeleon.incentive.client.dto.store.SpendRequestStoreDto;
 import org.cryptimeleon.incentive.crypto.TestSuite;
 import org.cryptimeleon.incentive.crypto.model.*;
 import org.cryptimeleon.incentive.crypto.model.keys.user.UserPublicKey;
+import org.cryptimeleon.incentive.promotion.ContextManager;
+import org.cryptimeleon.incentive.promotion.Promotion;
 import org.cryptimeleon.incentive.promotion.TestSuiteWithPromotion;
+import org.cryptimeleon.incentive.promotion.hazel.HazelPromotion;
+import org.cryptimeleon.incentive.promotion.hazel.HazelTokenUpdate;
 import org.cryptimeleon.incentive.promotion.sideeffect.RewardSideEffect;
 import org.cryptimeleon.incentive.services.store.repository.CryptoRepository;
 import org.cryptimeleon.incentive.services.store.repository.DsidBlacklistRepository;
@@ -34,6 +38,9 @@ import java.util.stream.Collectors;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.cryptimeleon.incentive.crypto.TestSuite.generateToken;
 import static org.cryptimeleon.incentive.crypto.TestSuite.incentiveSystem;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @TestInstance(TestInstance.Lifecycle.PER_METHOD)
@@ -77,8 +84,11 @@ public class StoreTest {
         when(cryptoRepository.getStoreSecretKey()).thenReturn(TestSuiteWithPromotion.storeKeyPair.getSk());
         when(cryptoRepository.getStoreKeyPair()).thenReturn(TestSuiteWithPromotion.storeKeyPair);
         when(basketRepository.findById(TestSuiteWithPromotion.basket.getBasketId())).thenReturn(Optional.of(basket));
+        when(basketRepository.findLockedByBasketID(TestSuiteWithPromotion.basket.getBasketId())).thenReturn(Optional.of(basket));
         when(promotionRepository.getPromotion(TestSuiteWithPromotion.promotion.getPromotionParameters().getPromotionId()))
                 .thenReturn(Optional.of(TestSuiteWithPromotion.promotion));
+        when(promotionRepository.getTokenUpdate(TestSuiteWithPromotion.promotion.getPromotionParameters().getPromotionId(), TestSuiteWithPromotion.spendTokenUpdate.getTokenUpdateId()))
+                .thenReturn(Optional.of(TestSuiteWithPromotion.spendTokenUpdate));
         var id = ((RewardSideEffect) TestSuiteWithPromotion.spendTokenUpdate.getSideEffect()).getRewardId();
         when(rewardItemRepository.findById(id)).thenReturn(Optional.of(new RewardItemEntity(id, "Test Reward")));
 
@@ -308,7 +318,7 @@ public class StoreTest {
 
     @Test
     void spendPointsBlacklistedDsidTest(@Autowired WebTestClient webTestClient) {
-        when(dsidBlacklistRepository.containsDsidWithDifferentGamma(Mockito.eq(token.getDoubleSpendingId()), Mockito.any())).thenReturn(true);
+        when(dsidBlacklistRepository.reserve(Mockito.eq(token.getDoubleSpendingId()), Mockito.any())).thenReturn(TestSuiteWithPromotion.pp.getBg().getZn().getUniformlyRandomElement());
         SpendStoreRequest spendStoreRequest = generateSpendCouponRequest(token);
 
         BulkRequestStoreDto bulkRequestStoreDto = generateBulkStoreDto(spendStoreRequest);
@@ -321,6 +331,103 @@ public class StoreTest {
                 .isEqualTo(HttpStatus.I_AM_A_TEAPOT);
     }
 
+    @Test
+    void spendForSeveralPromotionsTest(@Autowired WebTestClient webTestClient) {
+        var secondPromotion = mockSecondPromotion();
+        var secondToken = generateToken(secondPromotion.getPromotionParameters(), TestSuiteWithPromotion.pointsBeforeSpend);
+        SpendStoreRequest spendStoreRequest = generateSpendCouponRequest(token);
+        SpendStoreRequest secondSpendStoreRequest = generateSpendCouponRequest(secondToken, secondPromotion);
+
+        var bulkRequestStoreDto = new BulkRequestStoreDto(TestSuiteWithPromotion.basket.getBasketId(),
+                Collections.emptyList(),
+                List.of(spendRequestDto(spendStoreRequest, TestSuiteWithPromotion.promotion), spendRequestDto(secondSpendStoreRequest, secondPromotion)));
+        webTestClient.post()
+                .uri("/bulk")
+                .body(BodyInserters.fromValue(bulkRequestStoreDto))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.OK);
+
+        assertThat(basket.getRewardItems()).hasSize(2);
+        verify(dsidBlacklistRepository).reserve(Mockito.eq(token.getDoubleSpendingId()), any());
+        verify(dsidBlacklistRepository).reserve(Mockito.eq(secondToken.getDoubleSpendingId()), any());
+        verify(dsidBlacklistRepository, never()).release(any(), any());
+
+        when(basketRepository.findById(TestSuiteWithPromotion.basket.getBasketId())).thenReturn(Optional.of(paidBasket));
+        BulkResultsStoreDto bulkResultsStoreDto = getBulkResponseSpec(webTestClient, TestSuiteWithPromotion.basket.getBasketId())
+                .expectStatus()
+                .isEqualTo(HttpStatus.OK)
+                .expectBody(BulkResultsStoreDto.class)
+                .returnResult()
+                .getResponseBody();
+
+        assert bulkResultsStoreDto != null;
+        assertThat(bulkResultsStoreDto.getSpendResults()).hasSize(2);
+        var spendCouponSignature = new SpendStoreResponse(jsonConverter.deserialize(bulkResultsStoreDto.getSpendResults().get(0).getSerializedSpendCouponSignature()));
+        var secondSpendCouponSignature = new SpendStoreResponse(jsonConverter.deserialize(bulkResultsStoreDto.getSpendResults().get(1).getSerializedSpendCouponSignature()));
+        assertThat(incentiveSystem.verifySpendCouponSignature(spendStoreRequest, spendCouponSignature, TestSuiteWithPromotion.promotion.getPromotionParameters(), TestSuiteWithPromotion.basket.getBasketId()))
+                .isTrue();
+        assertThat(incentiveSystem.verifySpendCouponSignature(secondSpendStoreRequest, secondSpendCouponSignature, secondPromotion.getPromotionParameters(), TestSuiteWithPromotion.basket.getBasketId()))
+                .isTrue();
+    }
+
+    @Test
+    void failedSpendReleasesDsidsOfBulkRequestTest(@Autowired WebTestClient webTestClient) {
+        var secondPromotion = mockSecondPromotion();
+        var secondToken = generateToken(secondPromotion.getPromotionParameters(), TestSuiteWithPromotion.pointsBeforeSpend);
+        // The second token has already been spent for another basket
+        when(dsidBlacklistRepository.reserve(Mockito.eq(secondToken.getDoubleSpendingId()), Mockito.any())).thenReturn(TestSuiteWithPromotion.pp.getBg().getZn().getUniformlyRandomElement());
+
+        var bulkRequestStoreDto = new BulkRequestStoreDto(TestSuiteWithPromotion.basket.getBasketId(),
+                Collections.emptyList(),
+                List.of(spendRequestDto(generateSpendCouponRequest(token), TestSuiteWithPromotion.promotion),
+                        spendRequestDto(generateSpendCouponRequest(secondToken, secondPromotion), secondPromotion)));
+        webTestClient.post()
+                .uri("/bulk")
+                .body(BodyInserters.fromValue(bulkRequestStoreDto))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.I_AM_A_TEAPOT);
+
+        // The first spend succeeded, but the bulk request was rolled back
+        verify(dsidBlacklistRepository).release(Mockito.eq(token.getDoubleSpendingId()), any());
+        verify(dsidBlacklistRepository, never()).release(Mockito.eq(secondToken.getDoubleSpendingId()), any());
+    }
+
+    /**
+     * Adds a second promotion with a spend token update for the basket, such that one bulk request can contain two spends.
+     */
+    private Promotion mockSecondPromotion() {
+        var tokenUpdate = new HazelTokenUpdate(UUID.randomUUID(), "Reward", TestSuiteWithPromotion.spendTokenUpdate.getSideEffect(), TestSuiteWithPromotion.spendCost);
+        var promotion = new HazelPromotion(HazelPromotion.generatePromotionParameters(), "Second Promotion", "Second Description", List.of(tokenUpdate), TestSuiteWithPromotion.KEYWORD);
+        when(promotionRepository.getPromotion(promotion.getPromotionParameters().getPromotionId())).thenReturn(Optional.of(promotion));
+        when(promotionRepository.getTokenUpdate(promotion.getPromotionParameters().getPromotionId(), tokenUpdate.getTokenUpdateId())).thenReturn(Optional.of(tokenUpdate));
+        return promotion;
+    }
+
+    private SpendRequestStoreDto spendRequestDto(SpendStoreRequest spendStoreRequest, Promotion promotion) {
+        return new SpendRequestStoreDto(
+                jsonConverter.serialize(spendStoreRequest.getRepresentation()),
+                promotion.getPromotionParameters().getPromotionId(),
+                promotion.getZkpTokenUpdates().get(0).getTokenUpdateId(),
+                jsonConverter.serialize(new RepresentableRepresentation(promotion.generateMetadataForUpdate())));
+    }
+
+    private SpendStoreRequest generateSpendCouponRequest(Token token, Promotion promotion) {
+        var tokenUpdate = promotion.getZkpTokenUpdates().get(0);
+        var basketPoints = promotion.computeEarningsForBasket(TestSuiteWithPromotion.basket);
+        var metadata = promotion.generateMetadataForUpdate();
+        return incentiveSystem.generateStoreSpendRequest(
+                TestSuiteWithPromotion.userKeyPair,
+                TestSuiteWithPromotion.providerKeyPair.getPk(),
+                token,
+                promotion.getPromotionParameters(),
+                TestSuiteWithPromotion.basket.getBasketId(),
+                tokenUpdate.computeSatisfyingNewPointsVector(TestSuiteWithPromotion.pointsBeforeSpend, basketPoints, metadata).get(),
+                tokenUpdate.generateRelationTree(basketPoints, metadata),
+                ContextManager.computeContext(tokenUpdate.getTokenUpdateId(), basketPoints, metadata));
+    }
+
     private BulkRequestStoreDto generateBulkStoreDto(SpendStoreRequest spendStoreRequest) {
         var spendRequestDto = new SpendRequestStoreDto(
                 jsonConverter.serialize(spendStoreRequest.getRepresentation()),
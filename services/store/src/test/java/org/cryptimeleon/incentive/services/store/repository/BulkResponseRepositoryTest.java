@@ -0,0 +1,118 @@
+package org.cryptimeleon.incentive.services.store.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cryptimeleon.incentive.client.dto.store.BulkResultsStoreDto;
+import org.cryptimeleon.incentive.client.dto.store.EarnResultStoreDto;
+import org.cryptimeleon.incentive.client.dto.store.SpendResultsStoreDto;
+import org.cryptimeleon.incentive.services.store.StoreException;
+import org.cryptimeleon.incentive.services.store.exceptions.BulkResultsFullException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BulkResponseRepositoryTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void resultsExpireAfterTtlTest() throws IOException {
+        var repository = new BulkResponseRepository(objectMapper, 1000, Long.MAX_VALUE, null, Long.MAX_VALUE, clock::get);
+        var fetchedBasket = UUID.randomUUID();
+        var abandonedBasket = UUID.randomUUID();
+        repository.addBulkResult(fetchedBasket, result(1));
+        repository.addBulkResult(abandonedBasket, result(2));
+
+        clock.set(999);
+        assertThat(repository.removeBulkResultFor(fetchedBasket)).isEqualTo(result(1));
+        clock.set(1000);
+        assertThatThrownBy(() -> repository.removeBulkResultFor(abandonedBasket)).isInstanceOf(StoreException.class);
+        assertThat(repository.size()).isZero();
+        assertThat(repository.getHeapBytes()).isZero();
+    }
+
+    @Test
+    void resultsOverTheCapAreRejectedTest() throws IOException {
+        long resultSize = serializedSize(result(0));
+        var repository = new BulkResponseRepository(objectMapper, 1000, 3 * resultSize, null, Long.MAX_VALUE, clock::get);
+        var basketIds = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        for (int i = 0; i < 3; i++) {
+            repository.addBulkResult(basketIds.get(i), result(i));
+        }
+
+        assertThatThrownBy(() -> repository.addBulkResult(basketIds.get(3), result(3))).isInstanceOf(BulkResultsFullException.class);
+        assertThat(repository.size()).isEqualTo(3);
+        assertThat(repository.getHeapBytes()).isEqualTo(3 * resultSize);
+        assertThat(repository.removeBulkResultFor(basketIds.get(0))).isEqualTo(result(0));
+
+        // Fetching a result makes room again
+        repository.addBulkResult(basketIds.get(3), result(3));
+        assertThat(repository.removeBulkResultFor(basketIds.get(3))).isEqualTo(result(3));
+    }
+
+    @Test
+    void resultsSpillToDiskTest(@TempDir Path tempDir) throws IOException {
+        long resultSize = serializedSize(result(0));
+        var repository = new BulkResponseRepository(objectMapper, 1000, resultSize, tempDir, resultSize, clock::get);
+        var onHeapBasket = UUID.randomUUID();
+        var overCapBasket = UUID.randomUUID();
+        var largeBasket = UUID.randomUUID();
+        repository.addBulkResult(onHeapBasket, result(0));
+        repository.addBulkResult(overCapBasket, result(1));
+        var largeResult = new BulkResultsStoreDto(List.of(new EarnResultStoreDto(BigInteger.ONE, "x".repeat(10_000))), List.of());
+        repository.addBulkResult(largeBasket, largeResult);
+
+        assertThat(repository.getHeapBytes()).isEqualTo(resultSize);
+        assertThat(fileCount(tempDir)).isEqualTo(2);
+        assertThat(repository.removeBulkResultFor(largeBasket)).isEqualTo(largeResult);
+        assertThat(repository.removeBulkResultFor(overCapBasket)).isEqualTo(result(1));
+        assertThat(repository.removeBulkResultFor(onHeapBasket)).isEqualTo(result(0));
+        assertThat(fileCount(tempDir)).isZero();
+        assertThat(repository.getHeapBytes()).isZero();
+    }
+
+    @Test
+    void discardedResultsAreReleasedTest(@TempDir Path tempDir) throws IOException {
+        long resultSize = serializedSize(result(0));
+        var repository = new BulkResponseRepository(objectMapper, 1000, resultSize, tempDir, resultSize, clock::get);
+        var onHeapBasket = UUID.randomUUID();
+        var spilledBasket = UUID.randomUUID();
+        repository.addBulkResult(onHeapBasket, result(0));
+        repository.addBulkResult(spilledBasket, result(1));
+
+        repository.discardBulkResult(onHeapBasket);
+        repository.discardBulkResult(spilledBasket);
+        repository.discardBulkResult(UUID.randomUUID());
+
+        assertThatThrownBy(() -> repository.removeBulkResultFor(onHeapBasket)).isInstanceOf(StoreException.class);
+        assertThat(repository.size()).isZero();
+        assertThat(repository.getHeapBytes()).isZero();
+        assertThat(fileCount(tempDir)).isZero();
+    }
+
+    private static long fileCount(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static BulkResultsStoreDto result(int i) {
+        return new BulkResultsStoreDto(
+                List.of(new EarnResultStoreDto(BigInteger.valueOf(i), "earn-signature")),
+                List.of(new SpendResultsStoreDto(BigInteger.valueOf(i), "spend-signature"))
+        );
+    }
+
+    private static long serializedSize(BulkResultsStoreDto bulkResultsStoreDto) throws IOException {
+        return objectMapper.writeValueAsBytes(bulkResultsStoreDto).length;
+    }
+}
@@ -0,0 +1,126 @@
+package org.cryptimeleon.incentive.services.store.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpendTransactionOutboxTest {
+
+    @Test
+    void recordsAreSentInBatchesAndRetriedTest() throws InterruptedException {
+        var failures = new AtomicInteger(2);
+        List<List<UUID>> sentBatches = Collections.synchronizedList(new ArrayList<>());
+        var outbox = new SpendTransactionOutbox(batch -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Provider not reachable");
+            }
+            sentBatches.add(basketIds(batch));
+            return List.of();
+        }, records -> {}, 100, 10, 50, 5);
+
+        var basketIds = new ArrayList<UUID>();
+        for (int i = 0; i < 25; i++) {
+            var basketId = UUID.randomUUID();
+            basketIds.add(basketId);
+            outbox.add(record(basketId));
+        }
+
+        awaitUntil(() -> outbox.getAcknowledgedCount() == 25);
+        assertThat(outbox.getPendingCount()).isZero();
+        assertThat(sentBatches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(10));
+        assertThat(sentBatches.stream().flatMap(List::stream)).containsExactlyElementsOf(basketIds);
+        outbox.close();
+    }
+
+    @Test
+    void onlyRejectedRecordsAreDroppedTest() throws InterruptedException {
+        var invalid = UUID.randomUUID();
+        var outbox = new SpendTransactionOutbox(batch -> basketIds(batch).contains(invalid) ? List.of(basketIds(batch).indexOf(invalid)) : List.of(), records -> {}, 100, 8, 1000, 5);
+
+        for (int i = 0; i < 7; i++) {
+            outbox.add(record(UUID.randomUUID()));
+        }
+        outbox.add(record(invalid));
+
+        awaitUntil(() -> outbox.getAcknowledgedCount() + outbox.getRejectedCount() == 8);
+        assertThat(outbox.getAcknowledgedCount()).isEqualTo(7);
+        assertThat(outbox.getRejectedCount()).isEqualTo(1);
+        outbox.close();
+    }
+
+    @Test
+    void failingRecordIsSplitOffAndMovedToDeadLettersTest() throws InterruptedException {
+        var poison = UUID.randomUUID();
+        List<UUID> deadLetters = Collections.synchronizedList(new ArrayList<>());
+        var outbox = new SpendTransactionOutbox(batch -> {
+            if (basketIds(batch).contains(poison)) {
+                throw new IllegalStateException("Provider cannot process this batch");
+            }
+            return List.of();
+        }, records -> deadLetters.addAll(basketIds(records)), 100, 8, 1000, 2);
+
+        for (int i = 0; i < 3; i++) {
+            outbox.add(record(UUID.randomUUID()));
+        }
+        outbox.add(record(poison));
+        for (int i = 0; i < 4; i++) {
+            outbox.add(record(UUID.randomUUID()));
+        }
+
+        awaitUntil(() -> outbox.getAcknowledgedCount() + outbox.getDeadLetteredCount() == 8);
+        assertThat(outbox.getAcknowledgedCount()).isEqualTo(7);
+        assertThat(deadLetters).containsExactly(poison);
+        outbox.close();
+    }
+
+    @Test
+    void addNeverBlocksWhenOutboxIsFullTest() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        List<UUID> deadLetters = Collections.synchronizedList(new ArrayList<>());
+        var outbox = new SpendTransactionOutbox(batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of();
+        }, records -> deadLetters.addAll(basketIds(records)), 2, 1, 10, 5);
+
+        // One record is in flight and two are queued at most, all others must not fit
+        for (int i = 0; i < 10; i++) {
+            outbox.add(record(UUID.randomUUID()));
+        }
+        assertThat(outbox.getDeadLetteredCount()).isGreaterThanOrEqualTo(7);
+        release.countDown();
+
+        awaitUntil(() -> outbox.getAcknowledgedCount() + outbox.getDeadLetteredCount() == 10);
+        assertThat(deadLetters).hasSize((int) outbox.getDeadLetteredCount());
+        outbox.close();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<UUID> basketIds(List<BasketSpendTransactionData> batch) {
+        var basketIds = new ArrayList<UUID>();
+        batch.forEach(basketSpendTransactionData -> basketIds.add(basketSpendTransactionData.getBasketId()));
+        return basketIds;
+    }
+
+    private static BasketSpendTransactionData record(UUID basketId) {
+        return new BasketSpendTransactionData(basketId, null, null, null, null, List.of());
+    }
+}